@@ -0,0 +1,52 @@
+package lab4.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembler throughput on the bundled lab4 programs and on large synthetic ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssemblerBenchmark {
+    @Param({ "lab4_test1.asm", "lab4_test2.asm", "lab4_fib10.asm", "lab4_fib20.asm",
+            "generated:10000", "generated:100000" })
+    public String source;
+
+    private List<String> lines;
+
+    @Setup
+    public void setup() throws Throwable {
+        lines = Programs.lines(source);
+    }
+
+    @Benchmark
+    public Object assemble() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) lines);
+        return Lab4Handles.ASSEMBLE.invokeExact(assembler);
+    }
+
+    @Benchmark
+    public Object assembleAndDecode() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) lines);
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object instructions = Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler);
+        return Lab4Handles.DECODE.invokeExact(instructions);
+    }
+}
@@ -0,0 +1,89 @@
+package lab4.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BatchEmulator against as many independent Emulators: one operation runs the program once per lane, every lane
+ * starting from a different $a0. The program loops $a0 times and branches on whether $a0 is odd, so lanes split
+ * and join again on every iteration and finish at different times, which is where grouping lanes by PC pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchEmulatorBenchmark {
+    private static final int A0 = 4;
+    private static final int FIRST_COUNT = 2000;
+
+    private static final List<String> DIVERGENT = List.of(
+            "add $v0, $0, $0",
+            "addi $t2, $0, 1",
+            "L: beq $a0, $0, E",
+            "and $t1, $a0, $t2",
+            "beq $t1, $0, EVEN",
+            "add $v0, $v0, $a0",
+            "sw $v0, 0($0)",
+            "j NEXT",
+            "EVEN: sll $t3, $a0, 1",
+            "add $v0, $v0, $t3",
+            "NEXT: lw $t0, 0($0)",
+            "add $v1, $v1, $t0",
+            "addi $a0, $a0, -1",
+            "j L",
+            "E: add $v1, $v1, $v0");
+
+    @Param({ "16", "64" })
+    public int lanes;
+
+    private Object batch;
+    private Object[] emulators;
+
+    @Setup
+    public void setup() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) DIVERGENT);
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+
+        batch = Lab4Handles.NEW_BATCH_EMULATOR.invokeExact(program, lanes);
+        emulators = new Object[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            emulators[lane] = Lab4Handles.NEW_EMULATOR.invokeExact(program);
+        }
+    }
+
+    @Benchmark
+    public long batch() throws Throwable {
+        Lab4Handles.BATCH_RESET.invokeExact(batch);
+        for (int lane = 0; lane < lanes; lane++) {
+            Lab4Handles.BATCH_WRITE_REGISTER.invokeExact(batch, lane, A0, FIRST_COUNT + lane % 7);
+        }
+        return (long) Lab4Handles.BATCH_RUN_TO_COMPLETION.invokeExact(batch);
+    }
+
+    @Benchmark
+    public long emulators() throws Throwable {
+        long executed = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            final Object emulator = emulators[lane];
+            Lab4Handles.EMULATOR_RESET.invokeExact(emulator);
+            Lab4Handles.EMULATOR_WRITE_REGISTER.invokeExact(emulator, A0, FIRST_COUNT + lane % 7);
+            executed += (long) Lab4Handles.EMULATOR_RUN_TO_COMPLETION.invokeExact(emulator);
+        }
+        return executed;
+    }
+}
@@ -0,0 +1,61 @@
+package lab4.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pipeline model throughput: one operation is CPUSimulator.run() over the whole program, in either the
+ * cycle-by-cycle or the fast-forward mode. The summary it prints goes to a null stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CPUSimulatorBenchmark {
+    @Param({ "lab4_test1.asm", "lab4_fib20.asm" })
+    public String source;
+
+    @Param({ "false", "true" })
+    public boolean fastForward;
+
+    private Object simulator;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) Programs.lines(source));
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+
+        simulator = Lab4Handles.NEW_SIMULATOR.invokeExact(Lab4Handles.NEW_EMULATOR.invokeExact(program));
+        Lab4Handles.SIMULATOR_SET_FAST_FORWARD.invokeExact(simulator, fastForward);
+        stdout = Programs.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int run() throws Throwable {
+        Lab4Handles.SIMULATOR_RESET.invokeExact(simulator);
+        Lab4Handles.SIMULATOR_RUN.invokeExact(simulator);
+        return (int) Lab4Handles.SIMULATOR_CYCLES.invokeExact(simulator);
+    }
+}
@@ -0,0 +1,55 @@
+package lab4.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoupled runs: one operation is CPUSimulator.runToCompletion() over the whole program, with the functional
+ * emulator either on the same thread as the pipeline model or running ahead on a second one. The gain needs a
+ * second core; on a single processor decoupled runs stay coupled, and both scores match.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoupledBenchmark {
+    @Param({ "lab4_test1.asm", "lab4_fib20.asm" })
+    public String source;
+
+    @Param({ "false", "true" })
+    public boolean decoupled;
+
+    private Object simulator;
+
+    @Setup
+    public void setup() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) Programs.lines(source));
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+
+        simulator = Lab4Handles.NEW_SIMULATOR.invokeExact(Lab4Handles.NEW_EMULATOR.invokeExact(program));
+        // decoupled runs take no checkpoints, so neither does the coupled baseline
+        Lab4Handles.SIMULATOR_SET_CHECKPOINT_INTERVAL.invokeExact(simulator, 0);
+        Lab4Handles.SIMULATOR_SET_DECOUPLED.invokeExact(simulator, decoupled);
+    }
+
+    @Benchmark
+    public int run() throws Throwable {
+        Lab4Handles.SIMULATOR_RESET.invokeExact(simulator);
+        Lab4Handles.SIMULATOR_RUN_TO_COMPLETION.invokeExact(simulator);
+        return (int) Lab4Handles.SIMULATOR_CYCLES.invokeExact(simulator);
+    }
+}
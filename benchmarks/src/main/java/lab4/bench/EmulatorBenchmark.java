@@ -0,0 +1,70 @@
+package lab4.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Functional emulator throughput: one operation is a full run of the program from a reset machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmulatorBenchmark {
+    @Param({ "lab4_test1.asm", "lab4_fib20.asm" })
+    public String source;
+
+    private Object emulator;
+    private Object tieredEmulator;
+
+    @Setup
+    public void setup() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) Programs.lines(source));
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+
+        emulator = Lab4Handles.NEW_EMULATOR.invokeExact(program);
+        tieredEmulator = Lab4Handles.NEW_EMULATOR.invokeExact(program);
+        Lab4Handles.EMULATOR_SET_TIERED.invokeExact(tieredEmulator, true);
+    }
+
+    @Benchmark
+    public long runToCompletion() throws Throwable {
+        Lab4Handles.EMULATOR_RESET.invokeExact(emulator);
+        return (long) Lab4Handles.EMULATOR_RUN_TO_COMPLETION.invokeExact(emulator);
+    }
+
+    @Benchmark
+    public long runTiered() throws Throwable {
+        Lab4Handles.EMULATOR_RESET.invokeExact(tieredEmulator);
+        return (long) Lab4Handles.EMULATOR_RUN_TO_COMPLETION.invokeExact(tieredEmulator);
+    }
+
+    /**
+     * Drives the emulator one instruction at a time, the way the pipeline model does.
+     */
+    @Benchmark
+    public long stepLoop() throws Throwable {
+        Lab4Handles.EMULATOR_RESET.invokeExact(emulator);
+        long executed = 0;
+        while ((boolean) Lab4Handles.EMULATOR_HAS_MORE.invokeExact(emulator)) {
+            Lab4Handles.EMULATOR_STEP.invokeExact(emulator);
+            executed++;
+        }
+        return executed;
+    }
+}
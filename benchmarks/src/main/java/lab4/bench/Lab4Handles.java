@@ -0,0 +1,101 @@
+package lab4.bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * The simulator lives in the unnamed package, which benchmark code in a named package cannot reference, and JMH
+ * refuses to generate benchmarks in the unnamed package. Everything is reached through these method handles
+ * instead. They are static final, so the JIT constant-folds and inlines them and the indirection costs nothing
+ * in steady state.
+ */
+final class Lab4Handles {
+    static final MethodHandle READ_FILE;
+    static final MethodHandle NEW_ASSEMBLER;
+    static final MethodHandle ASSEMBLE;
+    static final MethodHandle ASSEMBLER_INSTRUCTIONS;
+    static final MethodHandle DECODE;
+    static final MethodHandle NEW_EMULATOR;
+    static final MethodHandle EMULATOR_RESET;
+    static final MethodHandle EMULATOR_STEP;
+    static final MethodHandle EMULATOR_HAS_MORE;
+    static final MethodHandle EMULATOR_RUN_TO_COMPLETION;
+    static final MethodHandle EMULATOR_SET_TIERED;
+    static final MethodHandle EMULATOR_WRITE_REGISTER;
+    static final MethodHandle NEW_BATCH_EMULATOR;
+    static final MethodHandle BATCH_RESET;
+    static final MethodHandle BATCH_WRITE_REGISTER;
+    static final MethodHandle BATCH_RUN_TO_COMPLETION;
+    static final MethodHandle NEW_SIMULATOR;
+    static final MethodHandle SIMULATOR_RUN;
+    static final MethodHandle SIMULATOR_RESET;
+    static final MethodHandle SIMULATOR_SET_FAST_FORWARD;
+    static final MethodHandle SIMULATOR_SET_DECOUPLED;
+    static final MethodHandle SIMULATOR_CYCLES;
+    static final MethodHandle SIMULATOR_RUN_TO_COMPLETION;
+    static final MethodHandle SIMULATOR_SET_CHECKPOINT_INTERVAL;
+    static final MethodHandle NEW_SIMULATION_POOL;
+    static final MethodHandle POOL_RUN_ALL;
+    static final MethodHandle POOL_CLOSE;
+    static final MethodHandle NEW_REPL;
+    static final MethodHandle REPL_START_SCRIPT;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> lab4 = Class.forName("lab4");
+            final Class<?> assembler = Class.forName("Assembler");
+            final Class<?> decodedProgram = Class.forName("DecodedProgram");
+            final Class<?> emulator = Class.forName("Emulator");
+            final Class<?> batchEmulator = Class.forName("BatchEmulator");
+            final Class<?> simulator = Class.forName("CPUSimulator");
+            final Class<?> repl = Class.forName("Repl");
+            final Class<?> pool = Class.forName("SimulationPool");
+
+            READ_FILE = lookup.findStatic(lab4, "readFile", MethodType.methodType(List.class, String.class));
+            NEW_ASSEMBLER = erase(lookup.findConstructor(assembler, MethodType.methodType(void.class, List.class)));
+            ASSEMBLE = erase(lookup.findVirtual(assembler, "assemble", MethodType.methodType(List.class)));
+            ASSEMBLER_INSTRUCTIONS = erase(lookup.findVirtual(assembler, "instructions", MethodType.methodType(List.class)));
+            DECODE = erase(lookup.findStatic(decodedProgram, "decode", MethodType.methodType(decodedProgram, List.class)));
+            NEW_EMULATOR = erase(lookup.findConstructor(emulator, MethodType.methodType(void.class, decodedProgram)));
+            EMULATOR_RESET = erase(lookup.findVirtual(emulator, "reset", MethodType.methodType(void.class)));
+            EMULATOR_STEP = erase(lookup.findVirtual(emulator, "step", MethodType.methodType(void.class)));
+            EMULATOR_HAS_MORE = erase(lookup.findVirtual(emulator, "hasMoreInstructions", MethodType.methodType(boolean.class)));
+            EMULATOR_RUN_TO_COMPLETION = erase(lookup.findVirtual(emulator, "runToCompletion", MethodType.methodType(long.class)));
+            EMULATOR_SET_TIERED = erase(lookup.findVirtual(emulator, "setTieredCompilation", MethodType.methodType(void.class, boolean.class)));
+            EMULATOR_WRITE_REGISTER = erase(lookup.findVirtual(emulator, "writeRegister", MethodType.methodType(void.class, int.class, int.class)));
+            NEW_BATCH_EMULATOR = erase(lookup.findConstructor(batchEmulator, MethodType.methodType(void.class, decodedProgram, int.class)));
+            BATCH_RESET = erase(lookup.findVirtual(batchEmulator, "reset", MethodType.methodType(void.class)));
+            BATCH_WRITE_REGISTER = erase(lookup.findVirtual(batchEmulator, "writeRegister", MethodType.methodType(void.class, int.class, int.class, int.class)));
+            BATCH_RUN_TO_COMPLETION = erase(lookup.findVirtual(batchEmulator, "runToCompletion", MethodType.methodType(long.class)));
+            NEW_SIMULATOR = erase(lookup.findConstructor(simulator, MethodType.methodType(void.class, emulator)));
+            SIMULATOR_RUN = erase(lookup.findVirtual(simulator, "run", MethodType.methodType(void.class)));
+            SIMULATOR_RESET = erase(lookup.findVirtual(simulator, "reset", MethodType.methodType(void.class)));
+            SIMULATOR_SET_FAST_FORWARD = erase(lookup.findVirtual(simulator, "setFastForward", MethodType.methodType(void.class, boolean.class)));
+            SIMULATOR_SET_DECOUPLED = erase(lookup.findVirtual(simulator, "setDecoupled", MethodType.methodType(void.class, boolean.class)));
+            SIMULATOR_CYCLES = erase(lookup.findVirtual(simulator, "cycles", MethodType.methodType(int.class)));
+            SIMULATOR_RUN_TO_COMPLETION = erase(lookup.findVirtual(simulator, "runToCompletion", MethodType.methodType(void.class)));
+            SIMULATOR_SET_CHECKPOINT_INTERVAL = erase(lookup.findVirtual(simulator, "setCheckpointInterval", MethodType.methodType(void.class, int.class)));
+            NEW_SIMULATION_POOL = erase(lookup.findConstructor(pool, MethodType.methodType(void.class, decodedProgram, int.class)));
+            POOL_RUN_ALL = erase(lookup.findVirtual(pool, "runAll", MethodType.methodType(List.class, List.class)));
+            POOL_CLOSE = erase(lookup.findVirtual(pool, "close", MethodType.methodType(void.class)));
+            NEW_REPL = erase(lookup.findConstructor(repl, MethodType.methodType(void.class, simulator)));
+            REPL_START_SCRIPT = erase(lookup.findVirtual(repl, "startScript", MethodType.methodType(void.class, File.class)));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private Lab4Handles() {
+    }
+
+    /**
+     * Replaces every simulator type in the handle's signature with Object, so it can be called with invokeExact.
+     */
+    private static MethodHandle erase(final MethodHandle handle) {
+        return handle.asType(handle.type().erase());
+    }
+}
@@ -0,0 +1,88 @@
+package lab4.bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates the bundled lab4 programs and generates large synthetic ones for the assembler benchmarks.
+ */
+final class Programs {
+    /**
+     * Directory holding the lab4_*.asm and .script files. JMH forks inherit the working directory, so running
+     * from the repository root needs no configuration; otherwise pass -jvmArgs -Dlab4.dir=...
+     */
+    static final File DIR = new File(System.getProperty("lab4.dir", "."));
+
+    private static final String GENERATED_PREFIX = "generated:";
+
+    private Programs() {
+    }
+
+    static File file(final String name) {
+        return new File(DIR, name);
+    }
+
+    /**
+     * Loads a program as source lines, the same way the CLI does before handing them to the assembler.
+     * @param source a bundled file name, or "generated:N" for a synthetic program of N instructions
+     * @return the source lines
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> lines(final String source) throws Throwable {
+        if (source.startsWith(GENERATED_PREFIX)) {
+            return generate(Integer.parseInt(source.substring(GENERATED_PREFIX.length())));
+        }
+        return (List<String>) Lab4Handles.READ_FILE.invokeExact(file(source).getPath());
+    }
+
+    /**
+     * Generates a straight-line program using every supported opcode, with a label and a backwards branch
+     * every 16 instructions so label resolution is exercised as well.
+     */
+    static List<String> generate(final int instructions) {
+        final List<String> lines = new ArrayList<>(instructions);
+        final String[] registers = { "$t0", "$t1", "$t2", "$t3", "$s0", "$s1", "$a0", "$v0" };
+
+        for (int i = 0; i < instructions; i++) {
+            final String rd = registers[i % registers.length];
+            final String rs = registers[(i + 3) % registers.length];
+            final String rt = registers[(i + 5) % registers.length];
+            final String label = i % 16 == 0 ? "L" + i + ":\t" : "\t";
+
+            final String body = switch (i % 16) {
+                case 0, 8 -> "add " + rd + ", " + rs + ", " + rt;
+                case 1 -> "addi " + rd + ", " + rs + ", " + (i % 100);
+                case 2 -> "sub " + rd + ", " + rs + ", " + rt;
+                case 3 -> "and " + rd + ", " + rs + ", " + rt;
+                case 4 -> "or " + rd + ", " + rs + ", " + rt;
+                case 5 -> "slt " + rd + ", " + rs + ", " + rt;
+                case 6 -> "sll " + rd + ", " + rs + ", " + (i % 31);
+                case 7 -> "lw " + rd + ", 4($sp)";
+                case 9 -> "sw " + rd + ", 8($sp)";
+                case 10 -> "addi $sp, $sp, -4";
+                case 11 -> "addi $sp, $sp, 4";
+                case 12 -> "slt " + rd + ", " + rt + ", " + rs;
+                case 13 -> "add " + rd + ", " + rd + ", " + rs;
+                case 14 -> "sub " + rd + ", " + rt + ", " + rd;
+                default -> i >= 16 ? "bne " + rd + ", " + rs + ", L" + (i - 15) : "beq " + rd + ", " + rs + ", L0";
+            };
+
+            lines.add(label + body);
+        }
+
+        return lines;
+    }
+
+    /**
+     * Swaps System.out for a sink so printing simulators measure simulation rather than console I/O.
+     * @return the previous System.out, to be restored in teardown
+     */
+    static PrintStream silenceStdout() {
+        final PrintStream previous = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return previous;
+    }
+}
@@ -0,0 +1,62 @@
+package lab4.bench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end scripted sessions: one operation builds a fresh simulator for the program and replays its bundled
+ * .script through the REPL, exactly as the CLI does. Output goes to a null stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplBenchmark {
+    @Param({ "lab4_test1", "lab4_test2", "lab4_fib10", "lab4_fib20" })
+    public String program;
+
+    private List<String> lines;
+    private File script;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Throwable {
+        lines = Programs.lines(program + ".asm");
+        script = Programs.file(program + ".script");
+        stdout = Programs.silenceStdout();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Object script() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) lines);
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+        final Object simulator = Lab4Handles.NEW_SIMULATOR.invokeExact(Lab4Handles.NEW_EMULATOR.invokeExact(program));
+        final Object repl = Lab4Handles.NEW_REPL.invokeExact(simulator);
+
+        Lab4Handles.REPL_START_SCRIPT.invokeExact(repl, (Object) script);
+        return simulator;
+    }
+}
@@ -0,0 +1,73 @@
+package lab4.bench;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SimulationPool scaling: one operation is a batch of independent pipeline simulations of the whole program, run
+ * across the pool. Comparing the scores for one thread and for more shows how far throughput scales with threads,
+ * which is capped by the cores the machine has.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulationPoolBenchmark {
+    private static final int SIMULATIONS = 16;
+
+    private static final Function<Object, Integer> SIMULATION = simulator -> {
+        try {
+            Lab4Handles.SIMULATOR_SET_CHECKPOINT_INTERVAL.invokeExact(simulator, 0);
+            Lab4Handles.SIMULATOR_RUN_TO_COMPLETION.invokeExact(simulator);
+            return (int) Lab4Handles.SIMULATOR_CYCLES.invokeExact(simulator);
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    };
+
+    @Param({ "lab4_test1.asm", "lab4_fib20.asm" })
+    public String source;
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private Object pool;
+    private List<Function<Object, Integer>> simulations;
+
+    @Setup
+    public void setup() throws Throwable {
+        final Object assembler = Lab4Handles.NEW_ASSEMBLER.invokeExact((Object) Programs.lines(source));
+        final Object ignored = Lab4Handles.ASSEMBLE.invokeExact(assembler);
+        final Object program = Lab4Handles.DECODE.invokeExact(Lab4Handles.ASSEMBLER_INSTRUCTIONS.invokeExact(assembler));
+
+        pool = Lab4Handles.NEW_SIMULATION_POOL.invokeExact(program, threads);
+        simulations = Collections.nCopies(SIMULATIONS, SIMULATION);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Lab4Handles.POOL_CLOSE.invokeExact(pool);
+    }
+
+    @Benchmark
+    public Object runAll() throws Throwable {
+        return (Object) Lab4Handles.POOL_RUN_ALL.invokeExact(pool, (Object) simulations);
+    }
+}
@@ -0,0 +1,16 @@
+# test3
+# CPI: 2.111 Cycles: 19 Instructions: 9
+
+	addi $t1, $0, 7
+	sw $t1, 0($0)
+	lw $t0, 0($0)
+	beq $t0, $t1, taken	# stall, then taken branch
+	addi $a0, $0, 1
+	addi $a0, $0, 2
+	addi $a0, $0, 3
+taken:	addi $t2, $0, 12
+	sw $t2, 1($0)
+	lw $ra, 1($0)
+	jr $ra			# stall, then 1 cycle penalty
+	addi $a0, $0, 4
+done:	add $a0, $0, $0
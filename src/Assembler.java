@@ -1,19 +1,29 @@
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Single-pass assembler. Each source line is tokenized by {@link AssemblyLexer} and turned into an instruction
+ * straight away; branches and jumps to labels that are not defined yet are recorded as fixups and patched once
+ * the whole file has been read. Opcodes and registers are resolved through hash lookups, so assembly time is
+ * linear in the size of the source.
+ */
 public class Assembler {
-    private static final Pattern relativeImmediatePattern = Pattern.compile("(\\d)\\((\\$\\w{1,})\\)");
-    private static final Pattern opcodeExtractorPattern = Pattern.compile("^(\\w+)");
     private final List<String> lines;
     private final Map<String, Integer> labelAddresses = new HashMap<>();
     private final List<Instruction> instructions = new ArrayList<>();
+    private final List<Integer> instructionLines = new ArrayList<>();
+    private final List<Fixup> fixups = new ArrayList<>();
+    private String error;
+    private boolean parsed;
 
+    /**
+     * Creates an assembler for the given source lines. Lines may contain whitespace, comments and labels on
+     * their own; error messages refer to lines by their 1-based index in this list.
+     * @param lines the source lines
+     */
     public Assembler(final List<String> lines) {
         this.lines = lines;
     }
@@ -31,178 +41,56 @@ public class Assembler {
     }
 
     /**
-     * Assembler pass one - identify labels and record memory addresses
+     * Gets the source line of each instruction.
+     * @return the 1-based line number in {@link #lines()} of every instruction, by address
      */
-    public final void identifyLabels() {
-        final Pattern pattern = Pattern.compile("(\\w+\\:)");
-        final Iterator<String> itr = lines.iterator();
-
-        int addr = 0;
-
-        while (itr.hasNext()) {
-            String line = itr.next();
+    public final List<Integer> instructionLines() {
+        return instructionLines;
+    }
 
-            final Matcher matcher = pattern.matcher(line);
-            if (matcher.find()) {
-                String match = matcher.group();
+    /**
+     * Gets the error that stopped the last assembly.
+     * @return the error message including its line number, or null if the program assembled cleanly
+     */
+    public final String error() {
+        return error;
+    }
 
-                line = line.substring(match.length());
-                if (line.isBlank()) {
-                    itr.remove();
-                } else {
-                    lines.set(addr, line);
-                }
+    /**
+     * Parses the source into {@link #instructions()} without producing any machine code. Only the first call does
+     * any work.
+     */
+    public final void parse() {
+        if (parsed) {
+            return;
+        }
+        parsed = true;
 
-                labelAddresses.put(match.substring(0, match.length() - 1), addr);
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                assembleLine(new AssemblyLexer(lines.get(i), i + 1));
             }
-
-            addr++;
+            resolveFixups();
+        } catch (InvalidInstructionException ex) {
+            error = ex.getMessage();
+            dropUnresolved();
         }
     }
 
     /**
-     * Assembler pass two - identify and parse all instructions
+     * Assembles the source into packed 32-bit machine words, as written to .bin files by {@link MachineCode}.
+     * @return the encoded program, positioned at 0
      */
-    public final void identifyInstructions() throws InvalidInstructionException {
-        for (int addr = 0; addr < lines.size(); addr++) {
-            String line = lines.get(addr);
-
-            final Matcher matcher = Opcode.opcodePattern().matcher(line);
-            if (matcher.find()) {
-                final String group = matcher.group();
-                line = line.substring(group.length());
-                final Opcode opcode = Opcode.getByString(group);
-                final String[] arguments = line.split(",");
-
-                Instruction instruction = null;
-                switch (opcode.instructionFormat()) {
-                    case R -> {
-                        RFormatInstruction rInst = new RFormatInstruction(opcode);
-                        int rs, rt, rd, shamt;
-                        if (opcode == Opcode.SLL) {
-                            rs = 0;
-                            rt = Register.getByRegisterName(arguments[1].trim()).number();
-                            rd = Register.getByRegisterName(arguments[0].trim()).number();
-                            shamt = Integer.parseInt(arguments[2]);
-                        } else if (opcode == Opcode.JR) {
-                            rs = Register.getByRegisterName(arguments[0].trim()).number();
-                            rt = 0;
-                            rd = 0;
-                            shamt = 0;
-                        } else {
-                            rs = Register.getByRegisterName(arguments[1].trim()).number();
-                            rt = Register.getByRegisterName(arguments[2].trim()).number();
-                            rd = Register.getByRegisterName(arguments[0].trim()).number();
-                            shamt = 0;
-                        }
-
-                        rInst.setRs(rs);
-                        rInst.setRt(rt);
-                        rInst.setRd(rd);
-                        rInst.setShamt(shamt);
-
-                        instruction = rInst;
-                    }
-                    case I -> {
-                        IFormatInstruction iInst = new IFormatInstruction(opcode);
-                        int rt = Register.getByRegisterName(arguments[0].trim()).number();
-                        int rs, immediate;
-
-                        if (opcode == Opcode.LW || opcode == Opcode.SW) {
-                            final Matcher immMatcher = relativeImmediatePattern.matcher(arguments[1].trim());
-                            if (immMatcher.find()) {
-                                rs = Register.getByRegisterName(immMatcher.group(2)).number();
-                                immediate = Integer.parseInt(immMatcher.group(1));
-                            } else {
-                                throw new RuntimeException(String.format("Invalid relative immediate pattern " +
-                                        "encountered. Could not extract rs and immediate value. " +
-                                        "Syntax immediate(register). Instead found \"%s\"", arguments[1].trim()));
-                            }
-                        } else {
-                            if (opcode == Opcode.BEQ || opcode == Opcode.BNE) {
-                                // for BEQ and BNE, rs is read first...
-                                rs = Register.getByRegisterName(arguments[0].trim()).number();
-                                rt = Register.getByRegisterName(arguments[1].trim()).number();
-                            } else {
-                                rs = Register.getByRegisterName(arguments[1].trim()).number();
-                            }
-
-                            String immStr = arguments[2].trim();
-                            try {
-                                immediate = Integer.parseInt(immStr);
-                            } catch (NumberFormatException ex) {
-                                if (labelAddresses.containsKey(immStr)) {
-                                    immediate = labelAddresses.get(immStr);
-                                } else {
-                                    throw new RuntimeException(String.format("Encountered unknown immediate value label \"%s\"...bailing.", immStr));
-                                }
-                            }
-
-                            if (opcode == Opcode.BEQ || opcode == Opcode.BNE) {
-                                final int begin = addr + 1;
-                                if (immediate == begin) {
-                                    immediate = 0;
-                                } else {
-                                    immediate -= begin;
-                                }
-                            }
-                        }
-
-                        iInst.setRs(rs);
-                        iInst.setRt(rt);
-                        iInst.setImm(immediate);
-
-                        instruction = iInst;
-                    }
-                    case J -> {
-                        JFormatInstruction jInst = new JFormatInstruction(opcode);
-
-                        String addrStr = arguments[0].trim();
-                        int address;
-                        try {
-                            address = Integer.parseInt(addrStr);
-                        } catch (NumberFormatException ex) {
-                            if (labelAddresses.containsKey(addrStr)) {
-                                address = labelAddresses.get(addrStr);
-                            } else {
-                                throw new RuntimeException(String.format("Encountered unknown immediate value label \"%s\"...bailing.", addrStr));
-                            }
-                        }
-
-                        jInst.setAddress(address);
-
-                        instruction = jInst;
-                    }
-                }
-
-                instructions.add(instruction);
-            } else {
-                final Matcher invalidOpcodeMatcher = opcodeExtractorPattern.matcher(line);
-                if (invalidOpcodeMatcher.find()) {
-                    throw new InvalidInstructionException(invalidOpcodeMatcher.group());
-                } else {
-                    throw new InvalidInstructionException(String.format("failed to find opcode; line: %s", line));
-                }
-            }
-        }
+    public final ByteBuffer assembleBinary() {
+        parse();
+        return MachineCode.encode(instructions);
     }
 
     public final List<String> assemble() {
-        // Pass One
-        identifyLabels();
-
-        // Pass Two
-        boolean hadInvalidInstruction = false;
-        String invalidInstructionMsg = "";
-        try {
-            identifyInstructions();
-        } catch (InvalidInstructionException ex) {
-            hadInvalidInstruction = true;
-            invalidInstructionMsg = ex.getMessage();
-        }
+        parse();
 
         // Perform translation to machine code
-        final List<String> assembled = new ArrayList<>();
+        final List<String> assembled = new ArrayList<>(instructions.size() + 1);
 
         for (Instruction instruction : instructions) {
             final String instStr = instruction.assemble();
@@ -211,10 +99,163 @@ public class Assembler {
             }
         }
 
-        if (hadInvalidInstruction && !invalidInstructionMsg.isBlank()) {
-            assembled.add(invalidInstructionMsg);
+        if (error != null) {
+            assembled.add(error);
         }
 
         return assembled;
     }
+
+    private void assembleLine(final AssemblyLexer lexer) {
+        if (lexer.atEnd()) {
+            return;
+        }
+
+        // any number of labels may precede the instruction, or stand on a line of their own
+        String name = lexer.identifier();
+        while (lexer.accept(':')) {
+            if (labelAddresses.putIfAbsent(name, instructions.size()) != null) {
+                throw lexer.error(String.format("duplicate label \"%s\"", name));
+            }
+            if (lexer.atEnd()) {
+                return;
+            }
+            name = lexer.identifier();
+        }
+
+        final Opcode opcode;
+        try {
+            opcode = Opcode.getByString(name);
+        } catch (IllegalArgumentException ex) {
+            throw lexer.error(name);
+        }
+
+        final Instruction instruction = switch (opcode) {
+            case AND, OR, ADD, SUB, SLT -> {
+                final int rd = lexer.register();
+                lexer.expect(',');
+                final int rs = lexer.register();
+                lexer.expect(',');
+                yield new RFormatInstruction(opcode, rs, lexer.register(), rd, 0);
+            }
+            case SLL -> {
+                final int rd = lexer.register();
+                lexer.expect(',');
+                final int rt = lexer.register();
+                lexer.expect(',');
+                yield new RFormatInstruction(opcode, 0, rt, rd, lexer.integer());
+            }
+            case JR -> new RFormatInstruction(opcode, lexer.register(), 0, 0, 0);
+            case ADDI -> {
+                final int rt = lexer.register();
+                lexer.expect(',');
+                final int rs = lexer.register();
+                lexer.expect(',');
+                yield target(lexer, opcode, rs, rt);
+            }
+            case BEQ, BNE -> {
+                // for BEQ and BNE, rs is read first...
+                final int rs = lexer.register();
+                lexer.expect(',');
+                final int rt = lexer.register();
+                lexer.expect(',');
+                yield target(lexer, opcode, rs, rt);
+            }
+            case LW, SW -> {
+                final int rt = lexer.register();
+                lexer.expect(',');
+                final int offset = lexer.atNumber() ? lexer.integer() : 0;
+                lexer.expect('(');
+                final int rs = lexer.register();
+                lexer.expect(')');
+                yield new IFormatInstruction(opcode, rs, rt, offset);
+            }
+            case J, JAL -> target(lexer, opcode, 0, 0);
+            default -> throw lexer.error(name);
+        };
+
+        if (!lexer.atEnd()) {
+            throw lexer.error("unexpected text after the operands");
+        }
+
+        instructions.add(instruction);
+        instructionLines.add(lexer.lineNumber());
+    }
+
+    /**
+     * Reads the last operand of an ADDI, branch or jump, which is either a number or a label. A label that is
+     * not defined yet leaves a null placeholder to be patched by {@link #resolveFixups()}.
+     */
+    private Instruction target(final AssemblyLexer lexer, final Opcode opcode, final int rs, final int rt) {
+        final int index = instructions.size();
+        if (lexer.atNumber()) {
+            return build(opcode, rs, rt, lexer.integer(), index);
+        }
+
+        final String label = lexer.identifier();
+        final Integer address = labelAddresses.get(label);
+        if (address != null) {
+            return build(opcode, rs, rt, address, index);
+        }
+
+        fixups.add(new Fixup(index, lexer.lineNumber(), opcode, rs, rt, label));
+        return null;
+    }
+
+    private static Instruction build(final Opcode opcode, final int rs, final int rt, final int value, final int index) {
+        return switch (opcode) {
+            // branch operands are absolute addresses, encoded relative to the following instruction
+            case BEQ, BNE -> new IFormatInstruction(opcode, rs, rt, value - (index + 1));
+            case J, JAL -> new JFormatInstruction(opcode, value);
+            default -> new IFormatInstruction(opcode, rs, rt, value);
+        };
+    }
+
+    private void resolveFixups() {
+        for (final Fixup fixup : fixups) {
+            final Integer address = labelAddresses.get(fixup.label);
+            if (address == null) {
+                throw new InvalidInstructionException(fixup.line, String.format("unknown label \"%s\"", fixup.label));
+            }
+            instructions.set(fixup.index, build(fixup.opcode, fixup.rs, fixup.rt, address, fixup.index));
+        }
+        fixups.clear();
+    }
+
+    /**
+     * After an error, patches what can be patched and cuts the program off at the first unresolvable placeholder.
+     */
+    private void dropUnresolved() {
+        for (final Fixup fixup : fixups) {
+            final Integer address = labelAddresses.get(fixup.label);
+            if (address == null) {
+                instructions.subList(fixup.index, instructions.size()).clear();
+                instructionLines.subList(fixup.index, instructionLines.size()).clear();
+                break;
+            }
+            instructions.set(fixup.index, build(fixup.opcode, fixup.rs, fixup.rt, address, fixup.index));
+        }
+        fixups.clear();
+    }
+
+    /**
+     * A label reference that was not yet defined when its instruction was read.
+     */
+    private static final class Fixup {
+        private final int index;
+        private final int line;
+        private final Opcode opcode;
+        private final int rs;
+        private final int rt;
+        private final String label;
+
+        private Fixup(final int index, final int line, final Opcode opcode, final int rs, final int rt, final String label) {
+            this.index = index;
+            this.line = line;
+            this.opcode = opcode;
+            this.rs = rs;
+            this.rt = rt;
+            this.label = label;
+        }
+    }
 }
@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of assembled programs, keyed by the SHA-256 of the normalized source. Normalization drops
+ * comments, blank lines and redundant whitespace, so cosmetic edits still hit the cache.
+ * <p>An entry stores the instruction words in {@link MachineCode} encoding followed by the label table, behind
+ * a magic number and {@link #FORMAT_VERSION}. Entries with another version, or that fail to parse, count as
+ * misses and are overwritten. Entries are written to a temporary file and renamed into place, so concurrent
+ * launches never see a partial entry. Hit and miss counts are kept in a stats file under a file lock.</p>
+ */
+public final class AssemblyCache {
+    public static final int FORMAT_VERSION = 1;
+    public static final String ENTRY_EXTENSION = ".l4c";
+
+    // "L4AC"
+    private static final int MAGIC = 0x4C344143;
+    private static final String STATS_FILE = "stats";
+
+    private final Path directory;
+
+    public AssemblyCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the cache directory named by the lab4.cache.dir system property, or ~/.lab4-cache.
+     */
+    public static Path defaultDirectory() {
+        final String configured = System.getProperty("lab4.cache.dir");
+        return configured != null ? Path.of(configured) : Path.of(System.getProperty("user.home"), ".lab4-cache");
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Computes the cache key of the given source.
+     * @param lines the source lines
+     * @return the hex SHA-256 of the normalized source
+     */
+    public static String key(final List<String> lines) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        final StringBuilder normalized = new StringBuilder();
+        for (final String line : lines) {
+            normalized.setLength(0);
+            normalize(line, normalized);
+            if (normalized.length() > 0) {
+                digest.update(normalized.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        final StringBuilder hex = new StringBuilder(64);
+        for (final byte b : digest.digest()) {
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Appends the line without its comment, with leading and trailing whitespace removed and every inner run of
+     * whitespace collapsed to one space.
+     */
+    private static void normalize(final String line, final StringBuilder out) {
+        boolean pendingSpace = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '#') {
+                break;
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = out.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    out.append(' ');
+                    pendingSpace = false;
+                }
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Looks up an assembled program and records a hit or a miss.
+     * @param key the key from {@link #key(List)}
+     * @return the cached program, or null on a miss
+     */
+    public Entry get(final String key) {
+        final Entry entry = read(directory.resolve(key + ENTRY_EXTENSION));
+        recordLookup(entry != null);
+        return entry;
+    }
+
+    /**
+     * Stores an assembled program. Programs whose instructions cannot be encoded are silently not cached, and
+     * so is everything when the cache directory is not writable.
+     * @param key the key from {@link #key(List)}
+     * @param instructions the assembled instructions
+     * @param labelAddresses the label table
+     */
+    public void put(final String key, final List<Instruction> instructions, final Map<String, Integer> labelAddresses) {
+        final ByteBuffer words;
+        try {
+            words = MachineCode.encode(instructions);
+        } catch (IllegalStateException ex) {
+            return;
+        }
+
+        final List<byte[]> names = new ArrayList<>(labelAddresses.size());
+        int size = 4 * Integer.BYTES + words.remaining() + Integer.BYTES;
+        for (final Map.Entry<String, Integer> label : labelAddresses.entrySet()) {
+            final byte[] bytes = label.getKey().getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            size += Integer.BYTES + bytes.length + Integer.BYTES;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(MachineCode.BYTE_ORDER);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(instructions.size()).putInt(words.remaining());
+        buffer.put(words);
+        buffer.putInt(labelAddresses.size());
+        int i = 0;
+        for (final Map.Entry<String, Integer> label : labelAddresses.entrySet()) {
+            final byte[] name = names.get(i++);
+            buffer.putInt(name.length).put(name).putInt(label.getValue());
+        }
+        buffer.flip();
+
+        try {
+            Files.createDirectories(directory);
+            final Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, directory.resolve(key + ENTRY_EXTENSION), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            // the cache is only an optimization
+        }
+    }
+
+    private static Entry read(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(MachineCode.BYTE_ORDER);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            final int count = buffer.getInt();
+            final int wordBytes = buffer.getInt();
+            if (wordBytes != count * Integer.BYTES) {
+                return null;
+            }
+
+            final List<Instruction> instructions = MachineCode.decode(buffer.slice(buffer.position(), wordBytes)
+                    .order(MachineCode.BYTE_ORDER).asIntBuffer());
+            buffer.position(buffer.position() + wordBytes);
+
+            final int labelCount = buffer.getInt();
+            final Map<String, Integer> labelAddresses = new HashMap<>();
+            for (int i = 0; i < labelCount; i++) {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    return null;
+                }
+                final byte[] name = new byte[length];
+                buffer.get(name);
+                labelAddresses.put(new String(name, StandardCharsets.UTF_8), buffer.getInt());
+            }
+
+            return new Entry(instructions, labelAddresses);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the cumulative hit and miss counts.
+     * @return {hits, misses}
+     */
+    public long[] stats() {
+        try (final FileChannel channel = openStats(StandardOpenOption.READ)) {
+            return readStats(channel);
+        } catch (IOException ex) {
+            return new long[2];
+        }
+    }
+
+    /**
+     * Clears the cumulative hit and miss counts.
+     */
+    public void resetStats() {
+        try {
+            Files.deleteIfExists(directory.resolve(STATS_FILE));
+        } catch (IOException ex) {
+            // nothing to reset
+        }
+    }
+
+    private void recordLookup(final boolean hit) {
+        try {
+            Files.createDirectories(directory);
+            try (final FileChannel channel = openStats(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                final FileLock lock = channel.lock();
+                try {
+                    final long[] stats = readStats(channel);
+                    stats[hit ? 0 : 1]++;
+                    final ByteBuffer buffer = ByteBuffer.allocate(2 * Long.BYTES).putLong(stats[0]).putLong(stats[1]).flip();
+                    channel.write(buffer, 0);
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException ex) {
+            // stats are best effort
+        }
+    }
+
+    private static long[] readStats(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(2 * Long.BYTES);
+        if (channel.read(buffer, 0) != buffer.capacity()) {
+            return new long[2];
+        }
+        return new long[] { buffer.getLong(0), buffer.getLong(Long.BYTES) };
+    }
+
+    private FileChannel openStats(final StandardOpenOption... options) throws IOException {
+        return FileChannel.open(directory.resolve(STATS_FILE), options);
+    }
+
+    /**
+     * An assembled program as stored in the cache.
+     */
+    public static final class Entry {
+        private final List<Instruction> instructions;
+        private final Map<String, Integer> labelAddresses;
+
+        private Entry(final List<Instruction> instructions, final Map<String, Integer> labelAddresses) {
+            this.instructions = instructions;
+            this.labelAddresses = labelAddresses;
+        }
+
+        public List<Instruction> instructions() {
+            return instructions;
+        }
+
+        public Map<String, Integer> labelAddresses() {
+            return labelAddresses;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Hand-written tokenizer over a single line of assembly source. Whitespace between tokens is skipped and a '#'
+ * starts a comment that runs to the end of the line. Every error carries the source line number.
+ */
+public final class AssemblyLexer {
+    private final String line;
+    private final int lineNumber;
+    private final int length;
+    private int pos;
+
+    public AssemblyLexer(final String line, final int lineNumber) {
+        this.line = line;
+        this.lineNumber = lineNumber;
+        this.length = line.length();
+    }
+
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Checks whether only whitespace or a comment is left on the line.
+     */
+    public boolean atEnd() {
+        skipWhitespace();
+        return pos >= length || line.charAt(pos) == '#';
+    }
+
+    /**
+     * Consumes the given character if it is the next token.
+     * @return true if the character was consumed
+     */
+    public boolean accept(final char c) {
+        skipWhitespace();
+        if (pos < length && line.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    public void expect(final char c) {
+        if (!accept(c)) {
+            throw error(String.format("expected '%c' but found %s", c, describeNext()));
+        }
+    }
+
+    /**
+     * Checks whether the next token is a number rather than a name.
+     */
+    public boolean atNumber() {
+        skipWhitespace();
+        if (pos >= length) {
+            return false;
+        }
+
+        final char c = line.charAt(pos);
+        return isDigit(c) || ((c == '-' || c == '+') && pos + 1 < length && isDigit(line.charAt(pos + 1)));
+    }
+
+    /**
+     * Reads a label or opcode name: a run of letters, digits and underscores.
+     */
+    public String identifier() {
+        skipWhitespace();
+        final int start = pos;
+        while (pos < length && isIdentifierChar(line.charAt(pos))) {
+            pos++;
+        }
+
+        if (start == pos) {
+            throw error(String.format("expected a name but found %s", describeNext()));
+        }
+        return line.substring(start, pos);
+    }
+
+    /**
+     * Reads a register operand such as $t0 or $0.
+     * @return the register number
+     */
+    public int register() {
+        skipWhitespace();
+        final int start = pos;
+        expect('$');
+        while (pos < length && isIdentifierChar(line.charAt(pos))) {
+            pos++;
+        }
+
+        try {
+            return Register.getByRegisterName(line.substring(start, pos)).number();
+        } catch (IllegalArgumentException ex) {
+            throw error(ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads an optionally signed decimal integer.
+     */
+    public int integer() {
+        if (!atNumber()) {
+            throw error(String.format("expected a number but found %s", describeNext()));
+        }
+
+        final boolean negative = line.charAt(pos) == '-';
+        if (line.charAt(pos) == '-' || line.charAt(pos) == '+') {
+            pos++;
+        }
+
+        long value = 0;
+        while (pos < length && isDigit(line.charAt(pos))) {
+            value = value * 10 + (line.charAt(pos++) - '0');
+            if (value > 1L << 31) {
+                throw error("number out of range");
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error("number out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Creates an exception for a syntax error at the current line.
+     */
+    public InvalidInstructionException error(final String message) {
+        return new InvalidInstructionException(lineNumber, message);
+    }
+
+    private String describeNext() {
+        return atEnd() ? "end of line" : String.format("\"%s\"", line.substring(pos).trim());
+    }
+
+    private void skipWhitespace() {
+        while (pos < length && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierChar(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+}
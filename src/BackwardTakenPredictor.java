@@ -0,0 +1,32 @@
+/**
+ * Predicts backward branches taken and forward branches not taken, since backward branches usually close loops.
+ * The direction is only known once the branch is decoded, so a correct taken prediction still squashes one fetch.
+ */
+public final class BackwardTakenPredictor implements BranchPredictor {
+    @Override
+    public String name() {
+        return "btfnt";
+    }
+
+    @Override
+    public boolean predictTaken(final int pc, final int target) {
+        return target <= pc;
+    }
+
+    @Override
+    public void update(final int pc, final int target, final boolean taken) {
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public BranchPredictor copy() {
+        return new BackwardTakenPredictor();
+    }
+
+    @Override
+    public void copyFrom(final BranchPredictor other) {
+    }
+}
@@ -0,0 +1,378 @@
+import java.util.Arrays;
+
+/**
+ * Runs one {@link DecodedProgram} over many independent initial states ("lanes") at once. Register files and
+ * memories are kept in structure-of-arrays layout, so register r of every lane is contiguous and each ALU
+ * instruction becomes a simple loop over lanes that HotSpot can vectorize. Memory covers the same address space
+ * as {@link Emulator}'s: the first {@link PagedMemory#WINDOW_WORDS} words, where the lab programs keep their data
+ * and stack, are interleaved by lane, and every lane has a {@link PagedMemory} of its own for the rest, allocated
+ * on its first access there.
+ * <p>Lanes execute in lockstep while they agree on control flow. Once a BEQ, BNE or JR sends lanes to different
+ * PCs, they are grouped by PC, and the group at the smallest PC steps next, all its lanes together. Lanes that
+ * went ahead wait where they are, so the ones behind catch up with them where their paths join, and every lane
+ * goes back to lockstep once they all reach the same PC. Since lanes share nothing, the order groups step in
+ * leaves every lane with the same results as running it on an {@link Emulator}.</p>
+ */
+public final class BatchEmulator {
+    // returned in place of a PC once lanes went different ways, and once all of them finished apart
+    private static final int DIVERGED = -1;
+    private static final int FINISHED = -2;
+
+    private final DecodedProgram program;
+    private final int lanes;
+    // register r of lane l is registers[r * lanes + l]; memory word w of lane l is memory[w * lanes + l] for
+    // words in the window, and in pagedMemories[l] for the others
+    private final int[] registers;
+    private final int[] memory;
+    private final PagedMemory[] pagedMemories;
+    private final int[] lanePcs;
+    // the lanes of the group stepping next, in the first activeCount entries
+    private final int[] activeLanes;
+
+    private long executed;
+    private long elapsedNanos;
+
+    public BatchEmulator(final DecodedProgram program, final int lanes) {
+        this.program = program;
+        this.lanes = lanes;
+        this.registers = new int[32 * lanes];
+        this.memory = new int[PagedMemory.WINDOW_WORDS * lanes];
+        this.pagedMemories = new PagedMemory[lanes];
+        this.lanePcs = new int[lanes];
+        this.activeLanes = new int[lanes];
+    }
+
+    public int lanes() {
+        return lanes;
+    }
+
+    public int readRegister(final int lane, final int registerIdx) {
+        return registers[registerIdx * lanes + lane];
+    }
+
+    public void writeRegister(final int lane, final int registerIdx, final int value) {
+        registers[registerIdx * lanes + lane] = value;
+    }
+
+    public int readMemory(final int lane, final int memoryIdx) {
+        if (memoryIdx >= 0 && memoryIdx < PagedMemory.WINDOW_WORDS) {
+            return memory[memoryIdx * lanes + lane];
+        }
+        return pagedMemories[lane] == null ? 0 : pagedMemories[lane].read(memoryIdx);
+    }
+
+    public void writeMemory(final int lane, final int memoryIdx, final int value) {
+        if (memoryIdx >= 0 && memoryIdx < PagedMemory.WINDOW_WORDS) {
+            memory[memoryIdx * lanes + lane] = value;
+        } else {
+            if (pagedMemories[lane] == null) {
+                pagedMemories[lane] = new PagedMemory();
+            }
+            pagedMemories[lane].write(memoryIdx, value);
+        }
+    }
+
+    /**
+     * Resets every lane's registers, memory and program counter to zero.
+     */
+    public void reset() {
+        Arrays.fill(registers, 0);
+        Arrays.fill(memory, 0);
+        Arrays.fill(pagedMemories, null);
+        Arrays.fill(lanePcs, 0);
+    }
+
+    public int programCounter(final int lane) {
+        return lanePcs[lane];
+    }
+
+    /**
+     * Gets the number of instructions executed by the last run, summed over all lanes.
+     * @return the lane-instruction count
+     */
+    public long executedLaneInstructions() {
+        return executed;
+    }
+
+    /**
+     * Gets the throughput of the last run.
+     * @return lanes x instructions per second
+     */
+    public double laneInstructionsPerSecond() {
+        return elapsedNanos == 0 ? 0 : executed / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * Runs every lane from PC 0 until it falls off the end of the program. Registers and memory are left as set
+     * up by the caller.
+     * @return the number of instructions executed, summed over all lanes
+     */
+    public long runToCompletion() {
+        final long start = System.nanoTime();
+        executed = 0;
+
+        int pc = 0;
+        while (true) {
+            pc = runLockstep(pc);
+            if (pc != DIVERGED) {
+                Arrays.fill(lanePcs, pc);
+                break;
+            }
+
+            pc = runGroups();
+            if (pc == FINISHED) {
+                break;
+            }
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        return executed;
+    }
+
+    /**
+     * Executes all lanes together from a PC until the program ends or the lanes diverge.
+     * @return the final PC, or {@link #DIVERGED}, in which case lanePcs holds every lane's next PC
+     */
+    private int runLockstep(int pc) {
+        final int size = program.size();
+        final int[] opcodes = program.opcodes();
+        final int[] rsArr = program.rs();
+        final int[] rtArr = program.rt();
+        final int[] rdArr = program.rd();
+        final int[] immArr = program.imm();
+        final int[] r = registers;
+        final int[] m = memory;
+        final int n = lanes;
+
+        long count = 0;
+
+        while (pc < size) {
+            final int a = rsArr[pc] * n;
+            final int b = rtArr[pc] * n;
+            final int d = rdArr[pc] * n;
+            final int imm = immArr[pc];
+            count++;
+
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_AND -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[a + l] & r[b + l];
+                }
+                case DecodedProgram.OP_OR -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[a + l] | r[b + l];
+                }
+                case DecodedProgram.OP_ADD -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[a + l] + r[b + l];
+                }
+                case DecodedProgram.OP_ADDI -> {
+                    for (int l = 0; l < n; l++) r[b + l] = r[a + l] + imm;
+                }
+                case DecodedProgram.OP_SLL -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[b + l] << imm;
+                }
+                case DecodedProgram.OP_SUB -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[a + l] - r[b + l];
+                }
+                case DecodedProgram.OP_SLT -> {
+                    for (int l = 0; l < n; l++) r[d + l] = r[a + l] < r[b + l] ? 1 : 0;
+                }
+                case DecodedProgram.OP_LW -> {
+                    for (int l = 0; l < n; l++) {
+                        final int address = r[a + l] + imm;
+                        r[b + l] = address >= 0 && address < PagedMemory.WINDOW_WORDS
+                                ? m[address * n + l] : readMemory(l, address);
+                    }
+                }
+                case DecodedProgram.OP_SW -> {
+                    for (int l = 0; l < n; l++) {
+                        final int address = r[a + l] + imm;
+                        if (address >= 0 && address < PagedMemory.WINDOW_WORDS) {
+                            m[address * n + l] = r[b + l];
+                        } else {
+                            writeMemory(l, address, r[b + l]);
+                        }
+                    }
+                }
+                case DecodedProgram.OP_BEQ, DecodedProgram.OP_BNE -> {
+                    final boolean beq = opcodes[pc] == DecodedProgram.OP_BEQ;
+                    int taken = 0;
+                    for (int l = 0; l < n; l++) {
+                        if ((r[a + l] == r[b + l]) == beq) taken++;
+                    }
+
+                    if (taken == n) {
+                        pc += imm;
+                    } else if (taken != 0) {
+                        for (int l = 0; l < n; l++) {
+                            lanePcs[l] = (r[a + l] == r[b + l]) == beq ? pc + 1 + imm : pc + 1;
+                        }
+                        executed += count * n;
+                        return DIVERGED;
+                    }
+                }
+                case DecodedProgram.OP_J -> pc = imm - 1;
+                case DecodedProgram.OP_JR -> {
+                    final int target = r[a];
+                    for (int l = 1; l < n; l++) {
+                        if (r[a + l] != target) {
+                            for (int k = 0; k < n; k++) lanePcs[k] = r[a + k];
+                            executed += count * n;
+                            return DIVERGED;
+                        }
+                    }
+                    pc = target - 1;
+                }
+                case DecodedProgram.OP_JAL -> {
+                    for (int l = 0; l < n; l++) r[31 * n + l] = pc + 1;
+                    pc = imm - 1;
+                }
+            }
+
+            pc++;
+        }
+
+        executed += count * n;
+        return pc;
+    }
+
+    /**
+     * Steps the lanes in lanePcs group by group, always the group at the smallest PC, until every lane is at the
+     * same PC again or has finished.
+     * @return the PC every lane is at, or {@link #FINISHED}, in which case lanePcs holds every lane's final PC
+     */
+    private int runGroups() {
+        final int size = program.size();
+        final int[] opcodes = program.opcodes();
+        final int[] rsArr = program.rs();
+        final int[] rtArr = program.rt();
+        final int[] rdArr = program.rd();
+        final int[] immArr = program.imm();
+        final int[] r = registers;
+        final int[] m = memory;
+        final int[] pcs = lanePcs;
+        final int[] active = activeLanes;
+        final int n = lanes;
+
+        while (true) {
+            // gather the lanes at the smallest PC
+            int pc = Integer.MAX_VALUE;
+            int activeCount = 0;
+            for (int l = 0; l < n; l++) {
+                final int lanePc = pcs[l];
+                if (lanePc < pc) {
+                    pc = lanePc;
+                    activeCount = 0;
+                }
+                if (lanePc == pc) {
+                    active[activeCount++] = l;
+                }
+            }
+
+            if (pc >= size) {
+                return FINISHED;
+            }
+            if (activeCount == n) {
+                return pc;
+            }
+
+            final int a = rsArr[pc] * n;
+            final int b = rtArr[pc] * n;
+            final int d = rdArr[pc] * n;
+            final int imm = immArr[pc];
+            executed += activeCount;
+
+            // the next PC of every active lane, or -1 if each lane's was set on its own
+            int next = pc + 1;
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_AND -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[a + l] & r[b + l];
+                    }
+                }
+                case DecodedProgram.OP_OR -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[a + l] | r[b + l];
+                    }
+                }
+                case DecodedProgram.OP_ADD -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[a + l] + r[b + l];
+                    }
+                }
+                case DecodedProgram.OP_ADDI -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[b + l] = r[a + l] + imm;
+                    }
+                }
+                case DecodedProgram.OP_SLL -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[b + l] << imm;
+                    }
+                }
+                case DecodedProgram.OP_SUB -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[a + l] - r[b + l];
+                    }
+                }
+                case DecodedProgram.OP_SLT -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        r[d + l] = r[a + l] < r[b + l] ? 1 : 0;
+                    }
+                }
+                case DecodedProgram.OP_LW -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        final int address = r[a + l] + imm;
+                        r[b + l] = address >= 0 && address < PagedMemory.WINDOW_WORDS
+                                ? m[address * n + l] : readMemory(l, address);
+                    }
+                }
+                case DecodedProgram.OP_SW -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        final int address = r[a + l] + imm;
+                        if (address >= 0 && address < PagedMemory.WINDOW_WORDS) {
+                            m[address * n + l] = r[b + l];
+                        } else {
+                            writeMemory(l, address, r[b + l]);
+                        }
+                    }
+                }
+                case DecodedProgram.OP_BEQ, DecodedProgram.OP_BNE -> {
+                    final boolean beq = opcodes[pc] == DecodedProgram.OP_BEQ;
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        pcs[l] = (r[a + l] == r[b + l]) == beq ? pc + 1 + imm : pc + 1;
+                    }
+                    next = -1;
+                }
+                case DecodedProgram.OP_J -> next = imm;
+                case DecodedProgram.OP_JR -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        final int l = active[i];
+                        pcs[l] = r[a + l];
+                    }
+                    next = -1;
+                }
+                case DecodedProgram.OP_JAL -> {
+                    for (int i = 0; i < activeCount; i++) {
+                        r[31 * n + active[i]] = pc + 1;
+                    }
+                    next = imm;
+                }
+            }
+
+            if (next >= 0) {
+                for (int i = 0; i < activeCount; i++) {
+                    pcs[active[i]] = next;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles a basic block of a {@link DecodedProgram} into a hidden class implementing {@link CompiledBlock}.
+ * The generated method reads and writes the register array directly and calls {@link PagedMemory} for loads
+ * and stores, in program order, so HotSpot can optimize the block as straight-line code.
+ */
+public final class BlockCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final int CLASS_FILE_VERSION = 61;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int IALOAD = 0x2e;
+    private static final int IASTORE = 0x4f;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int LSUB = 0x65;
+    private static final int ISHL = 0x78;
+    private static final int LUSHR = 0x7d;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int I2L = 0x85;
+    private static final int L2I = 0x88;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    private BlockCompiler() {
+    }
+
+    /**
+     * Compiles the instructions from start to end, inclusive. Only the instruction at end may transfer control.
+     * @param program the decoded program
+     * @param start the first PC of the block
+     * @param end the last PC of the block
+     * @return the compiled block
+     */
+    public static CompiledBlock compile(final DecodedProgram program, final int start, final int end) {
+        final byte[] classBytes = generate(program, start, end);
+
+        try {
+            final MethodHandles.Lookup blockLookup = LOOKUP.defineHiddenClass(classBytes, true);
+            return (CompiledBlock) blockLookup
+                    .findConstructor(blockLookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable ex) {
+            throw new IllegalStateException(String.format("Failed to compile block %d-%d.", start, end), ex);
+        }
+    }
+
+    private static byte[] generate(final DecodedProgram program, final int start, final int end) {
+        final ConstantPool pool = new ConstantPool();
+        final int thisClass = pool.classRef("JitBlock");
+        final int superClass = pool.classRef("java/lang/Object");
+        final int blockInterface = pool.classRef("CompiledBlock");
+
+        final ByteBuffer init = new ByteBuffer();
+        init.u1(ALOAD_0);
+        init.u1(INVOKESPECIAL).u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+        init.u1(RETURN);
+
+        final ByteBuffer execute = new ByteBuffer();
+        final int branchTarget = emitBlock(execute, pool, program, start, end);
+
+        final ByteBuffer out = new ByteBuffer();
+        out.u4(0xCAFEBABE).u2(0).u2(CLASS_FILE_VERSION);
+
+        // the constant pool has to be complete before anything referencing it is written
+        final int initName = pool.utf8("<init>");
+        final int initDesc = pool.utf8("()V");
+        final int executeName = pool.utf8("execute");
+        final int executeDesc = pool.utf8("([ILPagedMemory;)I");
+        final int codeAttr = pool.utf8("Code");
+        final int stackMapAttr = pool.utf8("StackMapTable");
+        pool.writeTo(out);
+
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER).u2(thisClass).u2(superClass);
+        out.u2(1).u2(blockInterface);
+        out.u2(0); // fields
+        out.u2(2); // methods
+
+        out.u2(ACC_PUBLIC).u2(initName).u2(initDesc).u2(1);
+        writeCode(out, codeAttr, 1, 1, init, -1, stackMapAttr);
+
+        out.u2(ACC_PUBLIC | ACC_FINAL).u2(executeName).u2(executeDesc).u2(1);
+        writeCode(out, codeAttr, 8, 3, execute, branchTarget, stackMapAttr);
+
+        out.u2(0); // class attributes
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a Code attribute. If branchTarget is not -1, a single same_frame entry is recorded for it, which is
+     * all the verifier needs since every method state at a jump target matches the method entry.
+     */
+    private static void writeCode(final ByteBuffer out, final int codeAttr, final int maxStack, final int maxLocals,
+                                  final ByteBuffer code, final int branchTarget, final int stackMapAttr) {
+        final ByteBuffer stackMap = new ByteBuffer();
+        if (branchTarget != -1) {
+            stackMap.u2(stackMapAttr);
+            if (branchTarget < 64) {
+                stackMap.u4(3).u2(1).u1(branchTarget);
+            } else {
+                stackMap.u4(5).u2(1).u1(251).u2(branchTarget);
+            }
+        }
+
+        out.u2(codeAttr).u4(12 + code.size() + stackMap.size());
+        out.u2(maxStack).u2(maxLocals).u4(code.size()).bytes(code);
+        out.u2(0); // exception table
+        out.u2(branchTarget != -1 ? 1 : 0).bytes(stackMap);
+    }
+
+    /**
+     * Emits the body of execute(int[] registers, PagedMemory memory).
+     * @return the bytecode offset of the not-taken path of a terminating branch, or -1 if there is none
+     */
+    private static int emitBlock(final ByteBuffer code, final ConstantPool pool, final DecodedProgram program,
+                                 final int start, final int end) {
+        final int[] opcodes = program.opcodes();
+        final int[] rsArr = program.rs();
+        final int[] rtArr = program.rt();
+        final int[] rdArr = program.rd();
+        final int[] immArr = program.imm();
+
+        for (int pc = start; pc <= end; pc++) {
+            final int rs = rsArr[pc];
+            final int rt = rtArr[pc];
+            final int rd = rdArr[pc];
+            final int imm = immArr[pc];
+
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_AND -> emitRegisterOp(code, pool, rd, rs, rt, IAND);
+                case DecodedProgram.OP_OR -> emitRegisterOp(code, pool, rd, rs, rt, IOR);
+                case DecodedProgram.OP_ADD -> emitRegisterOp(code, pool, rd, rs, rt, IADD);
+                case DecodedProgram.OP_SUB -> emitRegisterOp(code, pool, rd, rs, rt, ISUB);
+                case DecodedProgram.OP_SLT -> {
+                    // rs < rt exactly when the 64-bit difference is negative, which avoids a branch
+                    code.u1(ALOAD_1);
+                    pushInt(code, pool, rd);
+                    loadRegister(code, pool, rs);
+                    code.u1(I2L);
+                    loadRegister(code, pool, rt);
+                    code.u1(I2L).u1(LSUB);
+                    pushInt(code, pool, 63);
+                    code.u1(LUSHR).u1(L2I).u1(IASTORE);
+                }
+                case DecodedProgram.OP_SLL -> {
+                    code.u1(ALOAD_1);
+                    pushInt(code, pool, rd);
+                    loadRegister(code, pool, rt);
+                    pushInt(code, pool, imm);
+                    code.u1(ISHL).u1(IASTORE);
+                }
+                case DecodedProgram.OP_ADDI -> {
+                    code.u1(ALOAD_1);
+                    pushInt(code, pool, rt);
+                    loadRegister(code, pool, rs);
+                    pushInt(code, pool, imm);
+                    code.u1(IADD).u1(IASTORE);
+                }
+                case DecodedProgram.OP_LW -> {
+                    code.u1(ALOAD_1);
+                    pushInt(code, pool, rt);
+                    code.u1(ALOAD_2);
+                    loadRegister(code, pool, rs);
+                    pushInt(code, pool, imm);
+                    code.u1(IADD);
+                    code.u1(INVOKEVIRTUAL).u2(pool.methodRef("PagedMemory", "read", "(I)I"));
+                    code.u1(IASTORE);
+                }
+                case DecodedProgram.OP_SW -> {
+                    code.u1(ALOAD_2);
+                    loadRegister(code, pool, rs);
+                    pushInt(code, pool, imm);
+                    code.u1(IADD);
+                    loadRegister(code, pool, rt);
+                    code.u1(INVOKEVIRTUAL).u2(pool.methodRef("PagedMemory", "write", "(II)V"));
+                }
+                case DecodedProgram.OP_BEQ, DecodedProgram.OP_BNE -> {
+                    loadRegister(code, pool, rs);
+                    loadRegister(code, pool, rt);
+
+                    final int branchAt = code.size();
+                    code.u1(opcodes[pc] == DecodedProgram.OP_BEQ ? IF_ICMPNE : IF_ICMPEQ).u2(0);
+                    pushInt(code, pool, pc + 1 + imm);
+                    code.u1(IRETURN);
+
+                    final int notTaken = code.size();
+                    code.patchU2(branchAt + 1, notTaken - branchAt);
+                    pushInt(code, pool, pc + 1);
+                    code.u1(IRETURN);
+                    return notTaken;
+                }
+                case DecodedProgram.OP_J -> {
+                    pushInt(code, pool, imm);
+                    code.u1(IRETURN);
+                    return -1;
+                }
+                case DecodedProgram.OP_JAL -> {
+                    code.u1(ALOAD_1);
+                    pushInt(code, pool, 31);
+                    pushInt(code, pool, pc + 1);
+                    code.u1(IASTORE);
+                    pushInt(code, pool, imm);
+                    code.u1(IRETURN);
+                    return -1;
+                }
+                case DecodedProgram.OP_JR -> {
+                    loadRegister(code, pool, rs);
+                    code.u1(IRETURN);
+                    return -1;
+                }
+            }
+        }
+
+        // the block ran into the end of the program or the block length cap
+        pushInt(code, pool, end + 1);
+        code.u1(IRETURN);
+        return -1;
+    }
+
+    private static void emitRegisterOp(final ByteBuffer code, final ConstantPool pool,
+                                       final int rd, final int rs, final int rt, final int op) {
+        code.u1(ALOAD_1);
+        pushInt(code, pool, rd);
+        loadRegister(code, pool, rs);
+        loadRegister(code, pool, rt);
+        code.u1(op).u1(IASTORE);
+    }
+
+    private static void loadRegister(final ByteBuffer code, final ConstantPool pool, final int register) {
+        code.u1(ALOAD_1);
+        pushInt(code, pool, register);
+        code.u1(IALOAD);
+    }
+
+    private static void pushInt(final ByteBuffer code, final ConstantPool pool, final int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(0x03 + value); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.u1(0x10).u1(value); // bipush
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.u1(0x11).u2(value); // sipush
+        } else {
+            code.u1(0x13).u2(pool.integer(value)); // ldc_w
+        }
+    }
+
+    /**
+     * A growable big-endian byte buffer, just enough to write a class file.
+     */
+    private static final class ByteBuffer {
+        private byte[] data = new byte[256];
+        private int size;
+
+        ByteBuffer u1(final int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+            return this;
+        }
+
+        ByteBuffer u2(final int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        ByteBuffer u4(final int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        ByteBuffer bytes(final ByteBuffer other) {
+            ensure(other.size);
+            System.arraycopy(other.data, 0, data, size, other.size);
+            size += other.size;
+            return this;
+        }
+
+        void patchU2(final int offset, final int value) {
+            data[offset] = (byte) (value >>> 8);
+            data[offset + 1] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+
+        private void ensure(final int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class ConstantPool {
+        private static final int TAG_UTF8 = 1;
+        private static final int TAG_INTEGER = 3;
+        private static final int TAG_CLASS = 7;
+        private static final int TAG_METHODREF = 10;
+        private static final int TAG_NAME_AND_TYPE = 12;
+
+        private final ByteBuffer entries = new ByteBuffer();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return indices.computeIfAbsent("U" + value, key -> {
+                entries.u1(TAG_UTF8).u2(value.length());
+                for (int i = 0; i < value.length(); i++) {
+                    entries.u1(value.charAt(i)); // all names used here are ASCII
+                }
+                return count++;
+            });
+        }
+
+        int integer(final int value) {
+            return indices.computeIfAbsent("I" + value, key -> {
+                entries.u1(TAG_INTEGER).u4(value);
+                return count++;
+            });
+        }
+
+        int classRef(final String internalName) {
+            final int name = utf8(internalName);
+            return indices.computeIfAbsent("C" + internalName, key -> {
+                entries.u1(TAG_CLASS).u2(name);
+                return count++;
+            });
+        }
+
+        int methodRef(final String owner, final String name, final String descriptor) {
+            final int ownerIdx = classRef(owner);
+            final int nameIdx = utf8(name);
+            final int descIdx = utf8(descriptor);
+            final int nameAndType = indices.computeIfAbsent("N" + name + descriptor, key -> {
+                entries.u1(TAG_NAME_AND_TYPE).u2(nameIdx).u2(descIdx);
+                return count++;
+            });
+
+            return indices.computeIfAbsent("M" + owner + "." + name + descriptor, key -> {
+                entries.u1(TAG_METHODREF).u2(ownerIdx).u2(nameAndType);
+                return count++;
+            });
+        }
+
+        void writeTo(final ByteBuffer out) {
+            out.u2(count).bytes(entries);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Bookkeeping for tiered execution. Counts how often each basic block is entered and hands it to
+ * {@link BlockCompiler} once it is hot. A block starts at any entry PC and runs up to and including the next
+ * BEQ, BNE, J, JAL or JR, the end of the program, or {@link #MAX_BLOCK_LENGTH} instructions.
+ */
+public final class BlockJit {
+    public static final int DEFAULT_THRESHOLD = 100;
+    public static final int MAX_BLOCK_LENGTH = 256;
+
+    private final DecodedProgram program;
+    private final int threshold;
+    private final int[] entryCounts;
+    private final int[] blockEnds;
+    private final CompiledBlock[] compiledBlocks;
+    private int compiledBlockCount;
+
+    public BlockJit(final DecodedProgram program, final int threshold) {
+        this.program = program;
+        this.threshold = threshold;
+        this.entryCounts = new int[program.size()];
+        this.blockEnds = new int[program.size()];
+        this.compiledBlocks = new CompiledBlock[program.size()];
+
+        for (int pc = 0; pc < program.size(); pc++) {
+            blockEnds[pc] = findBlockEnd(pc);
+        }
+    }
+
+    /**
+     * Records an entry into the block starting at the given PC, compiling it if it just became hot.
+     * @param pc the entry PC
+     * @return the compiled block, or null if the block should still be interpreted
+     */
+    public CompiledBlock enter(final int pc) {
+        final CompiledBlock block = compiledBlocks[pc];
+        if (block != null) {
+            return block;
+        }
+
+        if (++entryCounts[pc] < threshold) {
+            return null;
+        }
+
+        final CompiledBlock compiled = BlockCompiler.compile(program, pc, blockEnds[pc]);
+        compiledBlocks[pc] = compiled;
+        compiledBlockCount++;
+        return compiled;
+    }
+
+    /**
+     * Gets the last PC of the block starting at the given PC.
+     * @param pc the entry PC
+     * @return the PC of the instruction ending the block
+     */
+    public int blockEnd(final int pc) {
+        return blockEnds[pc];
+    }
+
+    public int compiledBlockCount() {
+        return compiledBlockCount;
+    }
+
+    private int findBlockEnd(final int start) {
+        final int[] opcodes = program.opcodes();
+        final int limit = Math.min(program.size(), start + MAX_BLOCK_LENGTH) - 1;
+
+        for (int pc = start; pc < limit; pc++) {
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_BEQ, DecodedProgram.OP_BNE,
+                        DecodedProgram.OP_J, DecodedProgram.OP_JAL, DecodedProgram.OP_JR -> {
+                    return pc;
+                }
+            }
+        }
+
+        return limit;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Predicts conditional branches for {@link CPUSimulator}. The simulator asks for a prediction when a branch is
+ * fetched and trains the predictor with the outcome right away, since the model executes branches at fetch.
+ * <p>A branch predicted correctly as not taken costs nothing. One predicted correctly as taken costs nothing if
+ * {@link #knowsTarget(int)}, and otherwise the fetch behind it is squashed as for a jump, since the target is only
+ * known in id. A misprediction costs the wrong-path fetches and squash of {@link PipelineConfig#branchSquashes()}.</p>
+ * <p>Predictors hold state, so checkpoints take a {@link #copy()} of them.</p>
+ */
+public interface BranchPredictor {
+    String[] NAMES = { "not-taken", "btfnt", "2bit", "gshare" };
+
+    /**
+     * Creates a predictor by name, as listed in {@link #NAMES}.
+     * @param name the predictor's name
+     * @return a predictor with no history
+     */
+    static BranchPredictor forName(final String name) {
+        return switch (name) {
+            case "not-taken" -> new NotTakenPredictor();
+            case "btfnt" -> new BackwardTakenPredictor();
+            case "2bit" -> new TwoBitPredictor(TwoBitPredictor.DEFAULT_ENTRIES);
+            case "gshare" -> new GsharePredictor(GsharePredictor.DEFAULT_HISTORY_BITS, GsharePredictor.DEFAULT_BTB_ENTRIES);
+            default -> throw new IllegalArgumentException(String.format(
+                    "Unknown branch predictor \"%s\"; expected one of %s.", name, String.join(", ", NAMES)));
+        };
+    }
+
+    String name();
+
+    /**
+     * Predicts whether the branch at a PC is taken.
+     * @param pc the branch's address
+     * @param target the address the branch goes to when taken
+     */
+    boolean predictTaken(int pc, int target);
+
+    /**
+     * Gets whether the target of the branch at a PC is known at fetch, before the branch is decoded.
+     */
+    default boolean knowsTarget(final int pc) {
+        return false;
+    }
+
+    /**
+     * Trains the predictor with the outcome of the branch at a PC.
+     * @param pc the branch's address
+     * @param target the address the branch goes to when taken
+     * @param taken whether the branch was taken
+     */
+    void update(int pc, int target, boolean taken);
+
+    /**
+     * Forgets all history.
+     */
+    void reset();
+
+    BranchPredictor copy();
+
+    /**
+     * Takes over the state of another predictor of the same kind and size.
+     */
+    void copyFrom(BranchPredictor other);
+}
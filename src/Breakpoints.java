@@ -0,0 +1,254 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The breakpoints and watchpoints a run stops at. A breakpoint stops when the instruction at its PC is fetched,
+ * optionally only if a condition on a register holds just before it executes. A watchpoint stops when a load reads
+ * or a store writes a word in its range of data memory.
+ * <p>Checking is kept to a bit test in the common case: the PCs with a breakpoint are a {@link BitSet}, and so are
+ * the pages of memory ({@link PagedMemory#PAGE_WORDS} words each) that a watchpoint covers. Conditions and ranges
+ * are only looked at once the bit for a PC or page is set.</p>
+ * <p>A {@link CPUSimulator} is given them as a {@link PipelineListener}, which looks at each instruction as it is
+ * about to execute and stops the run at the end of that cycle.</p>
+ */
+public final class Breakpoints implements PipelineListener {
+    private final List<Breakpoint> breakpoints = new ArrayList<>();
+    private final List<Watchpoint> watchpoints = new ArrayList<>();
+    private final BitSet breakpointPcs = new BitSet();
+    private final BitSet readPages = new BitSet();
+    private final BitSet writePages = new BitSet();
+
+    /**
+     * @param condition the condition under which it stops, or null to always stop
+     */
+    public void addBreakpoint(final int pc, final Condition condition) {
+        if (pc < 0) {
+            throw new IllegalArgumentException("The PC must not be negative.");
+        }
+        breakpoints.add(new Breakpoint(pc, condition));
+        breakpointPcs.set(pc);
+    }
+
+    /**
+     * Watches the words of data memory from lower to upper, inclusive, for loads, stores or both.
+     */
+    public void addWatchpoint(final int lower, final int upper, final boolean read, final boolean write) {
+        if (lower < 0 || upper < lower) {
+            throw new IllegalArgumentException("Memory locations must not be negative, and the lower must come first.");
+        }
+        if (!read && !write) {
+            throw new IllegalArgumentException("A watchpoint must watch loads, stores or both.");
+        }
+
+        watchpoints.add(new Watchpoint(lower, upper, read, write));
+        final int firstPage = lower >>> PagedMemory.PAGE_BITS;
+        final int lastPage = upper >>> PagedMemory.PAGE_BITS;
+        if (read) readPages.set(firstPage, lastPage + 1);
+        if (write) writePages.set(firstPage, lastPage + 1);
+    }
+
+    public void clear() {
+        breakpoints.clear();
+        watchpoints.clear();
+        breakpointPcs.clear();
+        readPages.clear();
+        writePages.clear();
+    }
+
+    public boolean isEmpty() {
+        return breakpoints.isEmpty() && watchpoints.isEmpty();
+    }
+
+    /**
+     * Finds a breakpoint that stops at the instruction at a PC, given the registers before it executes.
+     * @return the breakpoint, or null if none stops there
+     */
+    public Breakpoint breakpointAt(final int pc, final Emulator emulator) {
+        if (!breakpointPcs.get(pc)) {
+            return null;
+        }
+        for (final Breakpoint breakpoint : breakpoints) {
+            if (breakpoint.pc() == pc && (breakpoint.condition() == null || breakpoint.condition().holds(emulator))) {
+                return breakpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a watchpoint that stops at a load from or a store to a memory location.
+     * @return the watchpoint, or null if none watches the access
+     */
+    public Watchpoint watchpointOn(final int address, final boolean write) {
+        // a negative address lands on a page far past any watched one
+        if (!(write ? writePages : readPages).get(address >>> PagedMemory.PAGE_BITS)) {
+            return null;
+        }
+        for (final Watchpoint watchpoint : watchpoints) {
+            if (address >= watchpoint.lower() && address <= watchpoint.upper()
+                    && (write ? watchpoint.write() : watchpoint.read())) {
+                return watchpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first breakpoint or watchpoint that stops at the instruction at a PC, before it executes.
+     * @return what stopped it, or null if nothing does
+     */
+    @Override
+    public String executing(final int pc, final Emulator emulator) {
+        final Breakpoint breakpoint = breakpointAt(pc, emulator);
+        if (breakpoint != null) {
+            return String.format("\tStopped at %s", breakpoint);
+        }
+
+        final int opcode = emulator.program().opcodes()[pc];
+        if (opcode != DecodedProgram.OP_LW && opcode != DecodedProgram.OP_SW) {
+            return null;
+        }
+        final int address = emulator.memoryAddress();
+        final boolean write = opcode == DecodedProgram.OP_SW;
+        final Watchpoint watchpoint = watchpointOn(address, write);
+        return watchpoint == null ? null : String.format("\tStopped at %s: pc %d %s [%d]", watchpoint, pc,
+                write ? "stores to" : "loads from", address);
+    }
+
+    /**
+     * Lists the breakpoints and then the watchpoints, one per line, in the order they were added.
+     */
+    public void print(final PrintStream out) {
+        if (isEmpty()) {
+            out.println("\tNo breakpoints or watchpoints");
+            return;
+        }
+        for (final Breakpoint breakpoint : breakpoints) {
+            out.printf("\t%s%n", breakpoint);
+        }
+        for (final Watchpoint watchpoint : watchpoints) {
+            out.printf("\t%s%n", watchpoint);
+        }
+    }
+
+    public static final class Breakpoint {
+        private final int pc;
+        private final Condition condition;
+
+        private Breakpoint(final int pc, final Condition condition) {
+            this.pc = pc;
+            this.condition = condition;
+        }
+
+        public int pc() {
+            return pc;
+        }
+
+        /**
+         * Gets the condition under which it stops, or null if it always does.
+         */
+        public Condition condition() {
+            return condition;
+        }
+
+        @Override
+        public String toString() {
+            return condition == null
+                    ? String.format("breakpoint on pc %d", pc)
+                    : String.format("breakpoint on pc %d if %s", pc, condition);
+        }
+    }
+
+    public static final class Watchpoint {
+        private final int lower;
+        private final int upper;
+        private final boolean read;
+        private final boolean write;
+
+        private Watchpoint(final int lower, final int upper, final boolean read, final boolean write) {
+            this.lower = lower;
+            this.upper = upper;
+            this.read = read;
+            this.write = write;
+        }
+
+        public int lower() {
+            return lower;
+        }
+
+        public int upper() {
+            return upper;
+        }
+
+        public boolean read() {
+            return read;
+        }
+
+        public boolean write() {
+            return write;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("watchpoint on memory %d to %d for %s", lower, upper,
+                    read && write ? "loads and stores" : read ? "loads" : "stores");
+        }
+    }
+
+    /**
+     * A comparison of a register with a constant, like "$t0 == 5".
+     */
+    public static final class Condition {
+        private final Register register;
+        private final String operator;
+        private final int value;
+
+        /**
+         * @param operator one of ==, !=, &lt;, &lt;=, &gt; and &gt;=
+         */
+        public Condition(final Register register, final String operator, final int value) {
+            switch (operator) {
+                case "==", "!=", "<", "<=", ">", ">=" -> {}
+                default -> throw new IllegalArgumentException(String.format("Invalid operator \"%s\".", operator));
+            }
+            this.register = register;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        /**
+         * Parses a condition from a register, an operator and a value, separated by whitespace.
+         * @throws IllegalArgumentException if the text is no such condition
+         */
+        public static Condition parse(final String text) {
+            final String[] parts = text.trim().split("\\s+");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("A condition is a register, an operator and a value.");
+            }
+            try {
+                return new Condition(Register.getByRegisterName(parts[0]), parts[1], Integer.parseInt(parts[2]));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("Invalid value \"%s\".", parts[2]));
+            }
+        }
+
+        public boolean holds(final Emulator emulator) {
+            final int actual = emulator.readRegister(register.number());
+            return switch (operator) {
+                case "==" -> actual == value;
+                case "!=" -> actual != value;
+                case "<" -> actual < value;
+                case "<=" -> actual <= value;
+                case ">" -> actual > value;
+                default -> actual >= value;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %d", register.registerName(), operator, value);
+        }
+    }
+}
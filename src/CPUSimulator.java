@@ -1,109 +1,691 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Set;
 
 public class CPUSimulator {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    // once this many checkpoints exist, every other one is dropped and the interval doubles
+    private static final int MAX_CHECKPOINTS = 256;
+    private static final String[] STAGE_NAMES = Arrays.stream(Opcode.values())
+            .map(opcode -> opcode.name().toLowerCase(Locale.ROOT))
+            .toArray(String[]::new);
+
     private final Emulator emulator;
-    private final Deque<Instruction> pipeline;
+    // where fetch takes the correct-path instructions from: the emulator, except while a decoupled run replays it
+    private InstructionStream stream;
+    private final PipelineConfig config;
+    // the number of pipeline registers, and the pipeline register where taken branches resolve
+    private final int depth;
+    private final int branchRegister;
+    // ring buffer of pipeline registers, sized to a power of two; pipeline[pipelineHead] is if/id, followed by
+    // the later pipeline registers in order
+    private final int pipelineMask;
+    private final Instruction[] pipeline;
+    // whether the instruction in each slot is a branch that was mispredicted when it was fetched; wrong-path
+    // instructions were never executed, so they are never mispredicted
+    private final boolean[] pipelineMispredicted;
+    // the PC each slot's instruction was fetched from, or -1 for squashes and stalls
+    private final int[] pipelinePc;
+    // in a pipeline issuing two instructions per cycle, the instruction in the second slot of each pipeline
+    // register and its PC, or null and -1; both arrays are null in a scalar pipeline
+    private final Instruction[] secondLane;
+    private final int[] secondLanePc;
+    // in a pipeline issuing two instructions per cycle, whether the instruction at each PC can issue together
+    // with the one after it
+    private final boolean[] pairsWithNext;
+
+    private final HazardUnit hazards;
+    // the target of the branch at each PC, or -1 for anything but a conditional branch
+    private final int[] branchTargets;
+    // the decoded program, for loads and stores
+    private final int[] opcodes;
+    private final int[] dataRegisters;
+    private int pipelineHead;
+    private int pipelineSize;
     private int programCounter;
     private int cycles;
     private boolean shouldSquashNext;
-    private final Deque<Instruction> afterBranchInstructions;
+    // wrong-path instructions still to be fed in after a mispredicted branch, fed from pretendPc downwards
+    private int pretendPc;
+    private int pretendRemaining;
+    private int pretendBranchPc;
     private int actuallyExecutedInstructions;
+    private boolean reportThroughput;
+    private boolean fastForward;
+    private boolean decoupled;
+    // cycle on which the last instruction without a pending squash was fetched
+    private int lastSettledFetchCycle;
+    private byte[] loadUseStalls;
+    private long elapsedNanos;
+
+    // checkpoints in cycle order, the first taken before cycle 0 is run
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private int nextCheckpointCycle;
+
+    private PrintStream out = System.out;
+    private TraceWriter trace;
+    private PipelineStats stats;
+    private CycleProfiler profiler;
+    // null predicts every branch not taken without counting predictions, like the lab's pipeline
+    private BranchPredictor predictor;
+    private int branchPredictions;
+    private int branchMispredictions;
+    // null makes fetches and memory accesses free, like the lab's pipeline
+    private Cache instructionCache;
+    private Cache dataCache;
+    private MemoryAccessListener memoryListener;
+    // the breakpoints, trace, event counters and profiler in one, or null so a run without them pays a single
+    // test per event
+    private PipelineListener listener;
+    // null stops nowhere, letting runs fast-forward or decouple
+    private Breakpoints breakpoints;
+    // why the last run or step stopped early, or null if nothing stopped it
+    private String stopReason;
+    // the pipeline register whose instructions access memory during a cycle
+    private final int memoryRegister;
+    // the cycles of data cache misses each slot's instructions still have to spend in mem
+    private final int[] pipelineMemoryStalls;
+    // whether the next fetch was looked up in the instruction cache yet, and the cycles it still waits for a miss
+    private boolean fetchLookedUp;
+    private int fetchStalls;
+    // what each pipeline register holds at the end of a cycle, as the listener is told
+    private final byte[] registerOpcodes;
+    private final int[] registerPcs;
 
     public CPUSimulator(Emulator emulator) {
+        this(emulator, PipelineConfig.DEFAULT);
+    }
+
+    public CPUSimulator(Emulator emulator, PipelineConfig config) {
+        this(emulator, new PipelineTables(emulator.program(), config));
+    }
+
+    /**
+     * Creates a simulator of the emulator's program on a pipeline, sharing the tables worked out for them with any
+     * other simulators of the same program on the same pipeline.
+     * @param emulator the emulator, running the program the tables were built for
+     * @param tables the tables for the program and pipeline
+     */
+    public CPUSimulator(Emulator emulator, PipelineTables tables) {
+        if (emulator.program() != tables.program()) {
+            throw new IllegalArgumentException("The emulator must run the program the pipeline tables were built for.");
+        }
+
         this.emulator = emulator;
-        pipeline = new LinkedBlockingDeque<>(4);
-        afterBranchInstructions = new LinkedBlockingDeque<>(2);
+        stream = emulator;
+        this.config = tables.config();
+        depth = config.depth();
+        branchRegister = config.branchRegister();
+        memoryRegister = depth - 2;
         programCounter = 0;
+
+        final int capacity = Integer.highestOneBit(depth - 1) << 1;
+        pipelineMask = capacity - 1;
+        pipeline = new Instruction[capacity];
+        pipelineMispredicted = new boolean[capacity];
+        pipelinePc = new int[capacity];
+        pipelineMemoryStalls = new int[capacity];
+        final boolean dualIssue = config.issueWidth() > 1;
+        secondLane = dualIssue ? new Instruction[capacity] : null;
+        secondLanePc = dualIssue ? new int[capacity] : null;
+        registerOpcodes = new byte[depth * config.issueWidth()];
+        registerPcs = new int[depth * config.issueWidth()];
+
+        opcodes = tables.program().opcodes();
+        dataRegisters = tables.program().rt();
+        hazards = tables.newHazardUnit();
+        pairsWithNext = tables.pairsWithNext();
+        branchTargets = tables.branchTargets();
+    }
+
+    private static boolean isMemoryAccess(int opcode) {
+        return opcode == DecodedProgram.OP_LW || opcode == DecodedProgram.OP_SW;
+    }
+
+    public PipelineConfig config() {
+        return config;
+    }
+
+    /**
+     * Prints pipeline dumps, timing summaries and statistics to the given stream from now on, rather than to
+     * standard output.
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    public PrintStream output() {
+        return out;
     }
 
     public final void dumpPipelineRegisterState() {
-        final String format = "%-7s\t%-7s\t%-7s\t%-7s\t%-7s\n" +
-                "%-7d\t%-7s\t%-7s\t%-7s\t%-7s\n";
-
-        final String[] plReg = Arrays.stream(pipelineAsArray())
-                .map(r -> {
-                    if (r == null) {
-                        return "empty";
-                    } else if (r.opcode() == Opcode.STALL) {
-                        return "stall";
-                    } else if (r.opcode() == Opcode.SQUASH) {
-                        return "squash";
-                    } else {
-                        return r.opcode().name().toLowerCase(Locale.ROOT);
-                    }
-                })
-                .toArray(String[]::new);
+        final String[] contents = new String[depth];
+        for (int i = 0; i < depth; i++) {
+            contents[i] = stageName(stage(i));
+        }
+
+        String[] secondContents = null;
+        if (secondLane != null) {
+            secondContents = new String[depth];
+            for (int i = 0; i < depth; i++) {
+                secondContents[i] = stageName(secondStage(i));
+            }
+        }
+        printPipelineRegisters(out, config.registerNames(), programCounter, contents, secondContents);
+    }
+
+    /**
+     * Prints a pipeline state in the format of {@link #dumpPipelineRegisterState()}.
+     * @param out where to print
+     * @param registerNames the names of the pipeline registers
+     * @param pc the program counter
+     * @param contents what each pipeline register holds, as named by {@link #stageName(int)}
+     */
+    public static void printPipelineRegisters(final PrintStream out, final String[] registerNames, final int pc,
+                                              final String[] contents) {
+        printPipelineRegisters(out, registerNames, pc, contents, null);
+    }
+
+    /**
+     * Prints a pipeline state in the format of {@link #dumpPipelineRegisterState()}, with the second slot of every
+     * pipeline register on a line of its own in a pipeline issuing two instructions per cycle.
+     * @param out where to print
+     * @param registerNames the names of the pipeline registers
+     * @param pc the program counter
+     * @param contents what the first slot of each pipeline register holds, as named by {@link #stageName(int)}
+     * @param secondContents what the second slot of each pipeline register holds, or null for a scalar pipeline
+     */
+    public static void printPipelineRegisters(final PrintStream out, final String[] registerNames, final int pc,
+                                              final String[] contents, final String[] secondContents) {
+        final String fields = "\t%-7s".repeat(registerNames.length);
+        final String format = "%-7s" + fields + "\n" +
+                "%-7d" + fields + "\n" +
+                (secondContents != null ? "%-7s" + fields + "\n" : "");
+
+        final Object[] args = new Object[(secondContents != null ? 3 : 2) * (registerNames.length + 1)];
+        args[0] = "pc";
+        System.arraycopy(registerNames, 0, args, 1, registerNames.length);
+        args[registerNames.length + 1] = pc;
+        System.arraycopy(contents, 0, args, registerNames.length + 2, contents.length);
+        if (secondContents != null) {
+            args[2 * (registerNames.length + 1)] = "";
+            System.arraycopy(secondContents, 0, args, 2 * registerNames.length + 3, secondContents.length);
+        }
+
+        out.println();
+        out.printf(format, args);
+        out.println();
+    }
+
+    /**
+     * Gets the name shown for a pipeline register holding the given opcode.
+     * @param opcodeOrdinal the opcode's ordinal, or {@link TraceWriter#EMPTY} for an empty register
+     */
+    public static String stageName(final int opcodeOrdinal) {
+        return opcodeOrdinal < 0 ? "empty" : STAGE_NAMES[opcodeOrdinal];
+    }
+
+    /**
+     * Records every cycle from now on to the given trace instead of printing the pipeline registers when stepping.
+     * Tracing also turns fast-forwarding into a full run, since every cycle needs a record.
+     * @param trace the trace to write, or null to stop tracing
+     */
+    public void setTrace(TraceWriter trace) {
+        this.trace = trace;
+        updateListener();
+    }
+
+    /**
+     * Enables or disables the event counters of {@link #stats()}. Off by default. Counting starts from zero, and
+     * fast-forwarding turns into a full run while counters are on, since they need every cycle.
+     * @param enabled whether to count events
+     */
+    public void setStatsEnabled(boolean enabled) {
+        stats = enabled ? new PipelineStats(config.registerNames()) : null;
+        updateListener();
+    }
+
+    /**
+     * Gets the event counters.
+     * @return the counters, or null if they are disabled
+     */
+    public PipelineStats stats() {
+        return stats;
+    }
+
+    /**
+     * Predicts branches with the given predictor from now on, charging squashes only for mispredictions, and
+     * reports its accuracy with the timing summary. Since fast-forwarding charges cycles without predicting, a
+     * predictor turns it into a full run.
+     * @param predictor the predictor, or null to go back to predicting not taken without reporting accuracy
+     */
+    public void setBranchPredictor(BranchPredictor predictor) {
+        this.predictor = predictor;
+        branchPredictions = 0;
+        branchMispredictions = 0;
+    }
+
+    public BranchPredictor branchPredictor() {
+        return predictor;
+    }
+
+    public int branchPredictions() {
+        return branchPredictions;
+    }
+
+    public int branchMispredictions() {
+        return branchMispredictions;
+    }
+
+    /**
+     * Models the given caches from now on and reports their counters with the timing summary. Fetch waits out
+     * instruction cache misses, letting stalls into the pipeline, and a load or store that missed the data cache
+     * holds up the whole pipeline while it is in mem. Wrong-path fetches are not looked up. Like a predictor,
+     * caches turn fast-forwarding into a full run.
+     * @param instructionCache the instruction cache, or null for free fetches
+     * @param dataCache the data cache, or null for free loads and stores
+     */
+    public void setCaches(Cache instructionCache, Cache dataCache) {
+        this.instructionCache = instructionCache;
+        this.dataCache = dataCache;
+        Arrays.fill(pipelineMemoryStalls, 0);
+        fetchLookedUp = false;
+        fetchStalls = 0;
+    }
+
+    public Cache instructionCache() {
+        return instructionCache;
+    }
 
-        System.out.println();
-        System.out.printf(
-                format,
-                "pc", "if/id", "id/exe", "exe/mem", "mem/wb",
-                programCounter, plReg[0], plReg[1], plReg[2], plReg[3]
-        );
-        System.out.println();
+    public Cache dataCache() {
+        return dataCache;
+    }
+
+    /**
+     * Reports every load and store to the given listener from now on, as it is fetched and executed. Like a
+     * predictor, a listener turns fast-forwarding into a full run.
+     * @param memoryListener the listener, or null to stop reporting
+     */
+    public void setMemoryAccessListener(MemoryAccessListener memoryListener) {
+        this.memoryListener = memoryListener;
+    }
+
+    /**
+     * Makes {@link #run()} and {@link #runNCycles(int)} stop at the end of the cycle that fetches an instruction at
+     * a breakpoint, or a load or store that a watchpoint watches. Conditions and addresses are looked at before
+     * the instruction executes. Breakpoints need the registers as each instruction is fetched, so they keep runs
+     * coupled and cycle by cycle; {@link #runFastForward()} ignores them.
+     * @param breakpoints the breakpoints and watchpoints, or null to stop at none
+     */
+    public void setBreakpoints(Breakpoints breakpoints) {
+        this.breakpoints = breakpoints;
+        updateListener();
+    }
+
+    /**
+     * Attributes every cycle from now on to an instruction, and lists the hotspots after {@link #run()}. Like the
+     * event counters, profiling turns fast-forwarding into a full run.
+     * @param profiler the profiler to charge, or null to stop profiling
+     */
+    public void setProfiler(CycleProfiler profiler) {
+        this.profiler = profiler;
+        updateListener();
+    }
+
+    private void updateListener() {
+        listener = PipelineListeners.of(breakpoints, stats, profiler, trace);
+    }
+
+    public CycleProfiler profiler() {
+        return profiler;
+    }
+
+    /**
+     * Displays the event counters, or how to enable them.
+     */
+    public final void printStatistics() {
+        if (stats == null) {
+            out.println("\tStatistics are disabled; run with --stats to enable them");
+            return;
+        }
+
+        out.println();
+        printTimingInformation();
+        stats.print(out);
+    }
+
+    /**
+     * Enables or disables the cycles/sec figure in the timing summary. Off by default, since wall time differs
+     * from run to run.
+     * @param reportThroughput whether to report simulated cycles per second
+     */
+    public void setReportThroughput(boolean reportThroughput) {
+        this.reportThroughput = reportThroughput;
+    }
+
+    /**
+     * Makes {@link #run()} use {@link #runFastForward()} instead of modeling the pipeline cycle by cycle.
+     * @param fastForward whether runs should fast-forward
+     */
+    public void setFastForward(boolean fastForward) {
+        this.fastForward = fastForward;
+    }
+
+    /**
+     * Enables or disables decoupled runs, in which {@link #runToCompletion()} runs the functional emulator ahead
+     * on a thread of its own and models the pipeline on the calling thread from the instructions it commits. The
+     * cycle counts are exactly those of a coupled run, and afterwards {@link #emulator()} holds the final registers
+     * and memory as usual. A memory access listener needs the registers as each instruction is fetched, so it keeps
+     * runs coupled, and so does a machine with a single processor, where the two threads would only take turns.
+     * @param decoupled whether runs should be decoupled
+     */
+    public void setDecoupled(boolean decoupled) {
+        this.decoupled = decoupled;
+    }
+
+    /**
+     * Sets how many cycles apart checkpoints are taken, which bounds how many cycles {@link #stepBack(int)} has
+     * to replay. Long runs thin out their checkpoints, doubling the interval, so memory use stays bounded.
+     * @param interval the checkpoint interval in cycles, or 0 to stop taking checkpoints
+     */
+    public void setCheckpointInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative.");
+        }
+        checkpointInterval = interval;
+        nextCheckpointCycle = cycles;
     }
 
     public final void run() {
-        while (true) {
-            if (!runOneCycle(false)) break;
+        runToCompletion();
+        if (stopReason != null) {
+            out.println();
+            out.println(stopReason);
+            dumpPipelineRegisterState();
+            return;
+        }
+
+        out.println();
+        out.println("Program complete");
+        printTimingInformation();
+        out.println();
+
+        if (profiler != null) {
+            profiler.printHotspots(out, CycleProfiler.DEFAULT_HOTSPOTS);
+            out.println();
+        }
+    }
+
+    /**
+     * Runs until the program ends or a breakpoint or watchpoint is hit, like {@link #run()}, but without printing
+     * anything.
+     */
+    public final void runToCompletion() {
+        final long start = System.nanoTime();
+        stopReason = null;
+        if (breakpoints != null) {
+            while (true) {
+                if (!runOneCycle(false) || stopReason != null) break;
+            }
+        } else if (fastForward) {
+            fastForwardToEnd();
+        } else if (decoupled && memoryListener == null && Runtime.getRuntime().availableProcessors() > 1) {
+            runDecoupled();
+        } else {
+            while (true) {
+                if (!runOneCycle(false)) break;
+            }
+        }
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the rest of the program with the functional emulator on a thread of its own, replaying what it commits
+     * through a {@link ReplayEmulator} cycle by cycle on this thread. No checkpoints are taken meanwhile, since the
+     * emulator's registers and memory are ahead of the cycle being modeled; the next one is taken on the first
+     * cycle afterwards, once the emulator was joined and has stopped where the program ends.
+     * @throws IllegalStateException if the functional emulator fails, or the wait for it is interrupted
+     */
+    private void runDecoupled() {
+        final int interval = checkpointInterval;
+        checkpointInterval = 0;
+        final ReplayEmulator replay = ReplayEmulator.start(emulator);
+        stream = replay;
+        try {
+            while (true) {
+                if (!runOneCycle(false)) break;
+            }
+        } finally {
+            replay.stop();
+            stream = emulator;
+            checkpointInterval = interval;
+            nextCheckpointCycle = cycles;
         }
+        replay.join();
+    }
+
+    /**
+     * Runs the rest of the program through the functional emulator only, charging cycles analytically with the
+     * same rules as {@link #runOneCycle(boolean)}, then displays the timing summary. The pipeline contents are
+     * not modeled, so the pipeline is empty afterwards. Pipelines the analytic rules do not cover, such as those
+     * issuing two instructions per cycle, are run cycle by cycle instead.
+     */
+    public final void runFastForward() {
+        final long start = System.nanoTime();
+        fastForwardToEnd();
+        elapsedNanos += System.nanoTime() - start;
 
-        System.out.println();
-        System.out.println("Program complete");
+        out.println();
+        out.println("Program complete");
         printTimingInformation();
-        System.out.println();
+        out.println();
+    }
+
+    private void fastForwardToEnd() {
+        if (listener != null || predictor != null || hazards.maxStalls() > 1 || secondLane != null
+                || instructionCache != null || dataCache != null || memoryListener != null) {
+            while (true) {
+                if (!runOneCycle(false)) break;
+            }
+            return;
+        }
+
+        final byte[] loadUseStalls = loadUseStalls();
+        final int tail = tailStart();
+        final long[] events = new long[6];
+        while (true) {
+            // if we are mid-run, step the pipeline until no squash or stall is still owed to fetched instructions
+            while (!settled() && emulator.hasMoreInstructions()) {
+                runOneCycle(false);
+            }
+
+            if (!emulator.hasMoreInstructions()) {
+                while (true) {
+                    if (!runOneCycle(false)) break;
+                }
+                return;
+            }
+
+            // the last cycle fetched an instruction whose load-use check has not happened yet
+            if (stage(1) != null && stagePc(1) >= 0) {
+                cycles += loadUseStalls[emulator.programCounter() - 1];
+            }
+
+            emulator.runCountingEvents(loadUseStalls, tail, events);
+            final boolean ended = !emulator.hasMoreInstructions();
+            if (ended) {
+                // penalties are only paid if there is something left to fetch, so the final instruction's are dropped
+                switch ((int) events[4]) {
+                    case 1 -> events[1]--;
+                    case 2 -> events[2]--;
+                }
+                events[3] -= events[5];
+            }
+
+            // jumps squash the instruction fetched behind them, taken branches their wrong-path fetches and the
+            // squash inserted when they resolve
+            cycles += (int) (events[0] + events[1] + config.branchSquashes() * events[2] + events[3]);
+            actuallyExecutedInstructions += (int) events[0];
+
+            programCounter = emulator.programCounter();
+            shouldSquashNext = false;
+            pretendRemaining = 0;
+            if (ended) {
+                // drain whatever is left in the pipeline
+                cycles += Math.min(depth, cycles);
+                clearPipeline();
+                return;
+            }
+
+            // the run stopped short of the tail, which is stepped cycle by cycle from a pipeline holding bubbles
+            // behind the last instruction, so the first one in the tail still stalls behind it if it fell through
+            clearPipeline();
+            for (int i = Math.min(depth, cycles); i > 0; i--) {
+                if (i == 1 && events[4] == 0 && programCounter > 0) {
+                    push(emulator.instructionAt(programCounter - 1), false, programCounter - 1);
+                } else {
+                    push(StallInstruction.INSTANCE, false, -1);
+                }
+            }
+            do {
+                runOneCycle(false);
+            } while (emulator.hasMoreInstructions() && (emulator.programCounter() >= tail || !settled()));
+        }
+    }
+
+    /**
+     * Gets where the tail of the program starts, at the first branch so close to the end that, taken, it runs out
+     * of wrong-path instructions before it resolves. {@link #runOneCycle(boolean)}
+     * then cuts its penalty short, by how much depending on what the correct path still has to fetch, which the
+     * analytic totals do not follow, so fast-forwarding steps the tail cycle by cycle.
+     * @return the PC of the first such branch, or the program size if there is none
+     */
+    private int tailStart() {
+        final int size = emulator.instructionCount();
+        for (int pc = Math.max(0, size - branchRegister); pc < size; pc++) {
+            if (branchTargets[pc] >= 0) {
+                return pc;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Checks whether the last cycle fetched an instruction on the correct path that owes no squash, with no
+     * mispredicted branch still unresolved ahead of it, so nothing fetched is owed anything but load-use stalls.
+     */
+    private boolean settled() {
+        if (cycles != lastSettledFetchCycle || pretendRemaining > 0) {
+            return false;
+        }
+        for (int i = 0; i < pipelineSize; i++) {
+            if (stageMispredicted(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets, per PC, whether the instruction stalls when it directly follows the instruction before it, from the
+     * hazard tables {@link #runOneCycle(boolean)} uses. Computed on first use, since the program never changes.
+     * Only used while no instruction stalls its readers more than once, as fast-forwarding assumes.
+     */
+    private byte[] loadUseStalls() {
+        if (loadUseStalls == null) {
+            loadUseStalls = new byte[emulator.instructionCount()];
+            for (int pc = 1; pc < loadUseStalls.length; pc++) {
+                loadUseStalls[pc] = (byte) hazards.stallsBehind(pc - 1, pc);
+            }
+        }
+
+        return loadUseStalls;
     }
 
     public final void runNCycles(int n) {
+        final long start = System.nanoTime();
+        stopReason = null;
         for (int i = 0; i < n; i++) {
             runOneCycle(true);
+            if (stopReason != null) {
+                out.println(stopReason);
+                break;
+            }
         }
+        elapsedNanos += System.nanoTime() - start;
     }
 
     public final boolean runOneCycle(boolean dumpPipeline) {
-        if (!afterBranchInstructions.isEmpty()) {
-            if (pipeline.size() == 4) {
+        if (cycles >= nextCheckpointCycle && checkpointInterval > 0) {
+            takeCheckpoint();
+        }
+
+        // a data cache miss in mem holds up the whole pipeline
+        if (dataCache != null && memoryRegister < pipelineSize && memoryStall(memoryRegister)) {
+            finishOneCycle(dumpPipeline);
+            return true;
+        }
+
+        if (pretendRemaining > 0) {
+            if (pipelineSize == depth) {
                 // pipeline is full, expire last
-                pipeline.pollLast();
+                pollLast();
             }
 
+            // a later wrong-path fetch
+            if (listener != null) listener.wrongPath(pretendBranchPc);
             pretendEmulateOne();
             programCounter++;
             finishOneCycle(dumpPipeline);
             return true;
         }
 
-        if (emulator.hasMoreInstructions()) {
-            if (pipeline.size() == 4) {
+        if (stream.hasMoreInstructions()) {
+            if (pipelineSize == depth) {
                 // pipeline is full, expire last
-                pipeline.pollLast();
+                pollLast();
             }
 
-            final Instruction[] pipelineArr = pipelineAsArray();
-            final Instruction ifId = pipelineArr[0]; // fetch/decode
-            final Instruction idEx = pipelineArr[1]; // decode/execute
-            final Instruction exMe = pipelineArr[2]; // ex/mem
+            final Instruction ifId = stage(0); // fetch/decode
+
+            // detect and handle reads of results that are not available yet, before a jump or branch in if/id
+            // squashes the fetch behind it or goes down its wrong path, since it reads its registers all the same
+            if (ifId != null && stagePc(0) >= 0 && !stageMispredicted(branchRegister)
+                    && (hazards.mustStall(stagePc(0)) || secondLane != null && secondMustStall())) {
+                stall();
+                finishOneCycle(dumpPipeline);
+                return true;
+            }
 
             if (shouldSquashNext) {
-                pipeline.addFirst(new SquashInstruction());
-                programCounter = emulator.programCounter();
+                // a jump, or a branch correctly predicted taken whose target was not known at fetch
+                if (listener != null) listener.squashed(stagePc(0), branchTargets[stagePc(0)] >= 0, 1);
+                addFirst(SquashInstruction.INSTANCE, false, -1);
+                programCounter = stream.programCounter();
                 shouldSquashNext = false;
                 finishOneCycle(dumpPipeline);
                 return true;
             }
 
             if (ifId != null) {
-                if ((ifId.opcode() == Opcode.BEQ || ifId.opcode() == Opcode.BNE) && ifId.branchTaken()) {
-                    // if we hit a taken branch, grab the next 3 instructions, so we can pretend...
-                    emulator.peekNInstructions(ifId.branchNotTakenPc(), 2)
-                            .forEach(afterBranchInstructions::addFirst);
+                if (stageMispredicted(0)) {
+                    // if we hit a mispredicted branch, grab the instructions on the predicted path until it
+                    // resolves, so we can pretend...
+                    pretendBranchPc = stagePc(0);
+                    final int wrongPathPc = stream.lastBranchTaken() ? pretendBranchPc + 1 : branchTargets[pretendBranchPc];
+                    if (listener != null) listener.wrongPath(pretendBranchPc);
+                    pretendRemaining = Math.max(0, Math.min(branchRegister, emulator.instructionCount() - wrongPathPc));
+                    pretendPc = wrongPathPc + pretendRemaining - 1;
 
-                    programCounter = ifId.branchNotTakenPc() + 1;
+                    programCounter = wrongPathPc + 1;
 
-                    if (!afterBranchInstructions.isEmpty()) {
+                    if (pretendRemaining > 0) {
                         pretendEmulateOne();
                     }
 
@@ -112,37 +694,20 @@ public class CPUSimulator {
                 }
             }
 
-            if (idEx != null) {
-                // detect and handle use-after-load
-                if (idEx.opcode() == Opcode.LW) {
-                    final IFormatInstruction loadInst = (IFormatInstruction) idEx;
-
-                    if (ifId instanceof RFormatInstruction useInst) {
-                        if (checkAndProceedStall(loadInst, useInst)) {
-                            finishOneCycle(dumpPipeline);
-                            return true;
-                        }
-                    }
-
-                    if (ifId instanceof IFormatInstruction useInst) {
-                        if (checkAndProceedStall(loadInst, useInst)) {
-                            finishOneCycle(dumpPipeline);
-                            return true;
-                        }
-                    }
-                }
+            if (stageMispredicted(branchRegister)) {
+                // if we hit a mispredicted branch, we need to squash everything fetched behind it
+                if (listener != null) listener.squashed(stagePc(branchRegister), true, branchRegister + 1);
+                addFirst(SquashInstruction.INSTANCE, false, -1);
+                for (int i = 1; i <= branchRegister; i++) squash(i);
+                rebuildScoreboard();
+                programCounter++;
+                finishOneCycle(dumpPipeline);
+                return true;
             }
 
-            if (exMe != null) {
-                if ((exMe.opcode() == Opcode.BEQ || exMe.opcode() == Opcode.BNE) && exMe.branchTaken()) {
-                    // if we hit a taken branch, we need to squash the prior three instructions
-                    pipeline.clear();
-                    pipeline.addFirst(exMe);
-                    for (int i = 0; i < 3; i++) pipeline.addFirst(new SquashInstruction());
-                    programCounter++;
-                    finishOneCycle(dumpPipeline);
-                    return true;
-                }
+            if (instructionCache != null && fetchWaits()) {
+                finishOneCycle(dumpPipeline);
+                return true;
             }
 
             proceedEmulateOne();
@@ -150,7 +715,14 @@ public class CPUSimulator {
             return true;
         }
 
-        if (pipeline.pollLast() != null) {
+        // draining, instructions leave without moving through mem, so the last one pays for its misses
+        if (dataCache != null && pipelineSize > 0 && memoryStall(pipelineSize - 1)) {
+            finishOneCycle(dumpPipeline);
+            return true;
+        }
+
+        if (pollLast() != null) {
+            if (listener != null) listener.drained();
             finishOneCycle(dumpPipeline);
             return true;
         }
@@ -158,75 +730,666 @@ public class CPUSimulator {
         return false;
     }
 
-    private boolean checkAndProceedStall(IFormatInstruction loadInst, IFormatInstruction useInst) {
-        if (loadInst.rt() == useInst.rs()) {
-            checkAndProceedStall0(useInst);
-            return true;
+    /**
+     * Looks the next fetch up in the instruction cache on the first attempt at it, then counts down the cycles a
+     * miss makes it wait, letting a stall into if/id for each.
+     * @return whether fetch waited this cycle
+     */
+    private boolean fetchWaits() {
+        if (!fetchLookedUp) {
+            fetchStalls = instructionCache.access(stream.programCounter(), false);
+            fetchLookedUp = true;
+        }
+        if (fetchStalls == 0) {
+            fetchLookedUp = false;
+            return false;
         }
 
-        return false;
+        fetchStalls--;
+        if (listener != null) listener.fetchStalled(stream.programCounter());
+        addFirst(StallInstruction.INSTANCE, false, -1);
+        return true;
     }
 
-    private boolean checkAndProceedStall(IFormatInstruction loadInst, RFormatInstruction useInst) {
-        if (loadInst.rt() == useInst.rs() || loadInst.rt() == useInst.rt()) {
-            checkAndProceedStall0(useInst);
-            return true;
+    /**
+     * Spends a cycle of the data cache misses of the instructions in a pipeline register, if they still owe any,
+     * holding up everything.
+     * @return whether the cycle was spent
+     */
+    private boolean memoryStall(int idx) {
+        final int slot = (pipelineHead + idx) & pipelineMask;
+        if (pipelineMemoryStalls[slot] == 0) {
+            return false;
         }
 
-        return false;
+        pipelineMemoryStalls[slot]--;
+        if (listener != null) {
+            final int pc = pipelinePc[slot] >= 0 && isMemoryAccess(opcodes[pipelinePc[slot]])
+                    ? pipelinePc[slot] : secondLanePc[slot];
+            listener.memoryStalled(pc);
+        }
+        return true;
+    }
+
+    /**
+     * Looks the address of the load or store at a PC up in the data cache and reports it to the memory access
+     * listener, before it executes.
+     * @return the cycles it will spend waiting in mem, or 0 for anything but a load or store
+     */
+    private int accessMemory(int pc) {
+        final int opcode = opcodes[pc];
+        if (opcode != DecodedProgram.OP_LW && opcode != DecodedProgram.OP_SW) {
+            return 0;
+        }
+
+        final int address = stream.memoryAddress();
+        final boolean write = opcode == DecodedProgram.OP_SW;
+        if (memoryListener != null) {
+            if (write) {
+                memoryListener.stored(address, emulator.readRegister(dataRegisters[pc]));
+            } else {
+                memoryListener.loaded(address);
+            }
+        }
+        return dataCache != null ? dataCache.access(address, write) : 0;
     }
 
-    private void checkAndProceedStall0(Instruction useInst) {
-        pipeline.removeFirst();
-        pipeline.addFirst(new StallInstruction());
-        pipeline.addFirst(useInst);
+    /**
+     * Tells the listener the instruction at a PC is about to execute, noting the first reason to stop this cycle.
+     */
+    private void executing(int pc) {
+        final String reason = listener.executing(pc, emulator);
+        if (stopReason == null) {
+            stopReason = reason;
+        }
     }
 
-    private void pretendEmulateOne() {
-        Instruction inst = afterBranchInstructions.pollLast();
-        if (inst != null) {
-            pipeline.addFirst(inst);
+    private boolean secondMustStall() {
+        final int pc = secondLanePc[pipelineHead];
+        return pc >= 0 && hazards.mustStall(pc);
+    }
+
+    /**
+     * Holds the instructions in if/id for a cycle, letting a stall into the pipeline behind them.
+     */
+    private void stall() {
+        final Instruction useInst = stage(0);
+        final boolean useMispredicted = stageMispredicted(0);
+        final int usePc = stagePc(0);
+        final Instruction secondInst = secondStage(0);
+        final int secondPc = secondLane != null ? secondLanePc[pipelineHead] : -1;
+        final int memoryStalls = pipelineMemoryStalls[pipelineHead];
+        if (listener != null) listener.loadUseStalled(usePc);
+        hazards.advance(-1);
+        removeFirst();
+        push(StallInstruction.INSTANCE, false, -1);
+        push(useInst, useMispredicted, usePc);
+        if (secondLane != null) {
+            secondLane[pipelineHead] = secondInst;
+            secondLanePc[pipelineHead] = secondPc;
         }
+        pipelineMemoryStalls[pipelineHead] = memoryStalls;
+    }
+
+    private void pretendEmulateOne() {
+        addFirst(emulator.instructionAt(pretendPc), false, pretendPc);
+        pretendPc--;
+        pretendRemaining--;
     }
 
     private void proceedEmulateOne() {
-        pipeline.addFirst(emulator.emulateOneInstruction());
+        final int pc = stream.programCounter();
+        if (listener != null) executing(pc);
+        final int memoryStalls = dataCache != null || memoryListener != null ? accessMemory(pc) : 0;
+        final Instruction inst = stream.emulateOneInstruction();
+        final boolean mispredicted = predictor == null ? stream.lastBranchTaken() : predict(pc);
+        addFirst(inst, mispredicted, pc);
+        if (memoryStalls > 0) pipelineMemoryStalls[pipelineHead] = memoryStalls;
+        if (listener != null) {
+            listener.executed(pc, inst.opcode(), stream.lastBranchTaken(), mispredicted, false);
+        }
 
-        if (emulator.hadUncondJump()) {
+        if (stream.hadUncondJump()) {
             shouldSquashNext = true;
+        } else if (!mispredicted && !shouldSquashNext) {
+            lastSettledFetchCycle = cycles + 1;
         }
 
         programCounter++;
         actuallyExecutedInstructions++;
+
+        if (pairsWithNext != null && pairsWithNext[pc]) {
+            issueSecond();
+        }
+    }
+
+    /**
+     * Fetches the instruction after the one just fetched into the second slot of if/id. Only called when the two
+     * can issue together, so the first was no branch or jump and the second is the next one executed. The second
+     * is left for the next cycle if it is not in the instruction cache yet.
+     */
+    private void issueSecond() {
+        final int pc = stream.programCounter();
+        if (instructionCache != null) {
+            if (!instructionCache.contains(pc)) {
+                return;
+            }
+            instructionCache.access(pc, false);
+        }
+        if (listener != null) executing(pc);
+        final int memoryStalls = dataCache != null || memoryListener != null ? accessMemory(pc) : 0;
+        final Instruction inst = stream.emulateOneInstruction();
+        secondLane[pipelineHead] = inst;
+        secondLanePc[pipelineHead] = pc;
+        pipelineMemoryStalls[pipelineHead] += memoryStalls;
+        if (listener != null) listener.executed(pc, inst.opcode(), stream.lastBranchTaken(), false, true);
+
+        programCounter++;
+        actuallyExecutedInstructions++;
+    }
+
+    /**
+     * Predicts the instruction just executed if it is a branch, and trains the predictor with the outcome. A
+     * branch correctly predicted taken squashes the fetch behind it unless its target was known at fetch.
+     * @return whether the instruction is a mispredicted branch
+     */
+    private boolean predict(int pc) {
+        final int target = branchTargets[pc];
+        if (target < 0) {
+            return false;
+        }
+
+        final boolean taken = stream.lastBranchTaken();
+        final boolean predictedTaken = predictor.predictTaken(pc, target);
+        final boolean targetKnown = predictedTaken && predictor.knowsTarget(pc);
+        predictor.update(pc, target, taken);
+
+        branchPredictions++;
+        if (predictedTaken != taken) {
+            branchMispredictions++;
+            return true;
+        }
+        if (taken && !targetKnown) {
+            shouldSquashNext = true;
+        }
+        return false;
     }
 
     private void finishOneCycle(boolean dumpPipeline) {
         cycles++;
-        if (dumpPipeline) dumpPipelineRegisterState();
+        if (listener != null) {
+            endCycle();
+        }
+        if (trace == null && dumpPipeline) {
+            dumpPipelineRegisterState();
+        }
+    }
+
+    private void endCycle() {
+        for (int i = 0; i < depth; i++) {
+            final Instruction inst = stage(i);
+            registerOpcodes[i] = inst == null ? TraceWriter.EMPTY : (byte) inst.opcode().ordinal();
+            registerPcs[i] = inst == null ? -1 : stagePc(i);
+        }
+        if (secondLane != null) {
+            for (int i = 0; i < depth; i++) {
+                final Instruction inst = secondStage(i);
+                registerOpcodes[depth + i] = inst == null ? TraceWriter.EMPTY : (byte) inst.opcode().ordinal();
+                registerPcs[depth + i] = inst == null ? -1 : secondLanePc[(pipelineHead + i) & pipelineMask];
+            }
+        }
+        listener.cycleEnded(cycles, programCounter, registerOpcodes, registerPcs);
     }
 
     public final void printTimingInformation() {
         final int instCount = actuallyExecutedInstructions;
-        System.out.printf(
-                "CPI = %.3f\tCycles = %d\tInstructions = %d\n",
-                (float) cycles / instCount,
-                cycles,
-                instCount
-        );
+        if (secondLane != null) {
+            out.printf(
+                    "CPI = %.3f\tIPC = %.3f\tCycles = %d\tInstructions = %d\n",
+                    (float) cycles / instCount,
+                    (float) instCount / cycles,
+                    cycles,
+                    instCount
+            );
+        } else {
+            out.printf(
+                    "CPI = %.3f\tCycles = %d\tInstructions = %d\n",
+                    (float) cycles / instCount,
+                    cycles,
+                    instCount
+            );
+        }
+
+        if (predictor != null) {
+            out.printf("Predictor = %s\tAccuracy = %.2f%%\tMispredictions = %d of %d\n",
+                    predictor.name(),
+                    branchPredictions == 0 ? 100.0 : 100.0 * (branchPredictions - branchMispredictions) / branchPredictions,
+                    branchMispredictions,
+                    branchPredictions
+            );
+        }
+
+        printCacheStatistics("I-cache", instructionCache);
+        printCacheStatistics("D-cache", dataCache);
+
+        if (reportThroughput && elapsedNanos > 0) {
+            out.printf("Cycles/sec = %.0f\n", cycles / (elapsedNanos / 1e9));
+        }
+    }
+
+    private void printCacheStatistics(String name, Cache cache) {
+        if (cache != null) {
+            out.printf("%s\tHits = %d\tMisses = %d\tMiss rate = %.2f%%\tEvictions = %d\tMemory writes = %d\n",
+                    name,
+                    cache.hits(),
+                    cache.misses(),
+                    cache.missRate(),
+                    cache.evictions(),
+                    cache.memoryWrites()
+            );
+        }
     }
 
     public final void reset() {
-        pipeline.clear();
+        clearPipeline();
         programCounter = 0;
         cycles = 0;
+        shouldSquashNext = false;
+        pretendRemaining = 0;
+        lastSettledFetchCycle = 0;
+        actuallyExecutedInstructions = 0;
+        elapsedNanos = 0;
         emulator.reset();
+        checkpoints.clear();
+        nextCheckpointCycle = 0;
+        if (stats != null) {
+            stats.reset();
+        }
+        if (profiler != null) {
+            profiler.reset();
+        }
+        if (predictor != null) {
+            predictor.reset();
+        }
+        branchPredictions = 0;
+        branchMispredictions = 0;
+        if (instructionCache != null) {
+            instructionCache.reset();
+        }
+        if (dataCache != null) {
+            dataCache.reset();
+        }
+        fetchLookedUp = false;
+        fetchStalls = 0;
+        if (trace != null) {
+            trace.truncate(0);
+        }
+    }
+
+    /**
+     * Rewinds the simulation by the given number of cycles, by restoring the latest checkpoint at or before the
+     * target cycle and replaying forward from it. Without a checkpoint to restore, the program is replayed from
+     * the start.
+     * @param n the number of cycles to go back; going back past cycle 0 stops at cycle 0
+     */
+    public final void stepBack(int n) {
+        final int target = Math.max(0, cycles - n);
+
+        int idx = checkpoints.size() - 1;
+        while (idx >= 0 && checkpoints.get(idx).cycle > target) {
+            idx--;
+        }
+
+        if (idx < 0) {
+            reset();
+        } else {
+            restoreCheckpoint(idx);
+        }
+
+        while (cycles < target) {
+            if (!runOneCycle(false)) break;
+        }
+    }
+
+    private void takeCheckpoint() {
+        final Checkpoint checkpoint = new Checkpoint(this);
+        final PagedMemory memory = emulator.memory();
+        memory.forEachDirtyPage((pageNumber, data, offset) ->
+                checkpoint.addPage(pageNumber, Arrays.copyOfRange(data, offset, offset + PagedMemory.PAGE_WORDS)));
+        memory.markClean();
+
+        checkpoints.add(checkpoint);
+        if (checkpoints.size() > MAX_CHECKPOINTS) {
+            thinCheckpoints();
+        }
+        nextCheckpointCycle = cycles + checkpointInterval;
+    }
+
+    /**
+     * Drops every other checkpoint, keeping the first and the latest, and doubles the interval. A dropped
+     * checkpoint's pages are handed to the next one, so every checkpoint can still reconstruct memory.
+     */
+    private void thinCheckpoints() {
+        final int last = checkpoints.size() - 1;
+        final List<Checkpoint> kept = new ArrayList<>(last / 2 + 2);
+        for (int i = 0; i <= last; i++) {
+            if (i % 2 == 1 && i < last) {
+                checkpoints.get(i + 1).inheritPages(checkpoints.get(i));
+            } else {
+                kept.add(checkpoints.get(i));
+            }
+        }
+
+        checkpoints.clear();
+        checkpoints.addAll(kept);
+        checkpointInterval *= 2;
+    }
+
+    private void restoreCheckpoint(int idx) {
+        final Checkpoint checkpoint = checkpoints.get(idx);
+        final PagedMemory memory = emulator.memory();
+
+        // pages written since the checkpoint were saved by a later checkpoint or are dirty right now
+        final Set<Integer> changed = new HashSet<>();
+        for (int i = idx + 1; i < checkpoints.size(); i++) {
+            checkpoints.get(i).collectPageNumbers(changed);
+        }
+        memory.forEachDirtyPage((pageNumber, data, offset) -> changed.add(pageNumber));
+
+        for (final int pageNumber : changed) {
+            memory.restorePage(pageNumber, pageAsOf(idx, pageNumber));
+        }
+        memory.markClean();
+        checkpoints.subList(idx + 1, checkpoints.size()).clear();
+
+        checkpoint.restore(this);
+        rebuildScoreboard();
+        nextCheckpointCycle = cycles + checkpointInterval;
+        if (trace != null) {
+            trace.truncate(cycles);
+        }
+    }
+
+    /**
+     * Gets the contents a page had when the given checkpoint was taken, which is its copy in the latest checkpoint
+     * up to that one that saved it.
+     * @return the page, or null if it was still all zeroes
+     */
+    private int[] pageAsOf(int idx, int pageNumber) {
+        for (int i = idx; i >= 0; i--) {
+            final int[] page = checkpoints.get(i).page(pageNumber);
+            if (page != null) {
+                return page;
+            }
+        }
+        return null;
     }
 
     public Emulator emulator() {
         return emulator;
     }
 
-    private Instruction[] pipelineAsArray() {
-        return pipeline.toArray(new Instruction[4]);
+    public int cycles() {
+        return cycles;
+    }
+
+    public int instructionCount() {
+        return actuallyExecutedInstructions;
+    }
+
+    /**
+     * Gets the instruction held in the given pipeline register.
+     * @param idx the pipeline register, 0 being if/id
+     * @return the instruction, or null if the register is empty
+     */
+    private Instruction stage(int idx) {
+        return idx < pipelineSize ? pipeline[(pipelineHead + idx) & pipelineMask] : null;
+    }
+
+    /**
+     * Gets the instruction held in the second slot of the given pipeline register.
+     * @param idx the pipeline register, 0 being if/id
+     * @return the instruction, or null if the slot is empty or the pipeline is scalar
+     */
+    private Instruction secondStage(int idx) {
+        return secondLane != null && idx < pipelineSize ? secondLane[(pipelineHead + idx) & pipelineMask] : null;
+    }
+
+    private boolean stageMispredicted(int idx) {
+        return idx < pipelineSize && pipelineMispredicted[(pipelineHead + idx) & pipelineMask];
+    }
+
+    private int stagePc(int idx) {
+        return pipelinePc[(pipelineHead + idx) & pipelineMask];
+    }
+
+    /**
+     * Replaces the instruction in a pipeline register with a squash.
+     */
+    private void squash(int idx) {
+        final int slot = (pipelineHead + idx) & pipelineMask;
+        pipeline[slot] = SquashInstruction.INSTANCE;
+        pipelineMispredicted[slot] = false;
+        pipelinePc[slot] = -1;
+        pipelineMemoryStalls[slot] = 0;
+        if (secondLane != null) {
+            secondLane[slot] = null;
+            secondLanePc[slot] = -1;
+        }
+    }
+
+    /**
+     * Fetches an instruction into if/id, moving everything else on and advancing the hazard scoreboard.
+     */
+    private void addFirst(Instruction inst, boolean taken, int pc) {
+        hazards.advance(pipelineSize > 0 ? pipelinePc[pipelineHead] : -1);
+        if (secondLane != null && pipelineSize > 0 && secondLanePc[pipelineHead] >= 0) {
+            hazards.addProducer(secondLanePc[pipelineHead], 1);
+        }
+        push(inst, taken, pc);
+    }
+
+    private void push(Instruction inst, boolean taken, int pc) {
+        pipelineHead = (pipelineHead - 1) & pipelineMask;
+        pipeline[pipelineHead] = inst;
+        pipelineMispredicted[pipelineHead] = taken;
+        pipelinePc[pipelineHead] = pc;
+        pipelineMemoryStalls[pipelineHead] = 0;
+        if (secondLane != null) {
+            secondLane[pipelineHead] = null;
+            secondLanePc[pipelineHead] = -1;
+        }
+        pipelineSize++;
+    }
+
+    private void removeFirst() {
+        pipeline[pipelineHead] = null;
+        pipelineHead = (pipelineHead + 1) & pipelineMask;
+        pipelineSize--;
+    }
+
+    private Instruction pollLast() {
+        if (pipelineSize == 0) {
+            return null;
+        }
+
+        final int idx = (pipelineHead + pipelineSize - 1) & pipelineMask;
+        final Instruction inst = pipeline[idx];
+        pipeline[idx] = null;
+        pipelineSize--;
+        return inst;
+    }
+
+    private void clearPipeline() {
+        Arrays.fill(pipeline, null);
+        Arrays.fill(pipelineMispredicted, false);
+        Arrays.fill(pipelineMemoryStalls, 0);
+        if (secondLane != null) {
+            Arrays.fill(secondLane, null);
+        }
+        pipelineHead = 0;
+        pipelineSize = 0;
+        hazards.clear();
+    }
+
+    /**
+     * Refills the hazard scoreboard from the instructions in the pipeline, after they were changed other than by
+     * moving on.
+     */
+    private void rebuildScoreboard() {
+        hazards.clear();
+        for (int distance = 1; distance < pipelineSize; distance++) {
+            if (stagePc(distance) >= 0) {
+                hazards.addProducer(stagePc(distance), distance);
+            }
+            if (secondLane != null && secondLanePc[(pipelineHead + distance) & pipelineMask] >= 0) {
+                hazards.addProducer(secondLanePc[(pipelineHead + distance) & pipelineMask], distance);
+            }
+        }
+    }
+
+    private static String stageName(Instruction inst) {
+        return inst == null ? "empty" : STAGE_NAMES[inst.opcode().ordinal()];
+    }
+
+    /**
+     * The simulator state at the start of a cycle. Registers and pipeline registers are copied whole, while memory
+     * is incremental: only the pages written since the previous checkpoint are saved.
+     */
+    private static final class Checkpoint {
+        private final int cycle;
+        private final Instruction[] pipeline;
+        private final boolean[] pipelineMispredicted;
+        private final int[] pipelinePc;
+        private final Instruction[] secondLane;
+        private final int[] secondLanePc;
+        private final int[] pipelineMemoryStalls;
+        private final int pipelineHead;
+        private final int pipelineSize;
+        private final int programCounter;
+        private final boolean shouldSquashNext;
+        private final int pretendPc;
+        private final int pretendRemaining;
+        private final int pretendBranchPc;
+        private final int actuallyExecutedInstructions;
+        private final int lastSettledFetchCycle;
+
+        private final int[] registers;
+        private final int emulatorPc;
+        private final boolean hadUncondJump;
+        private final boolean lastBranchTaken;
+        private final PipelineStats stats;
+        private final CycleProfiler profiler;
+        private final BranchPredictor predictor;
+        private final int branchPredictions;
+        private final int branchMispredictions;
+        private final Cache instructionCache;
+        private final Cache dataCache;
+        private final boolean fetchLookedUp;
+        private final int fetchStalls;
+
+        private final List<Integer> pageNumbers = new ArrayList<>();
+        private final List<int[]> pages = new ArrayList<>();
+
+        private Checkpoint(final CPUSimulator simulator) {
+            cycle = simulator.cycles;
+            pipeline = simulator.pipeline.clone();
+            pipelineMispredicted = simulator.pipelineMispredicted.clone();
+            pipelinePc = simulator.pipelinePc.clone();
+            secondLane = simulator.secondLane == null ? null : simulator.secondLane.clone();
+            secondLanePc = simulator.secondLanePc == null ? null : simulator.secondLanePc.clone();
+            pipelineMemoryStalls = simulator.pipelineMemoryStalls.clone();
+            pipelineHead = simulator.pipelineHead;
+            pipelineSize = simulator.pipelineSize;
+            programCounter = simulator.programCounter;
+            shouldSquashNext = simulator.shouldSquashNext;
+            pretendPc = simulator.pretendPc;
+            pretendRemaining = simulator.pretendRemaining;
+            pretendBranchPc = simulator.pretendBranchPc;
+            actuallyExecutedInstructions = simulator.actuallyExecutedInstructions;
+            lastSettledFetchCycle = simulator.lastSettledFetchCycle;
+
+            final Emulator emulator = simulator.emulator;
+            registers = emulator.copyRegisters();
+            emulatorPc = emulator.programCounter();
+            hadUncondJump = emulator.hadUncondJump();
+            lastBranchTaken = emulator.lastBranchTaken();
+            stats = simulator.stats == null ? null : simulator.stats.copy();
+            profiler = simulator.profiler == null ? null : simulator.profiler.copy();
+            predictor = simulator.predictor == null ? null : simulator.predictor.copy();
+            branchPredictions = simulator.branchPredictions;
+            branchMispredictions = simulator.branchMispredictions;
+            instructionCache = simulator.instructionCache == null ? null : simulator.instructionCache.copy();
+            dataCache = simulator.dataCache == null ? null : simulator.dataCache.copy();
+            fetchLookedUp = simulator.fetchLookedUp;
+            fetchStalls = simulator.fetchStalls;
+        }
+
+        private void restore(final CPUSimulator simulator) {
+            System.arraycopy(pipeline, 0, simulator.pipeline, 0, pipeline.length);
+            System.arraycopy(pipelineMispredicted, 0, simulator.pipelineMispredicted, 0, pipelineMispredicted.length);
+            System.arraycopy(pipelinePc, 0, simulator.pipelinePc, 0, pipelinePc.length);
+            System.arraycopy(pipelineMemoryStalls, 0, simulator.pipelineMemoryStalls, 0, pipelineMemoryStalls.length);
+            if (secondLane != null) {
+                System.arraycopy(secondLane, 0, simulator.secondLane, 0, secondLane.length);
+                System.arraycopy(secondLanePc, 0, simulator.secondLanePc, 0, secondLanePc.length);
+            }
+            simulator.pipelineHead = pipelineHead;
+            simulator.pipelineSize = pipelineSize;
+            simulator.programCounter = programCounter;
+            simulator.cycles = cycle;
+            simulator.shouldSquashNext = shouldSquashNext;
+            simulator.pretendPc = pretendPc;
+            simulator.pretendRemaining = pretendRemaining;
+            simulator.pretendBranchPc = pretendBranchPc;
+            simulator.actuallyExecutedInstructions = actuallyExecutedInstructions;
+            simulator.lastSettledFetchCycle = lastSettledFetchCycle;
+            simulator.emulator.restoreState(registers, emulatorPc, hadUncondJump, lastBranchTaken);
+            if (stats != null && simulator.stats != null) {
+                simulator.stats.copyFrom(stats);
+            }
+            if (profiler != null && simulator.profiler != null) {
+                simulator.profiler.copyFrom(profiler);
+            }
+            if (predictor != null && simulator.predictor != null && predictor.getClass() == simulator.predictor.getClass()) {
+                simulator.predictor.copyFrom(predictor);
+                simulator.branchPredictions = branchPredictions;
+                simulator.branchMispredictions = branchMispredictions;
+            }
+            if (instructionCache != null && simulator.instructionCache != null
+                    && instructionCache.config() == simulator.instructionCache.config()) {
+                simulator.instructionCache.copyFrom(instructionCache);
+            }
+            if (dataCache != null && simulator.dataCache != null && dataCache.config() == simulator.dataCache.config()) {
+                simulator.dataCache.copyFrom(dataCache);
+            }
+            simulator.fetchLookedUp = fetchLookedUp;
+            simulator.fetchStalls = fetchStalls;
+        }
+
+        private void addPage(final int pageNumber, final int[] page) {
+            pageNumbers.add(pageNumber);
+            pages.add(page);
+        }
+
+        private int[] page(final int pageNumber) {
+            final int idx = pageNumbers.indexOf(pageNumber);
+            return idx < 0 ? null : pages.get(idx);
+        }
+
+        private void collectPageNumbers(final Set<Integer> into) {
+            into.addAll(pageNumbers);
+        }
+
+        /**
+         * Takes over the pages of an earlier checkpoint that is being dropped, except those this one saved itself.
+         */
+        private void inheritPages(final Checkpoint older) {
+            for (int i = 0; i < older.pageNumbers.size(); i++) {
+                if (page(older.pageNumbers.get(i)) == null) {
+                    addPage(older.pageNumbers.get(i), older.pages.get(i));
+                }
+            }
+        }
     }
 }
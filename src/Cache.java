@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/**
+ * A set-associative cache as described by a {@link CacheConfig}, tracking which lines it holds but not their data,
+ * since the functional emulator keeps memory itself. Lines live in flat primitive arrays, set by set, so a lookup
+ * scans the ways of one set.
+ * <p>Counts hits, misses, evictions of valid lines and writes to memory: dirty lines written back by a write-back
+ * cache, or every store written through by a write-through one.</p>
+ */
+public final class Cache {
+    private static final int RANDOM_SEED = 0x2545F491;
+
+    private final CacheConfig config;
+    private final int ways;
+    private final int lineShift;
+    private final int setShift;
+    private final int setMask;
+    private final int missPenalty;
+    private final boolean writeBack;
+    private final boolean randomReplacement;
+
+    // per line, set by set
+    private final int[] tags;
+    private final boolean[] valid;
+    private final boolean[] dirty;
+    private final long[] lastUsed;
+    private long clock;
+    private int random;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long memoryWrites;
+
+    public Cache(final CacheConfig config) {
+        this.config = config;
+        ways = config.ways();
+        lineShift = Integer.numberOfTrailingZeros(config.lineWords());
+        setShift = Integer.numberOfTrailingZeros(config.sets());
+        setMask = config.sets() - 1;
+        missPenalty = config.missPenalty();
+        writeBack = config.writeBack();
+        randomReplacement = config.randomReplacement();
+
+        final int lines = config.sets() * ways;
+        tags = new int[lines];
+        valid = new boolean[lines];
+        dirty = new boolean[lines];
+        lastUsed = new long[lines];
+        reset();
+    }
+
+    public CacheConfig config() {
+        return config;
+    }
+
+    /**
+     * Looks an address up, filling its line on a miss.
+     * @param address the word address, or the PC for an instruction cache
+     * @param write whether the access is a store
+     * @return the cycles the access waits for memory, 0 on a hit
+     */
+    public int access(final int address, final boolean write) {
+        final int block = address >> lineShift;
+        final int tag = block >> setShift;
+        final int first = (block & setMask) * ways;
+        clock++;
+
+        for (int line = first; line < first + ways; line++) {
+            if (valid[line] && tags[line] == tag) {
+                hits++;
+                lastUsed[line] = clock;
+                if (write) {
+                    if (writeBack) {
+                        dirty[line] = true;
+                    } else {
+                        memoryWrites++;
+                    }
+                }
+                return 0;
+            }
+        }
+
+        misses++;
+        if (write && !writeBack) {
+            // no allocation on write misses, and the write buffer hides the store
+            memoryWrites++;
+            return 0;
+        }
+
+        final int victim = victim(first);
+        int cycles = missPenalty;
+        if (valid[victim]) {
+            evictions++;
+            if (dirty[victim]) {
+                memoryWrites++;
+                cycles += missPenalty;
+            }
+        }
+        tags[victim] = tag;
+        valid[victim] = true;
+        dirty[victim] = write;
+        lastUsed[victim] = clock;
+        return cycles;
+    }
+
+    /**
+     * Checks whether the line of an address is in the cache, without counting an access.
+     */
+    public boolean contains(final int address) {
+        final int block = address >> lineShift;
+        final int tag = block >> setShift;
+        final int first = (block & setMask) * ways;
+        for (int line = first; line < first + ways; line++) {
+            if (valid[line] && tags[line] == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the line of a set to refill: an invalid one if there is one, otherwise the least recently used or a
+     * random one.
+     */
+    private int victim(final int first) {
+        for (int line = first; line < first + ways; line++) {
+            if (!valid[line]) {
+                return line;
+            }
+        }
+
+        if (randomReplacement) {
+            // xorshift, so runs and replays pick the same victims
+            random ^= random << 13;
+            random ^= random >>> 17;
+            random ^= random << 5;
+            return first + (random & (ways - 1));
+        }
+
+        int victim = first;
+        for (int line = first + 1; line < first + ways; line++) {
+            if (lastUsed[line] < lastUsed[victim]) {
+                victim = line;
+            }
+        }
+        return victim;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public long memoryWrites() {
+        return memoryWrites;
+    }
+
+    /**
+     * Gets the share of accesses that missed, as a percentage.
+     */
+    public double missRate() {
+        final long accesses = hits + misses;
+        return accesses == 0 ? 0.0 : 100.0 * misses / accesses;
+    }
+
+    /**
+     * Empties the cache and zeroes its counters.
+     */
+    public void reset() {
+        Arrays.fill(valid, false);
+        Arrays.fill(dirty, false);
+        Arrays.fill(lastUsed, 0);
+        clock = 0;
+        random = RANDOM_SEED;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        memoryWrites = 0;
+    }
+
+    public Cache copy() {
+        final Cache copy = new Cache(config);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public void copyFrom(final Cache other) {
+        System.arraycopy(other.tags, 0, tags, 0, tags.length);
+        System.arraycopy(other.valid, 0, valid, 0, valid.length);
+        System.arraycopy(other.dirty, 0, dirty, 0, dirty.length);
+        System.arraycopy(other.lastUsed, 0, lastUsed, 0, lastUsed.length);
+        clock = other.clock;
+        random = other.random;
+        hits = other.hits;
+        misses = other.misses;
+        evictions = other.evictions;
+        memoryWrites = other.memoryWrites;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Describes a cache modeled by {@link Cache}: its size, associativity and line size, how it picks a victim, how it
+ * handles writes and how many cycles a miss costs. Sizes are in words, since memory is addressed by word and
+ * instructions by index.
+ * <p>A write-back cache allocates on write misses and writes a dirty victim back before refilling its line, which
+ * costs another miss penalty. A write-through cache writes every store to memory through a write buffer, so
+ * stores never wait, and does not allocate on write misses.</p>
+ */
+public final class CacheConfig {
+    public static final CacheConfig DEFAULT = new CacheConfig(256, 2, 4, false, true, 10);
+
+    private final int size;
+    private final int ways;
+    private final int lineWords;
+    private final boolean randomReplacement;
+    private final boolean writeBack;
+    private final int missPenalty;
+
+    /**
+     * @param size the capacity in words, a power of two
+     * @param ways the lines per set, a power of two no larger than the number of lines
+     * @param lineWords the words per line, a power of two
+     * @param randomReplacement whether victims are picked at random rather than least recently used
+     * @param writeBack whether writes go to the cache only, rather than through to memory as well
+     * @param missPenalty the cycles a miss waits for memory, at least 1
+     */
+    public CacheConfig(final int size, final int ways, final int lineWords, final boolean randomReplacement,
+                       final boolean writeBack, final int missPenalty) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Cache size must be a power of two.");
+        }
+        if (lineWords <= 0 || Integer.bitCount(lineWords) != 1 || lineWords > size) {
+            throw new IllegalArgumentException("Cache lines must be a power of two words, no larger than the cache.");
+        }
+        if (ways <= 0 || Integer.bitCount(ways) != 1 || ways > size / lineWords) {
+            throw new IllegalArgumentException(String.format(
+                    "Associativity must be a power of two from 1 to %d.", size / lineWords));
+        }
+        if (missPenalty < 1) {
+            throw new IllegalArgumentException("Miss penalty must be at least 1 cycle.");
+        }
+
+        this.size = size;
+        this.ways = ways;
+        this.lineWords = lineWords;
+        this.randomReplacement = randomReplacement;
+        this.writeBack = writeBack;
+        this.missPenalty = missPenalty;
+    }
+
+    /**
+     * Parses a comma-separated list of settings, such as "size=1024,ways=4,line=8,replacement=random,write=through,
+     * miss=20". Settings left out keep their default.
+     * @param spec the settings, or an empty string for the default cache
+     * @return the configuration
+     */
+    public static CacheConfig parse(final String spec) {
+        int size = DEFAULT.size;
+        int ways = DEFAULT.ways;
+        int lineWords = DEFAULT.lineWords;
+        boolean randomReplacement = DEFAULT.randomReplacement;
+        boolean writeBack = DEFAULT.writeBack;
+        int missPenalty = DEFAULT.missPenalty;
+
+        for (final String setting : spec.split(",")) {
+            if (setting.isBlank()) {
+                continue;
+            }
+
+            final int equals = setting.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException(String.format("Cache setting \"%s\" has no value.", setting));
+            }
+
+            final String name = setting.substring(0, equals).trim();
+            final String value = setting.substring(equals + 1).trim();
+            switch (name) {
+                case "size" -> size = parseInt(name, value);
+                case "ways" -> ways = parseInt(name, value);
+                case "line" -> lineWords = parseInt(name, value);
+                case "replacement" -> randomReplacement = switch (value) {
+                    case "lru" -> false;
+                    case "random" -> true;
+                    default -> throw new IllegalArgumentException("Replacement must be lru or random.");
+                };
+                case "write" -> writeBack = switch (value) {
+                    case "back" -> true;
+                    case "through" -> false;
+                    default -> throw new IllegalArgumentException("Write policy must be back or through.");
+                };
+                case "miss" -> missPenalty = parseInt(name, value);
+                default -> throw new IllegalArgumentException(String.format("Unknown cache setting \"%s\".", name));
+            }
+        }
+
+        return new CacheConfig(size, ways, lineWords, randomReplacement, writeBack, missPenalty);
+    }
+
+    private static int parseInt(final String name, final String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Cache setting \"%s\" must be an integer.", name));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int ways() {
+        return ways;
+    }
+
+    public int lineWords() {
+        return lineWords;
+    }
+
+    /**
+     * Gets the number of sets, the lines divided among the ways.
+     */
+    public int sets() {
+        return size / lineWords / ways;
+    }
+
+    public boolean randomReplacement() {
+        return randomReplacement;
+    }
+
+    public boolean writeBack() {
+        return writeBack;
+    }
+
+    public int missPenalty() {
+        return missPenalty;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d,ways=%d,line=%d,replacement=%s,write=%s,miss=%d", size, ways, lineWords,
+                randomReplacement ? "random" : "lru", writeBack ? "back" : "through", missPenalty);
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free ring of committed-instruction records, handed from exactly one producer thread to exactly
+ * one consumer thread. Each record is a single long, so a slot is written and read in one access.
+ * <p>Each side keeps its own position in a plain field and publishes it to the other side only every
+ * {@link #PUBLISH_BATCH} records, or when it has to wait. It also remembers how far the other side had got when it
+ * last looked, so it only reads the shared position when the ring looks full or empty. A side that has to wait
+ * spins briefly and then yields, so a full ring holds the producer back and an empty one the consumer.</p>
+ */
+public final class CommitRing {
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private static final int PUBLISH_BATCH = 64;
+    private static final int SPINS = 100;
+
+    private final long[] records;
+    private final int mask;
+    // the next record to take and the next to put, as last published
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean closed;
+
+    // the producer's own position, and how far it may put before looking at head again
+    private long putIndex;
+    private long putLimit;
+    // the consumer's own position, and how far it may take before looking at tail again
+    private long takeIndex;
+    private long takeLimit;
+
+    /**
+     * @param capacity the number of records the ring holds, a power of two no smaller than the publishing batch
+     */
+    public CommitRing(final int capacity) {
+        if (capacity < PUBLISH_BATCH || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Ring capacity must be a power of two, at least %d.", PUBLISH_BATCH));
+        }
+        records = new long[capacity];
+        mask = capacity - 1;
+        putLimit = capacity;
+    }
+
+    /**
+     * Adds a record, waiting while the ring is full. Only called by the producer.
+     * @return false if the consumer cancelled, in which case the record was dropped
+     */
+    public boolean put(final long record) {
+        if (putIndex == putLimit && !awaitSpace()) {
+            return false;
+        }
+        records[(int) putIndex & mask] = record;
+        putIndex++;
+        if ((putIndex & (PUBLISH_BATCH - 1)) == 0) {
+            tail.lazySet(putIndex);
+        }
+        return true;
+    }
+
+    private boolean awaitSpace() {
+        tail.lazySet(putIndex);
+        for (int spins = 0; ; spins++) {
+            putLimit = head.get() + records.length;
+            if (putIndex < putLimit) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            backOff(spins);
+        }
+    }
+
+    /**
+     * Waits until a record can be taken. Only called by the consumer.
+     * @return whether there is a record, which is false only once the ring is closed and empty
+     */
+    public boolean await() {
+        if (takeIndex < takeLimit) {
+            return true;
+        }
+
+        head.lazySet(takeIndex);
+        for (int spins = 0; ; spins++) {
+            takeLimit = tail.get();
+            if (takeIndex < takeLimit) {
+                return true;
+            }
+            if (closed) {
+                // the producer publishes its last records before closing
+                takeLimit = tail.get();
+                return takeIndex < takeLimit;
+            }
+            backOff(spins);
+        }
+    }
+
+    /**
+     * Gets the next record without taking it. Only called by the consumer, after {@link #await()} found one.
+     */
+    public long peek() {
+        return records[(int) takeIndex & mask];
+    }
+
+    /**
+     * Takes the next record. Only called by the consumer, after {@link #await()} found one.
+     */
+    public long take() {
+        final long record = records[(int) takeIndex & mask];
+        takeIndex++;
+        if ((takeIndex & (PUBLISH_BATCH - 1)) == 0) {
+            head.lazySet(takeIndex);
+        }
+        return record;
+    }
+
+    /**
+     * Closes the ring after the last record. Only called by the producer; the consumer still takes whatever is
+     * left.
+     */
+    public void close() {
+        tail.set(putIndex);
+        closed = true;
+    }
+
+    /**
+     * Closes the ring early, so a producer waiting for space gives up. Only called by the consumer.
+     */
+    public void cancel() {
+        closed = true;
+    }
+
+    private static void backOff(final int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
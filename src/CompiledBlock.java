@@ -0,0 +1,12 @@
+/**
+ * A basic block of MIPS code compiled to JVM bytecode by {@link BlockCompiler}.
+ */
+public interface CompiledBlock {
+    /**
+     * Runs the block against the given machine state.
+     * @param registers the register file
+     * @param memory the data memory
+     * @return the program counter to continue at
+     */
+    int execute(int[] registers, PagedMemory memory);
+}
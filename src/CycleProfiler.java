@@ -0,0 +1,238 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Charges every simulated cycle to the instruction responsible for it, so the cycles of all PCs add up to the
+ * cycle count. A cycle that fetches an instruction is a retire cycle of that instruction. A load-use stall is
+ * charged to the instruction waiting on the load, and a cycle spent on the wrong path or on a squash is charged to
+ * the taken branch or jump that caused it. The cycles that drain the pipeline after the last fetch belong to no
+ * instruction and are counted apart.
+ * <p>Reports are annotated with the source text of each instruction, when known, and with the label it falls
+ * under: the closest label at or before its address.</p>
+ */
+public final class CycleProfiler implements PipelineListener {
+    public static final int DEFAULT_HOTSPOTS = 20;
+
+    private final List<Instruction> instructions;
+    private final long[] retireCycles;
+    private final long[] stallCycles;
+    private final long[] squashCycles;
+    private long drainCycles;
+
+    // the label each pc falls under and its distance from it, and the source text of each pc or null
+    private final String[] labels;
+    private final int[] labelOffsets;
+    private List<String> sourceText;
+
+    /**
+     * Creates a profiler for a program.
+     * @param instructions the program
+     * @param labelAddresses the program's labels, or an empty map
+     */
+    public CycleProfiler(final List<Instruction> instructions, final Map<String, Integer> labelAddresses) {
+        this.instructions = instructions;
+        retireCycles = new long[instructions.size()];
+        stallCycles = new long[instructions.size()];
+        squashCycles = new long[instructions.size()];
+        labels = new String[instructions.size()];
+        labelOffsets = new int[instructions.size()];
+        findEnclosingLabels(labelAddresses);
+    }
+
+    /**
+     * Sets the source text shown for each instruction.
+     * @param sourceText the source line of every instruction, by address
+     */
+    public void setSourceText(final List<String> sourceText) {
+        this.sourceText = sourceText;
+    }
+
+    public void chargeRetire(final int pc) {
+        retireCycles[pc]++;
+    }
+
+    public void chargeStall(final int pc) {
+        stallCycles[pc]++;
+    }
+
+    public void chargeSquash(final int pc) {
+        squashCycles[pc]++;
+    }
+
+    public void chargeDrain() {
+        drainCycles++;
+    }
+
+    @Override
+    public void executed(final int pc, final Opcode opcode, final boolean taken, final boolean mispredicted,
+                         final boolean paired) {
+        // the second of a pair rides on the cycle charged to the first
+        if (!paired) {
+            chargeRetire(pc);
+        }
+    }
+
+    @Override
+    public void wrongPath(final int branchPc) {
+        chargeSquash(branchPc);
+    }
+
+    @Override
+    public void squashed(final int pc, final boolean branch, final int squashes) {
+        chargeSquash(pc);
+    }
+
+    @Override
+    public void loadUseStalled(final int pc) {
+        chargeStall(pc);
+    }
+
+    @Override
+    public void fetchStalled(final int pc) {
+        chargeStall(pc);
+    }
+
+    @Override
+    public void memoryStalled(final int pc) {
+        chargeStall(pc);
+    }
+
+    @Override
+    public void drained() {
+        chargeDrain();
+    }
+
+    public long cycles(final int pc) {
+        return retireCycles[pc] + stallCycles[pc] + squashCycles[pc];
+    }
+
+    public long drainCycles() {
+        return drainCycles;
+    }
+
+    public long totalCycles() {
+        long total = drainCycles;
+        for (int pc = 0; pc < retireCycles.length; pc++) {
+            total += cycles(pc);
+        }
+        return total;
+    }
+
+    public void reset() {
+        Arrays.fill(retireCycles, 0);
+        Arrays.fill(stallCycles, 0);
+        Arrays.fill(squashCycles, 0);
+        drainCycles = 0;
+    }
+
+    public CycleProfiler copy() {
+        final CycleProfiler copy = new CycleProfiler(instructions, Map.of());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public void copyFrom(final CycleProfiler other) {
+        System.arraycopy(other.retireCycles, 0, retireCycles, 0, retireCycles.length);
+        System.arraycopy(other.stallCycles, 0, stallCycles, 0, stallCycles.length);
+        System.arraycopy(other.squashCycles, 0, squashCycles, 0, squashCycles.length);
+        drainCycles = other.drainCycles;
+    }
+
+    /**
+     * Prints the instructions that took the most cycles, most expensive first.
+     * @param out where to print
+     * @param limit the most instructions to list
+     */
+    public void printHotspots(final PrintStream out, final int limit) {
+        final long total = totalCycles();
+        final Integer[] pcs = new Integer[retireCycles.length];
+        for (int pc = 0; pc < pcs.length; pc++) {
+            pcs[pc] = pc;
+        }
+        Arrays.sort(pcs, (a, b) -> cycles(a) != cycles(b) ? Long.compare(cycles(b), cycles(a)) : Integer.compare(a, b));
+
+        out.println("Hotspots:");
+        out.printf("%-4s\t%-5s\t%-9s\t%-6s\t%-9s\t%-9s\t%-9s\t%s\n",
+                "rank", "pc", "cycles", "%", "retire", "stall", "squash", "instruction");
+        for (int rank = 0; rank < Math.min(limit, pcs.length); rank++) {
+            final int pc = pcs[rank];
+            if (cycles(pc) == 0) {
+                break;
+            }
+            out.printf("%-4d\t%-5d\t%-9d\t%-6.2f\t%-9d\t%-9d\t%-9d\t%s\n", rank + 1, pc, cycles(pc),
+                    percent(cycles(pc), total), retireCycles[pc], stallCycles[pc], squashCycles[pc], describe(pc));
+        }
+
+        if (drainCycles > 0) {
+            out.printf("%-4s\t%-5s\t%-9d\t%-6.2f\t%-9s\t%-9s\t%-9s\t%s\n", "-", "-", drainCycles,
+                    percent(drainCycles, total), "-", "-", "-", "(pipeline drain)");
+        }
+    }
+
+    /**
+     * Writes the profile in the collapsed-stack format read by flame graph tools: one line per label, instruction
+     * and kind of cycle, with frames separated by semicolons and followed by the cycle count.
+     * @param path the file to write
+     */
+    public void writeCollapsedStacks(final Path path) throws IOException {
+        try (final BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for (int pc = 0; pc < retireCycles.length; pc++) {
+                final String frames = frame(labels[pc]) + ';' + frame(describe(pc)) + ';';
+                writeStack(writer, frames + "retire", retireCycles[pc]);
+                writeStack(writer, frames + "stall", stallCycles[pc]);
+                writeStack(writer, frames + "squash", squashCycles[pc]);
+            }
+            writeStack(writer, "(pipeline drain)", drainCycles);
+        }
+    }
+
+    private static void writeStack(final BufferedWriter writer, final String stack, final long cycles) throws IOException {
+        if (cycles > 0) {
+            writer.write(stack);
+            writer.write(' ');
+            writer.write(Long.toString(cycles));
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Describes an instruction by its address, its offset from its label and its source text if known.
+     */
+    private String describe(final int pc) {
+        final String text = sourceText != null ? sourceText.get(pc)
+                : instructions.get(pc).opcode().name().toLowerCase(Locale.ROOT);
+        final String location = labelOffsets[pc] == 0 ? labels[pc] : labels[pc] + "+" + labelOffsets[pc];
+        return String.format("%d %s: %s", pc, location, text);
+    }
+
+    // semicolons separate frames in the collapsed format
+    private static String frame(final String name) {
+        return name.replace(';', ',');
+    }
+
+    private static double percent(final long part, final long total) {
+        return total == 0 ? 0.0 : 100.0 * part / total;
+    }
+
+    private void findEnclosingLabels(final Map<String, Integer> labelAddresses) {
+        // ties at one address go to the alphabetically first label
+        final TreeMap<Integer, String> byAddress = new TreeMap<>();
+        for (final Map.Entry<String, Integer> label : labelAddresses.entrySet()) {
+            byAddress.merge(label.getValue(), label.getKey(), (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+
+        for (int pc = 0; pc < labels.length; pc++) {
+            final Map.Entry<Integer, String> label = byAddress.floorEntry(pc);
+            labels[pc] = label == null ? "<start>" : label.getValue();
+            labelOffsets[pc] = label == null ? pc : pc - label.getKey();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.List;
+
+/**
+ * A pre-decoded program image. Every instruction is flattened into parallel primitive arrays indexed by
+ * program counter, so the emulator can dispatch on an int opcode id without touching the {@link Instruction}
+ * objects.
+ * <p>The image is immutable once decoded, so one instance can be shared by any number of emulators running on
+ * different threads. The array accessors hand out the backing arrays for speed and callers must never write to
+ * them.</p>
+ */
+public final class DecodedProgram {
+    public static final int OP_AND = 0;
+    public static final int OP_OR = 1;
+    public static final int OP_ADD = 2;
+    public static final int OP_ADDI = 3;
+    public static final int OP_SLL = 4;
+    public static final int OP_SUB = 5;
+    public static final int OP_SLT = 6;
+    public static final int OP_BEQ = 7;
+    public static final int OP_BNE = 8;
+    public static final int OP_LW = 9;
+    public static final int OP_SW = 10;
+    public static final int OP_J = 11;
+    public static final int OP_JR = 12;
+    public static final int OP_JAL = 13;
+
+    private final List<Instruction> instructions;
+    private final int size;
+    private final int[] opcodes;
+    private final int[] rs;
+    private final int[] rt;
+    private final int[] rd;
+    // immediate for I format, shamt for R format, address for J format
+    private final int[] imm;
+
+    private DecodedProgram(final List<Instruction> instructions) {
+        this.instructions = List.copyOf(instructions);
+        this.size = instructions.size();
+        this.opcodes = new int[size];
+        this.rs = new int[size];
+        this.rt = new int[size];
+        this.rd = new int[size];
+        this.imm = new int[size];
+    }
+
+    /**
+     * Decodes the given assembled instructions into a flat program image.
+     * @param instructions the assembled instructions
+     * @return the decoded program
+     */
+    public static DecodedProgram decode(final List<Instruction> instructions) {
+        final DecodedProgram program = new DecodedProgram(instructions);
+
+        for (int pc = 0; pc < program.size; pc++) {
+            final Instruction instruction = program.instructions.get(pc);
+            program.opcodes[pc] = opcodeId(instruction.opcode());
+
+            if (instruction instanceof RFormatInstruction inst) {
+                program.rs[pc] = inst.rs();
+                program.rt[pc] = inst.rt();
+                program.rd[pc] = inst.rd();
+                program.imm[pc] = inst.shamt();
+            } else if (instruction instanceof IFormatInstruction inst) {
+                program.rs[pc] = inst.rs();
+                program.rt[pc] = inst.rt();
+                program.imm[pc] = inst.imm();
+            } else if (instruction instanceof JFormatInstruction inst) {
+                program.imm[pc] = inst.address();
+            }
+        }
+
+        return program;
+    }
+
+    /**
+     * Maps an opcode to the int id used by the decoded program.
+     * @param opcode the opcode
+     * @return the opcode id
+     */
+    public static int opcodeId(final Opcode opcode) {
+        return switch (opcode) {
+            case AND -> OP_AND;
+            case OR -> OP_OR;
+            case ADD -> OP_ADD;
+            case ADDI -> OP_ADDI;
+            case SLL -> OP_SLL;
+            case SUB -> OP_SUB;
+            case SLT -> OP_SLT;
+            case BEQ -> OP_BEQ;
+            case BNE -> OP_BNE;
+            case LW -> OP_LW;
+            case SW -> OP_SW;
+            case J -> OP_J;
+            case JR -> OP_JR;
+            case JAL -> OP_JAL;
+            default -> throw new IllegalArgumentException(String.format("Opcode %s cannot be decoded.", opcode));
+        };
+    }
+
+    public List<Instruction> instructions() {
+        return instructions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int[] opcodes() {
+        return opcodes;
+    }
+
+    int[] rs() {
+        return rs;
+    }
+
+    int[] rt() {
+        return rt;
+    }
+
+    int[] rd() {
+        return rd;
+    }
+
+    int[] imm() {
+        return imm;
+    }
+}
@@ -1,19 +1,41 @@
-import java.util.ArrayList;
+import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
-public class Emulator {
-    private final List<Instruction> instructions;
+public class Emulator implements InstructionStream {
     private final int[] registers = new int[32];
-    private final int[] memory = new int[8192];
+    private final PagedMemory memory = new PagedMemory();
 
     private int programCounter = 0;
     private boolean hadUncondJump;
+    private boolean lastBranchTaken;
+    private final DecodedProgram program;
+    // the decoded program's arrays, held directly so step() stays small enough to inline
+    private final int[] opcodes;
+    private final int[] rsArr;
+    private final int[] rtArr;
+    private final int[] rdArr;
+    private final int[] immArr;
+    private BlockJit jit;
 
     public Emulator(List<Instruction> instructions) {
-        this.instructions = instructions;
+        this(DecodedProgram.decode(instructions));
+    }
+
+    /**
+     * Creates an emulator with its own registers and memory that runs the given, possibly shared, program image.
+     * @param program the decoded program
+     */
+    public Emulator(DecodedProgram program) {
+        this.program = program;
+        this.opcodes = program.opcodes();
+        this.rsArr = program.rs();
+        this.rtArr = program.rt();
+        this.rdArr = program.rd();
+        this.immArr = program.imm();
     }
 
     /**
@@ -38,6 +60,13 @@ public class Emulator {
      * Retrieves all (supported) registers and displays the data stored in them.
      */
     public final void dumpRegisters() {
+        dumpRegisters(System.out);
+    }
+
+    /**
+     * Retrieves all (supported) registers and prints the data stored in them to the given stream.
+     */
+    public final void dumpRegisters(final PrintStream out) {
         final String format = "pc = %-10d\n" +
                 "$0 = %-11d$v0 = %-10d$v1 = %-10d$a0 = %-10d\n" +
                 "$a1 = %-10d$a2 = %-10d$a3 = %-10d$t0 = %-10d\n" +
@@ -47,8 +76,8 @@ public class Emulator {
                 "$s5 = %-10d$s6 = %-10d$s7 = %-10d$t8 = %-10d\n" +
                 "$t9 = %-10d$sp = %-10d$ra = %-10d\n";
 
-        System.out.println();
-        System.out.printf(
+        out.println();
+        out.printf(
                 format,
                 programCounter,
                 registers[0], registers[2], registers[3], registers[4],
@@ -59,7 +88,7 @@ public class Emulator {
                 registers[21], registers[22], registers[23], registers[24],
                 registers[25], registers[29], registers[31]
         );
-        System.out.println();
+        out.println();
     }
 
     /**
@@ -68,7 +97,7 @@ public class Emulator {
      * @return the value stored in the memory cell
      */
     public final int readMemory(final int memoryIdx) {
-        return memory[memoryIdx];
+        return memory.read(memoryIdx);
     }
 
     /**
@@ -77,7 +106,7 @@ public class Emulator {
      * @param value the value to write
      */
     public final void writeMemory(final int memoryIdx, final int value) {
-        memory[memoryIdx] = value;
+        memory.write(memoryIdx, value);
     }
 
     /**
@@ -86,11 +115,50 @@ public class Emulator {
      * @param upper the inclusive upper bound memory address
      */
     public final void dumpMemory(int lower, int upper) {
-        System.out.println();
-        for (int i = lower; i <= upper; i++) {
-            System.out.printf("[%d] = %d\n", i, memory[i]);
+        dumpMemory(System.out, lower, upper);
+    }
+
+    /**
+     * Prints the memory cells between the given lower and upper address bounds, inclusive, to the given stream.
+     */
+    public final void dumpMemory(final PrintStream out, int lower, int upper) {
+        // only the written pages in the range are copied out, by first address; every word between them is zero
+        final NavigableMap<Integer, int[]> written = new TreeMap<>();
+        memory.forEachPage((pageNumber, data, offset) -> {
+            final int first = pageNumber << PagedMemory.PAGE_BITS;
+            if (first <= upper && first + (PagedMemory.PAGE_WORDS - 1) >= lower) {
+                written.put(first, Arrays.copyOfRange(data, offset, offset + PagedMemory.PAGE_WORDS));
+            }
+        });
+
+        out.println();
+        final StringBuilder lines = new StringBuilder();
+        long next = lower;
+        for (final Map.Entry<Integer, int[]> page : written.entrySet()) {
+            final int first = page.getKey();
+            appendWords(out, lines, next, first - 1L, null, first);
+            next = Math.min(upper, first + (PagedMemory.PAGE_WORDS - 1L)) + 1;
+            appendWords(out, lines, Math.max(lower, first), next - 1, page.getValue(), first);
+        }
+        appendWords(out, lines, next, upper, null, 0);
+        out.print(lines);
+        out.println();
+    }
+
+    /**
+     * Appends a line per address in a range, flushing to the stream every page's worth of lines.
+     * @param page the words of the page holding the range, which starts at address first, or null for zeros
+     */
+    private static void appendWords(final PrintStream out, final StringBuilder lines, final long from, final long to,
+                                    final int[] page, final int first) {
+        for (long address = from; address <= to; address++) {
+            final int word = page == null ? 0 : page[(int) (address - first)];
+            lines.append('[').append(address).append("] = ").append(word).append('\n');
+            if ((address & (PagedMemory.PAGE_WORDS - 1)) == PagedMemory.PAGE_WORDS - 1) {
+                out.print(lines);
+                lines.setLength(0);
+            }
         }
-        System.out.println();
     }
 
     /**
@@ -99,105 +167,361 @@ public class Emulator {
      */
     public void reset() {
         Arrays.fill(registers, 0);
-        Arrays.fill(memory, 0);
+        memory.reset();
         programCounter = 0;
     }
 
+    /**
+     * Copies the register file, for checkpoints.
+     */
+    public int[] copyRegisters() {
+        return registers.clone();
+    }
+
+    /**
+     * Restores the registers and control state saved by a checkpoint. Memory is restored separately, page by page.
+     * @param registers the register file from {@link #copyRegisters()}
+     * @param programCounter the program counter
+     * @param hadUncondJump whether the last instruction was an unconditional jump
+     * @param lastBranchTaken whether the last instruction was a taken branch
+     */
+    public void restoreState(final int[] registers, final int programCounter, final boolean hadUncondJump,
+                             final boolean lastBranchTaken) {
+        System.arraycopy(registers, 0, this.registers, 0, this.registers.length);
+        this.programCounter = programCounter;
+        this.hadUncondJump = hadUncondJump;
+        this.lastBranchTaken = lastBranchTaken;
+    }
+
     public List<Instruction> instructions() {
-        return instructions;
+        return program.instructions();
     }
 
-    public Deque<Instruction> peekNInstructions(int offsetPC, int n) {
-        Deque<Instruction> out = new LinkedBlockingDeque<>();
+    public Instruction instructionAt(int pc) {
+        return program.instructions().get(pc);
+    }
 
-        for (int i = offsetPC; i < offsetPC + n; i++) {
-            if (i < instructions.size()) {
-                out.addFirst(instructions.get(i));
-            }
-        }
+    public int instructionCount() {
+        return program.size();
+    }
 
-        return out;
+    /**
+     * Gets the address the load or store at the program counter accesses, its base register plus its offset.
+     */
+    @Override
+    public int memoryAddress() {
+        return registers[rsArr[programCounter]] + immArr[programCounter];
     }
 
+    @Override
     public boolean hasMoreInstructions() {
-        return programCounter < instructions.size();
+        return programCounter < program.size();
     }
 
+    @Override
     public int programCounter() {
         return programCounter;
     }
 
+    @Override
     public boolean hadUncondJump() {
         return hadUncondJump;
     }
 
+    @Override
+    public boolean lastBranchTaken() {
+        return lastBranchTaken;
+    }
+
+    public PagedMemory memory() {
+        return memory;
+    }
+
+    public DecodedProgram program() {
+        return program;
+    }
+
+    /**
+     * Enables or disables tiered execution for {@link #runToCompletion()}, compiling basic blocks once they
+     * have been entered {@link BlockJit#DEFAULT_THRESHOLD} times.
+     * @param enabled whether hot blocks should be compiled
+     */
+    public void setTieredCompilation(boolean enabled) {
+        setTieredCompilation(enabled, BlockJit.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Enables or disables tiered execution for {@link #runToCompletion()}.
+     * @param enabled whether hot blocks should be compiled
+     * @param threshold how many times a block is entered before it is compiled
+     */
+    public void setTieredCompilation(boolean enabled, int threshold) {
+        jit = enabled ? new BlockJit(program, threshold) : null;
+    }
+
+    public boolean tieredCompilation() {
+        return jit != null;
+    }
+
     /**
      * Runs a single instruction pointed to by the current program counter.
      */
+    @Override
     public Instruction emulateOneInstruction() {
-        hadUncondJump = false;
+        final Instruction currentInstruction = program.instructions().get(programCounter);
+        step();
+        return currentInstruction;
+    }
 
-        final Instruction currentInstruction = instructions.get(programCounter);
-
-        if (currentInstruction instanceof RFormatInstruction inst) {
-            final int rs = readRegister(inst.rs());
-            final int rt = readRegister(inst.rt());
-
-            switch (inst.opcode()) {
-                case ADD -> writeRegister(inst.rd(), rs + rt);
-                case AND -> writeRegister(inst.rd(), rs & rt);
-                case OR -> writeRegister(inst.rd(), rs | rt);
-                case SLL -> writeRegister(inst.rd(), rt << inst.shamt());
-                case SUB -> writeRegister(inst.rd(), rs - rt);
-                case SLT -> writeRegister(inst.rd(), rs < rt ? 1 : 0);
-                case JR -> {
-                    programCounter = rs;
-                    hadUncondJump = true;
-                    return inst;
+    /**
+     * Executes the decoded instruction pointed to by the current program counter, without touching the
+     * {@link Instruction} objects.
+     */
+    public final void step() {
+        final int[] registers = this.registers;
+        final int pc = programCounter;
+
+        final int rs = rsArr[pc];
+        final int rt = rtArr[pc];
+        final int rd = rdArr[pc];
+        final int imm = immArr[pc];
+
+        int nextPc = pc + 1;
+        boolean uncondJump = false;
+        boolean branchTaken = false;
+
+        switch (opcodes[pc]) {
+            case DecodedProgram.OP_AND -> registers[rd] = registers[rs] & registers[rt];
+            case DecodedProgram.OP_OR -> registers[rd] = registers[rs] | registers[rt];
+            case DecodedProgram.OP_ADD -> registers[rd] = registers[rs] + registers[rt];
+            case DecodedProgram.OP_ADDI -> registers[rt] = registers[rs] + imm;
+            case DecodedProgram.OP_SLL -> registers[rd] = registers[rt] << imm;
+            case DecodedProgram.OP_SUB -> registers[rd] = registers[rs] - registers[rt];
+            case DecodedProgram.OP_SLT -> registers[rd] = registers[rs] < registers[rt] ? 1 : 0;
+            case DecodedProgram.OP_BEQ -> {
+                if (registers[rs] == registers[rt]) {
+                    nextPc += imm;
+                    branchTaken = true;
                 }
             }
-        } else if (currentInstruction instanceof IFormatInstruction inst) {
-            final int rs = readRegister(inst.rs());
-            final int rt = readRegister(inst.rt());
-
-            switch (inst.opcode()) {
-                case ADDI -> writeRegister(inst.rt(), rs + inst.imm());
-                case BEQ -> {
-                    inst.setBranchNotTakenPc(programCounter + 1);
-                    if (rs == rt) {
-                        programCounter += 1 + inst.imm();
-                        inst.setBranchTaken(true);
-                        return inst;
+            case DecodedProgram.OP_BNE -> {
+                if (registers[rs] != registers[rt]) {
+                    nextPc += imm;
+                    branchTaken = true;
+                }
+            }
+            case DecodedProgram.OP_LW -> registers[rt] = memory.read(registers[rs] + imm);
+            case DecodedProgram.OP_SW -> memory.write(registers[rs] + imm, registers[rt]);
+            case DecodedProgram.OP_J -> {
+                nextPc = imm;
+                uncondJump = true;
+            }
+            case DecodedProgram.OP_JR -> {
+                nextPc = registers[rs];
+                uncondJump = true;
+            }
+            case DecodedProgram.OP_JAL -> {
+                registers[31] = nextPc;
+                nextPc = imm;
+                uncondJump = true;
+            }
+        }
+
+        programCounter = nextPc;
+        hadUncondJump = uncondJump;
+        lastBranchTaken = branchTaken;
+    }
+
+    /**
+     * Runs the decoded program from the current program counter until it falls off the end. Timing is not
+     * modeled, so this is the fastest way to get the final register and memory state.
+     * @return the number of instructions executed
+     */
+    public final long runToCompletion() {
+        if (jit != null) {
+            return runTiered();
+        }
+
+        final int size = program.size();
+        final int[] opcodes = this.opcodes;
+        final int[] rsArr = this.rsArr;
+        final int[] rtArr = this.rtArr;
+        final int[] rdArr = this.rdArr;
+        final int[] immArr = this.immArr;
+        final int[] registers = this.registers;
+        final PagedMemory memory = this.memory;
+
+        int pc = programCounter;
+        long executed = 0;
+
+        while (pc < size) {
+            final int rs = rsArr[pc];
+            final int rt = rtArr[pc];
+            final int imm = immArr[pc];
+
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_AND -> registers[rdArr[pc]] = registers[rs] & registers[rt];
+                case DecodedProgram.OP_OR -> registers[rdArr[pc]] = registers[rs] | registers[rt];
+                case DecodedProgram.OP_ADD -> registers[rdArr[pc]] = registers[rs] + registers[rt];
+                case DecodedProgram.OP_ADDI -> registers[rt] = registers[rs] + imm;
+                case DecodedProgram.OP_SLL -> registers[rdArr[pc]] = registers[rt] << imm;
+                case DecodedProgram.OP_SUB -> registers[rdArr[pc]] = registers[rs] - registers[rt];
+                case DecodedProgram.OP_SLT -> registers[rdArr[pc]] = registers[rs] < registers[rt] ? 1 : 0;
+                case DecodedProgram.OP_BEQ -> {
+                    if (registers[rs] == registers[rt]) pc += imm;
+                }
+                case DecodedProgram.OP_BNE -> {
+                    if (registers[rs] != registers[rt]) pc += imm;
+                }
+                case DecodedProgram.OP_LW -> registers[rt] = memory.read(registers[rs] + imm);
+                case DecodedProgram.OP_SW -> memory.write(registers[rs] + imm, registers[rt]);
+                case DecodedProgram.OP_J -> pc = imm - 1;
+                case DecodedProgram.OP_JR -> pc = registers[rs] - 1;
+                case DecodedProgram.OP_JAL -> {
+                    registers[31] = pc + 1;
+                    pc = imm - 1;
+                }
+            }
+
+            pc++;
+            executed++;
+        }
+
+        programCounter = pc;
+        hadUncondJump = false;
+        lastBranchTaken = false;
+        return executed;
+    }
+
+    /**
+     * Runs the decoded program like {@link #runToCompletion()}, additionally counting the events the pipeline model
+     * charges cycles for. Tiered compilation is not used, since every instruction is observed.
+     * @param loadUseStalls per PC, 1 if the instruction stalls when it directly follows the instruction before it
+     * @param stopPc the run stops before the first instruction at this PC or later, so the program size runs it to
+     *               completion
+     * @param events receives the instruction, jump, taken branch and load-use stall counts, in that order, followed
+     *               by whether the final instruction was a jump or a taken branch (1 = jump, 2 = taken branch,
+     *               0 = neither) and the load-use stalls it caused
+     */
+    public final void runCountingEvents(final byte[] loadUseStalls, final int stopPc, final long[] events) {
+        final int[] opcodes = this.opcodes;
+        final int[] rsArr = this.rsArr;
+        final int[] rtArr = this.rtArr;
+        final int[] rdArr = this.rdArr;
+        final int[] immArr = this.immArr;
+        final int[] registers = this.registers;
+        final PagedMemory memory = this.memory;
+
+        int pc = programCounter;
+        long executed = 0;
+        long jumps = 0;
+        long taken = 0;
+        long stalls = 0;
+        int lastEvent = 0;
+        int lastStall = 0;
+        boolean fellThrough = true;
+
+        while (pc < stopPc) {
+            final int rs = rsArr[pc];
+            final int rt = rtArr[pc];
+            final int imm = immArr[pc];
+            // charged whether or not the instruction goes on to jump or branch, since it reads its registers first
+            final int stall = fellThrough ? loadUseStalls[pc] : 0;
+            stalls += stall;
+            lastStall = stall;
+            lastEvent = 0;
+            fellThrough = true;
+
+            switch (opcodes[pc]) {
+                case DecodedProgram.OP_AND -> registers[rdArr[pc]] = registers[rs] & registers[rt];
+                case DecodedProgram.OP_OR -> registers[rdArr[pc]] = registers[rs] | registers[rt];
+                case DecodedProgram.OP_ADD -> registers[rdArr[pc]] = registers[rs] + registers[rt];
+                case DecodedProgram.OP_ADDI -> registers[rt] = registers[rs] + imm;
+                case DecodedProgram.OP_SLL -> registers[rdArr[pc]] = registers[rt] << imm;
+                case DecodedProgram.OP_SUB -> registers[rdArr[pc]] = registers[rs] - registers[rt];
+                case DecodedProgram.OP_SLT -> registers[rdArr[pc]] = registers[rs] < registers[rt] ? 1 : 0;
+                case DecodedProgram.OP_BEQ -> {
+                    if (registers[rs] == registers[rt]) {
+                        pc += imm;
+                        fellThrough = false;
+                        taken++;
+                        lastEvent = 2;
                     }
                 }
-                case BNE -> {
-                    inst.setBranchNotTakenPc(programCounter + 1);
-                    if (rs != rt) {
-                        programCounter += 1 + inst.imm();
-                        inst.setBranchTaken(true);
-                        return inst;
+                case DecodedProgram.OP_BNE -> {
+                    if (registers[rs] != registers[rt]) {
+                        pc += imm;
+                        fellThrough = false;
+                        taken++;
+                        lastEvent = 2;
                     }
                 }
-                case LW -> writeRegister(inst.rt(), readMemory(rs + inst.imm()));
-                case SW -> writeMemory(rs + inst.imm(), rt);
-            }
-        } else if (currentInstruction instanceof JFormatInstruction inst) {
-            switch (inst.opcode()) {
-                case J -> {
-                    programCounter = inst.address();
-                    hadUncondJump = true;
-                    return inst;
+                case DecodedProgram.OP_LW -> registers[rt] = memory.read(registers[rs] + imm);
+                case DecodedProgram.OP_SW -> memory.write(registers[rs] + imm, registers[rt]);
+                case DecodedProgram.OP_J -> {
+                    pc = imm - 1;
+                    fellThrough = false;
+                    jumps++;
+                    lastEvent = 1;
+                }
+                case DecodedProgram.OP_JR -> {
+                    pc = registers[rs] - 1;
+                    fellThrough = false;
+                    jumps++;
+                    lastEvent = 1;
                 }
-                case JAL -> {
-                    writeRegister(31, programCounter + 1);
-                    programCounter = inst.address();
-                    hadUncondJump = true;
-                    return inst;
+                case DecodedProgram.OP_JAL -> {
+                    registers[31] = pc + 1;
+                    pc = imm - 1;
+                    fellThrough = false;
+                    jumps++;
+                    lastEvent = 1;
                 }
             }
+
+            pc++;
+            executed++;
         }
 
-        programCounter++;
-        return currentInstruction;
+        programCounter = pc;
+        hadUncondJump = false;
+        lastBranchTaken = false;
+
+        events[0] = executed;
+        events[1] = jumps;
+        events[2] = taken;
+        events[3] = stalls;
+        events[4] = lastEvent;
+        events[5] = lastStall;
+    }
+
+    /**
+     * Runs the program a basic block at a time. Blocks are interpreted with {@link #step()} until they are hot,
+     * after which their compiled form runs directly on the register array and memory.
+     */
+    private long runTiered() {
+        final int size = program.size();
+        final BlockJit jit = this.jit;
+        long executed = 0;
+
+        while (programCounter < size) {
+            final int pc = programCounter;
+            final int end = jit.blockEnd(pc);
+            final CompiledBlock block = jit.enter(pc);
+
+            if (block != null) {
+                programCounter = block.execute(registers, memory);
+            } else {
+                for (int i = pc; i <= end; i++) {
+                    step();
+                }
+            }
+
+            executed += end - pc + 1;
+        }
+
+        hadUncondJump = false;
+        lastBranchTaken = false;
+        return executed;
     }
 }
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ * Predicts branches with gshare: 2-bit saturating counters found by the PC xor the outcomes of the most recent
+ * branches, so a branch can be predicted differently depending on the path that led to it. A direct-mapped
+ * branch target buffer remembers the taken branches, so a branch it hits on is redirected at fetch without losing
+ * a slot. Branch targets never change here, so an entry only needs the tag of the branch it holds.
+ */
+public final class GsharePredictor implements BranchPredictor {
+    public static final int DEFAULT_HISTORY_BITS = 12;
+    public static final int DEFAULT_BTB_ENTRIES = 256;
+
+    private static final byte WEAKLY_NOT_TAKEN = 1;
+    private static final int NO_TAG = -1;
+
+    private final int historyBits;
+    private final int historyMask;
+    private final byte[] counters;
+    private int history;
+
+    private final int btbMask;
+    // the full PC of the branch each entry holds, or NO_TAG
+    private final int[] btbTags;
+
+    /**
+     * @param historyBits the number of branch outcomes remembered, which also sizes the counter table
+     * @param btbEntries the number of branch target buffer entries, a power of two
+     */
+    public GsharePredictor(final int historyBits, final int btbEntries) {
+        if (historyBits < 1 || historyBits > 24) {
+            throw new IllegalArgumentException("History must be 1 to 24 bits.");
+        }
+        if (btbEntries <= 0 || Integer.bitCount(btbEntries) != 1) {
+            throw new IllegalArgumentException("The number of branch target buffer entries must be a power of two.");
+        }
+        this.historyBits = historyBits;
+        historyMask = (1 << historyBits) - 1;
+        counters = new byte[1 << historyBits];
+        btbMask = btbEntries - 1;
+        btbTags = new int[btbEntries];
+        reset();
+    }
+
+    @Override
+    public String name() {
+        return "gshare";
+    }
+
+    @Override
+    public boolean predictTaken(final int pc, final int target) {
+        return counters[(pc ^ history) & historyMask] > WEAKLY_NOT_TAKEN;
+    }
+
+    @Override
+    public boolean knowsTarget(final int pc) {
+        return btbTags[pc & btbMask] == pc;
+    }
+
+    @Override
+    public void update(final int pc, final int target, final boolean taken) {
+        final int idx = (pc ^ history) & historyMask;
+        counters[idx] = TwoBitPredictor.train(counters[idx], taken);
+        history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+
+        if (taken) {
+            btbTags[pc & btbMask] = pc;
+        }
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(counters, WEAKLY_NOT_TAKEN);
+        history = 0;
+        Arrays.fill(btbTags, NO_TAG);
+    }
+
+    @Override
+    public BranchPredictor copy() {
+        final GsharePredictor copy = new GsharePredictor(historyBits, btbTags.length);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    @Override
+    public void copyFrom(final BranchPredictor other) {
+        final GsharePredictor source = (GsharePredictor) other;
+        System.arraycopy(source.counters, 0, counters, 0, counters.length);
+        history = source.history;
+        System.arraycopy(source.btbTags, 0, btbTags, 0, btbTags.length);
+    }
+}
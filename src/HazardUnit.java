@@ -0,0 +1,303 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects data hazards for {@link CPUSimulator} with a scoreboard of register bitmasks.
+ * <p>Every instruction's operands are sorted by the stage that needs them: execute operands in the first execute
+ * stage, branch operands in the stage the branch resolves in, and the data of a store in mem. With forwarding, a
+ * result reaches each of those stages straight from the stage that produces it, so a reader directly behind its
+ * producer stalls for {@link PipelineConfig#aluUseStalls()} or {@link PipelineConfig#loadUseStalls()}, less one for
+ * every stage later than execute it needs the value in. Without forwarding, every operand is read from the
+ * register file in id, so all operands wait alike.</p>
+ * <p>Loads that take more than one cycle also write back late, so an instruction writing the same register
+ * directly behind one stalls until its own write can no longer land first. That is the only write-after-write
+ * hazard, since everything else writes back in order.</p>
+ * <p>The scoreboard holds, per kind of operand, the registers still blocked in each of the next few cycles. It
+ * advances every time the pipeline moves on behind if/id, so checking an instruction is a single AND of longs.
+ * Kinds of operand that stall alike on the configured pipeline share their masks and kinds that never stall are
+ * left out, and two of what is left fit in a long, so only unusual pipelines need a second AND. Writes to $zero
+ * are discarded, so $zero is never blocked.</p>
+ */
+public final class HazardUnit {
+    // kinds of register use, the last being writes
+    private static final int EXECUTE = 0;
+    private static final int BRANCH = 1;
+    private static final int STORE_DATA = 2;
+    private static final int WRITE = 3;
+    private static final int KINDS = 4;
+
+    // kinds that stall alike on this pipeline are merged into one class, and kinds that never stall are dropped;
+    // two classes' register masks share a long, so only pipelines with more than two classes need the wide half
+    private final boolean wide;
+    // per PC, the registers used by class
+    private final long[] uses;
+    private final long[] usesWide;
+    private final int[] destinations;
+    // per PC, every register read or written
+    private final int[] touched;
+    // per PC, the cycles a directly following instruction can stall behind it, and per PC and each of those
+    // cycles, the registers it blocks by class
+    private final int[] spans;
+    private final long[] blocks;
+    private final long[] blocksWide;
+    private final int maxStalls;
+
+    // per cycle starting at now, the registers blocked by class
+    private final long[] scoreboard;
+    private final long[] scoreboardWide;
+    private final int ringMask;
+    private int now;
+
+    /**
+     * @param instructions the program
+     * @param config the pipeline the program runs on
+     */
+    public HazardUnit(final List<Instruction> instructions, final PipelineConfig config) {
+        final int size = instructions.size();
+        final int[] kindUses = new int[size * KINDS];
+        final int[] kindStalls = new int[size * KINDS];
+        destinations = new int[size];
+        touched = new int[size];
+
+        // how many stages after execute each kind of operand is needed in, with forwarding
+        final int[] later = new int[KINDS];
+        if (config.forwarding()) {
+            later[BRANCH] = config.branchRegister() - 2;
+            later[STORE_DATA] = Math.max(2, config.stages() - 2) - 2;
+        }
+
+        int max = 0;
+        for (int pc = 0; pc < size; pc++) {
+            final Instruction inst = instructions.get(pc);
+            recordRegisters(kindUses, pc, inst);
+            for (int kind = 0; kind < KINDS; kind++) {
+                touched[pc] |= kindUses[pc * KINDS + kind];
+            }
+            if (destinations[pc] == 0) {
+                continue;
+            }
+
+            final boolean load = inst.opcode() == Opcode.LW;
+            final int base = load ? config.loadUseStalls() : config.aluUseStalls();
+            for (int kind = 0; kind < KINDS; kind++) {
+                final int cycles = kind == WRITE ? (load ? config.loadLatency() - 1 : 0) : base - later[kind];
+                // a producer blocks nothing once it has left the pipeline, which happens before the instruction
+                // depth - 1 registers behind it is checked
+                kindStalls[pc * KINDS + kind] = Math.max(0, Math.min(cycles, config.depth() - 2));
+                max = Math.max(max, kindStalls[pc * KINDS + kind]);
+            }
+        }
+        maxStalls = max;
+
+        // assign each kind that ever stalls to the class of the first kind stalling exactly like it
+        final int[] classOf = new int[KINDS];
+        final int[] firstKind = new int[KINDS];
+        int classes = 0;
+        for (int kind = 0; kind < KINDS; kind++) {
+            classOf[kind] = -1;
+            if (!stallsEver(kindStalls, size, kind)) {
+                continue;
+            }
+            for (int c = 0; c < classes && classOf[kind] < 0; c++) {
+                if (stallsAlike(kindStalls, size, firstKind[c], kind)) {
+                    classOf[kind] = c;
+                }
+            }
+            if (classOf[kind] < 0) {
+                firstKind[classes] = kind;
+                classOf[kind] = classes++;
+            }
+        }
+        wide = classes > 2;
+
+        final long[][] classUses = {new long[size], new long[size]};
+        final long[][] classBlocks = {new long[size * maxStalls], new long[size * maxStalls]};
+        spans = new int[size];
+        for (int pc = 0; pc < size; pc++) {
+            for (int kind = 0; kind < KINDS; kind++) {
+                final int c = classOf[kind];
+                if (c < 0) {
+                    continue;
+                }
+
+                final int shift = (c & 1) * 32;
+                final int cycles = kindStalls[pc * KINDS + kind];
+                classUses[c >> 1][pc] |= (kindUses[pc * KINDS + kind] & 0xffffffffL) << shift;
+                for (int cycle = 0; cycle < cycles; cycle++) {
+                    classBlocks[c >> 1][pc * maxStalls + cycle] |= (destinations[pc] & 0xffffffffL) << shift;
+                }
+                spans[pc] = Math.max(spans[pc], cycles);
+            }
+        }
+        uses = classUses[0];
+        usesWide = classUses[1];
+        blocks = classBlocks[0];
+        blocksWide = classBlocks[1];
+
+        final int ring = Integer.highestOneBit(Math.max(1, maxStalls)) << 1;
+        scoreboard = new long[ring];
+        scoreboardWide = new long[ring];
+        ringMask = ring - 1;
+    }
+
+    /**
+     * Creates a hazard unit with an empty scoreboard of its own that shares another's tables, which never change.
+     * @param tables the hazard unit built for the program and pipeline
+     */
+    public HazardUnit(final HazardUnit tables) {
+        wide = tables.wide;
+        uses = tables.uses;
+        usesWide = tables.usesWide;
+        destinations = tables.destinations;
+        touched = tables.touched;
+        spans = tables.spans;
+        blocks = tables.blocks;
+        blocksWide = tables.blocksWide;
+        maxStalls = tables.maxStalls;
+
+        scoreboard = new long[tables.scoreboard.length];
+        scoreboardWide = new long[tables.scoreboardWide.length];
+        ringMask = tables.ringMask;
+    }
+
+    private static boolean stallsEver(final int[] kindStalls, final int size, final int kind) {
+        for (int pc = 0; pc < size; pc++) {
+            if (kindStalls[pc * KINDS + kind] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean stallsAlike(final int[] kindStalls, final int size, final int a, final int b) {
+        for (int pc = 0; pc < size; pc++) {
+            if (kindStalls[pc * KINDS + a] != kindStalls[pc * KINDS + b]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills in the registers the instruction at a PC uses and writes.
+     */
+    private void recordRegisters(final int[] uses, final int pc, final Instruction inst) {
+        final int at = pc * KINDS;
+        switch (inst.opcode()) {
+            case AND, OR, ADD, SUB, SLT -> {
+                final RFormatInstruction r = (RFormatInstruction) inst;
+                uses[at + EXECUTE] = mask(r.rs()) | mask(r.rt());
+                destinations[pc] = mask(r.rd());
+            }
+            case SLL -> {
+                final RFormatInstruction r = (RFormatInstruction) inst;
+                uses[at + EXECUTE] = mask(r.rt());
+                destinations[pc] = mask(r.rd());
+            }
+            case JR -> uses[at + EXECUTE] = mask(((RFormatInstruction) inst).rs());
+            case ADDI, LW -> {
+                final IFormatInstruction i = (IFormatInstruction) inst;
+                uses[at + EXECUTE] = mask(i.rs());
+                destinations[pc] = mask(i.rt());
+            }
+            case SW -> {
+                final IFormatInstruction i = (IFormatInstruction) inst;
+                uses[at + EXECUTE] = mask(i.rs());
+                uses[at + STORE_DATA] = mask(i.rt());
+            }
+            case BEQ, BNE -> {
+                final IFormatInstruction i = (IFormatInstruction) inst;
+                uses[at + BRANCH] = mask(i.rs()) | mask(i.rt());
+            }
+            case JAL -> destinations[pc] = mask(31);
+            case J, STALL, SQUASH -> {
+            }
+        }
+        uses[at + WRITE] = destinations[pc];
+    }
+
+    private static int mask(final int register) {
+        return (1 << register) & ~1;
+    }
+
+    /**
+     * Gets the most cycles any instruction makes a directly following instruction stall.
+     */
+    public int maxStalls() {
+        return maxStalls;
+    }
+
+    /**
+     * Gets how many cycles an instruction stalls when it directly follows another.
+     * @param producerPc the PC of the instruction ahead
+     * @param consumerPc the PC of the instruction behind it
+     */
+    public int stallsBehind(final int producerPc, final int consumerPc) {
+        int cycles = 0;
+        while (cycles < spans[producerPc]
+                && ((uses[consumerPc] & blocks[producerPc * maxStalls + cycles])
+                        | (usesWide[consumerPc] & blocksWide[producerPc * maxStalls + cycles])) != 0) {
+            cycles++;
+        }
+        return cycles;
+    }
+
+    /**
+     * Checks whether an instruction can issue in the same cycle as the one ahead of it, which it cannot if it reads
+     * or writes a register the one ahead writes.
+     */
+    public boolean independent(final int firstPc, final int secondPc) {
+        return (destinations[firstPc] & touched[secondPc]) == 0;
+    }
+
+    /**
+     * Checks whether the instruction at a PC, sitting in if/id, has to stall this cycle.
+     */
+    public boolean mustStall(final int pc) {
+        final int slot = now & ringMask;
+        if (wide && (usesWide[pc] & scoreboardWide[slot]) != 0) {
+            return true;
+        }
+        return (uses[pc] & scoreboard[slot]) != 0;
+    }
+
+    /**
+     * Moves the scoreboard on by a cycle in which whatever was in if/id moved to id/exe, or in which a stall was
+     * let in behind it.
+     * @param pc the PC of the instruction that moved out of if/id, or -1 if it stayed or was no instruction
+     */
+    public void advance(final int pc) {
+        scoreboard[now & ringMask] = 0;
+        if (wide) {
+            scoreboardWide[now & ringMask] = 0;
+        }
+        now++;
+        if (pc >= 0 && spans[pc] > 0) {
+            addProducer(pc, 1);
+        }
+    }
+
+    /**
+     * Adds an instruction already in the pipeline to the scoreboard.
+     * @param pc the instruction's PC
+     * @param distance how many pipeline registers ahead of if/id it is
+     */
+    public void addProducer(final int pc, final int distance) {
+        for (int cycle = distance - 1; cycle < spans[pc]; cycle++) {
+            final int slot = (now + cycle - distance + 1) & ringMask;
+            scoreboard[slot] |= blocks[pc * maxStalls + cycle];
+            if (wide) {
+                scoreboardWide[slot] |= blocksWide[pc * maxStalls + cycle];
+            }
+        }
+    }
+
+    /**
+     * Empties the scoreboard, as for an empty pipeline.
+     */
+    public void clear() {
+        Arrays.fill(scoreboard, 0);
+        Arrays.fill(scoreboardWide, 0);
+        now = 0;
+    }
+}
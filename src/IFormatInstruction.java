@@ -1,36 +1,27 @@
 public class IFormatInstruction extends Instruction {
-    private int rs;
-    private int rt;
-    private int imm;
+    private final int rs;
+    private final int rt;
+    private final int imm;
 
-    public IFormatInstruction(final Opcode opcode) {
+    public IFormatInstruction(final Opcode opcode, final int rs, final int rt, final int imm) {
         super(opcode);
+        this.rs = rs;
+        this.rt = rt;
+        this.imm = imm;
     }
 
     public int rs() {
         return rs;
     }
 
-    public void setRs(int rs) {
-        this.rs = rs;
-    }
-
     public int rt() {
         return rt;
     }
 
-    public void setRt(int rt) {
-        this.rt = rt;
-    }
-
     public int imm() {
         return imm;
     }
 
-    public void setImm(int imm) {
-        this.imm = imm;
-    }
-
     @Override
     public String assemble() {
         return String.format(
@@ -42,6 +33,14 @@ public class IFormatInstruction extends Instruction {
         );
     }
 
+    @Override
+    public int encode() {
+        if (imm < Short.MIN_VALUE || imm > Short.MAX_VALUE) {
+            throw new IllegalStateException(String.format("Immediate %d does not fit in 16 bits.", imm));
+        }
+        return opcode().opcodeBitPattern() << 26 | rs << 21 | rt << 16 | (imm & 0xFFFF);
+    }
+
     @Override
     public String toString() {
         return "IFormatInstruction{" +
@@ -1,7 +1,5 @@
 public abstract class Instruction {
     private final Opcode opcode;
-    private boolean branchTaken;
-    private int branchNotTakenPc;
 
     public Instruction(final Opcode opcode) {
         this.opcode = opcode;
@@ -11,21 +9,11 @@ public abstract class Instruction {
         return opcode;
     }
 
-    public boolean branchTaken() {
-        return branchTaken;
-    }
-
-    public void setBranchTaken(boolean branchTaken) {
-        this.branchTaken = branchTaken;
-    }
-
-    public int branchNotTakenPc() {
-        return branchNotTakenPc;
-    }
-
-    public void setBranchNotTakenPc(int branchNotTakenPc) {
-        this.branchNotTakenPc = branchNotTakenPc;
-    }
-
     public abstract String assemble();
+
+    /**
+     * Encodes the instruction as a 32-bit MIPS machine word.
+     * @return the encoded word
+     */
+    public abstract int encode();
 }
@@ -0,0 +1,33 @@
+/**
+ * The correct-path instructions a {@link CPUSimulator} fetches, in the order they execute. An {@link Emulator}
+ * executes them itself; a {@link ReplayEmulator} replays those another thread executed.
+ */
+public interface InstructionStream {
+    boolean hasMoreInstructions();
+
+    /**
+     * Gets the PC of the next instruction, or where the program ended once there is none.
+     */
+    int programCounter();
+
+    /**
+     * Gets the address the next instruction accesses, if it is a load or store.
+     */
+    int memoryAddress();
+
+    /**
+     * Executes the next instruction and moves on to the one after it.
+     * @return the instruction executed
+     */
+    Instruction emulateOneInstruction();
+
+    /**
+     * Gets whether the last instruction executed was an unconditional jump.
+     */
+    boolean hadUncondJump();
+
+    /**
+     * Gets whether the last instruction executed was a taken branch.
+     */
+    boolean lastBranchTaken();
+}
@@ -1,5 +1,11 @@
 public class InvalidInstructionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     public InvalidInstructionException(String message) {
         super(String.format("invalid instruction: %s", message));
     }
+
+    public InvalidInstructionException(int line, String message) {
+        super(String.format("invalid instruction on line %d: %s", line, message));
+    }
 }
@@ -1,18 +1,15 @@
 public class JFormatInstruction extends Instruction {
-    private int address;
+    private final int address;
 
-    public JFormatInstruction(final Opcode opcode) {
+    public JFormatInstruction(final Opcode opcode, final int address) {
         super(opcode);
+        this.address = address;
     }
 
     public int address() {
         return address;
     }
 
-    public void setAddress(final int address) {
-        this.address = address;
-    }
-
     @Override
     public String assemble() {
         return String.format(
@@ -22,6 +19,14 @@ public class JFormatInstruction extends Instruction {
         );
     }
 
+    @Override
+    public int encode() {
+        if (address < 0 || address >= 1 << 26) {
+            throw new IllegalStateException(String.format("Jump address %d does not fit in 26 bits.", address));
+        }
+        return opcode().opcodeBitPattern() << 26 | address;
+    }
+
     @Override
     public String toString() {
         return "JFormatInstruction{" +
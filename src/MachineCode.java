@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packed binary machine code. A .bin file is nothing but the program's 32-bit instruction words, big-endian as on
+ * MIPS, with word i at byte offset 4 * i. Encoding and decoding round-trip exactly.
+ */
+public final class MachineCode {
+    public static final ByteOrder BYTE_ORDER = ByteOrder.BIG_ENDIAN;
+
+    // opcode lookup by the 6-bit opcode field, and by the funct field for R format (opcode field 0)
+    private static final Opcode[] BY_OPCODE_BITS = new Opcode[64];
+    private static final Opcode[] BY_FUNCT_BITS = new Opcode[64];
+
+    static {
+        for (final Opcode opcode : Opcode.values()) {
+            if (opcode.instructionFormat() == InstructionFormat.R) {
+                BY_FUNCT_BITS[opcode.functBitPattern()] = opcode;
+            } else if (opcode.instructionFormat() != null) {
+                BY_OPCODE_BITS[opcode.opcodeBitPattern()] = opcode;
+            }
+        }
+    }
+
+    private MachineCode() {
+    }
+
+    /**
+     * Encodes the given instructions into a buffer of machine words.
+     * @param instructions the instructions
+     * @return a buffer positioned at 0 holding 4 bytes per instruction
+     */
+    public static ByteBuffer encode(final List<Instruction> instructions) {
+        final ByteBuffer buffer = ByteBuffer.allocate(instructions.size() * Integer.BYTES).order(BYTE_ORDER);
+        for (final Instruction instruction : instructions) {
+            buffer.putInt(instruction.encode());
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes the encoded instructions to the given file, replacing its contents.
+     * @param instructions the instructions
+     * @param path the .bin file
+     */
+    public static void write(final List<Instruction> instructions, final Path path) throws IOException {
+        final ByteBuffer buffer = encode(instructions);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a .bin file and decodes it into a program image.
+     * @param path the .bin file
+     * @return the decoded program
+     */
+    public static DecodedProgram load(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size % Integer.BYTES != 0) {
+                throw new IOException(String.format("%s is not a whole number of 32-bit words.", path));
+            }
+
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return DecodedProgram.decode(decode(mapped.order(BYTE_ORDER).asIntBuffer()));
+        }
+    }
+
+    /**
+     * Decodes every remaining word of the buffer.
+     * @param words the machine words
+     * @return the instructions
+     */
+    public static List<Instruction> decode(final IntBuffer words) {
+        final List<Instruction> instructions = new ArrayList<>(words.remaining());
+        while (words.hasRemaining()) {
+            instructions.add(decode(words.get()));
+        }
+        return instructions;
+    }
+
+    /**
+     * Decodes a single machine word.
+     * @param word the encoded instruction
+     * @return the instruction
+     */
+    public static Instruction decode(final int word) {
+        final int opcodeBits = word >>> 26;
+        final int rs = word >>> 21 & 0x1F;
+        final int rt = word >>> 16 & 0x1F;
+
+        if (opcodeBits == 0) {
+            final Opcode opcode = BY_FUNCT_BITS[word & 0x3F];
+            if (opcode == null) {
+                throw new IllegalArgumentException(String.format("Unknown funct field in word 0x%08x.", word));
+            }
+            return new RFormatInstruction(opcode, rs, rt, word >>> 11 & 0x1F, word >>> 6 & 0x1F);
+        }
+
+        final Opcode opcode = BY_OPCODE_BITS[opcodeBits];
+        if (opcode == null) {
+            throw new IllegalArgumentException(String.format("Unknown opcode field in word 0x%08x.", word));
+        }
+
+        return switch (opcode.instructionFormat()) {
+            case J -> new JFormatInstruction(opcode, word & 0x3FFFFFF);
+            // immediates are sign-extended
+            default -> new IFormatInstruction(opcode, rs, rt, (short) word);
+        };
+    }
+}
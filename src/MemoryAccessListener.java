@@ -0,0 +1,16 @@
+/**
+ * Is told about every load and store a {@link CPUSimulator} executes, just before it executes, so that something
+ * outside the core, such as the other cores of a {@link MultiCoreSimulator}, can follow its memory traffic.
+ * Wrong-path instructions never execute, so they are never reported.
+ */
+public interface MemoryAccessListener {
+    /**
+     * A load is about to read the given word.
+     */
+    void loaded(int address);
+
+    /**
+     * A store is about to write the given value to the given word.
+     */
+    void stored(int address, int value);
+}
@@ -0,0 +1,315 @@
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+
+/**
+ * Runs one program on several cores at once, each a {@link CPUSimulator} with its own registers, PC and pipeline,
+ * all sharing one data memory. Every core starts with its number in $k0 and the number of cores in $k1, so the
+ * program can split its work between them.
+ * <p>Cores are spread over host threads, which each run their cores for a quantum of cycles and then meet at a
+ * {@link Phaser}. Every core keeps its own replica of memory and logs the loads and stores it executes. Once all
+ * threads have arrived, each one applies every core's stores to its own cores' replicas, cycle by cycle and then by
+ * core number. A core sees its own stores at once and other cores' stores at the end of the quantum. With a quantum
+ * of one cycle, that makes the arbitration between cores simple:</p>
+ * <ul>
+ *     <li>a load sees every store from earlier cycles, but not another core's store in the same cycle;</li>
+ *     <li>when several cores store to one word in the same cycle, the highest-numbered core's store wins.</li>
+ * </ul>
+ * <p>A longer quantum means fewer barriers, but loads also miss other cores' stores from earlier in the quantum.
+ * Loads racing a store in the same cycle and stores lost to a higher-numbered core are counted per core. Cores only
+ * interact at the barrier and the replicas are updated in a fixed order, so results never depend on the number of
+ * threads or on how they are scheduled.</p>
+ */
+public final class MultiCoreSimulator {
+    public static final int CORE_ID_REGISTER = 26;
+    public static final int CORE_COUNT_REGISTER = 27;
+
+    private static final byte NONE = 0;
+    private static final byte LOAD = 1;
+    private static final byte STORE = 2;
+
+    private final CPUSimulator[] cores;
+    private final int threads;
+    private final int quantum;
+    // per core, the accesses of the current and the previous quantum, which are applied while the current one is
+    // written; the barrier between them keeps anyone from reading a log while its core reuses it
+    private final AccessLog[][] logs;
+    private final boolean[] finished;
+    private final long[] racingLoads;
+    private final long[] lostStores;
+    private volatile Throwable failure;
+    private long elapsedNanos;
+
+    /**
+     * @param program the program every core runs
+     * @param config the pipeline of every core
+     * @param cores the number of cores
+     * @param threads the number of host threads the cores are spread over, from 1 to the number of cores
+     * @param quantum the cycles every core runs between barriers, at least 1
+     */
+    public MultiCoreSimulator(final DecodedProgram program, final PipelineConfig config, final int cores,
+                              final int threads, final int quantum) {
+        if (cores < 1) {
+            throw new IllegalArgumentException("There must be at least 1 core.");
+        }
+        if (threads < 1 || threads > cores) {
+            throw new IllegalArgumentException(String.format("Threads must be from 1 to %d.", cores));
+        }
+        if (quantum < 1) {
+            throw new IllegalArgumentException("Quantum must be at least 1 cycle.");
+        }
+
+        this.cores = new CPUSimulator[cores];
+        this.threads = threads;
+        this.quantum = quantum;
+        logs = new AccessLog[2][cores];
+        finished = new boolean[cores];
+        racingLoads = new long[cores];
+        lostStores = new long[cores];
+        for (int core = 0; core < cores; core++) {
+            final Emulator emulator = new Emulator(program);
+            emulator.writeRegister(CORE_ID_REGISTER, core);
+            emulator.writeRegister(CORE_COUNT_REGISTER, cores);
+            // stepping back would replay a core without the stores other cores made
+            this.cores[core] = new CPUSimulator(emulator, config);
+            this.cores[core].setCheckpointInterval(0);
+            logs[0][core] = new AccessLog(quantum);
+            logs[1][core] = new AccessLog(quantum);
+        }
+    }
+
+    public int coreCount() {
+        return cores.length;
+    }
+
+    /**
+     * Gets a core, to set up its predictor or caches before running or to inspect it afterwards. Every core's
+     * memory is the same once the run is over.
+     */
+    public CPUSimulator core(final int core) {
+        return cores[core];
+    }
+
+    public long racingLoads(final int core) {
+        return racingLoads[core];
+    }
+
+    public long lostStores(final int core) {
+        return lostStores[core];
+    }
+
+    /**
+     * Gets the cycles until the last core finished.
+     */
+    public int cycles() {
+        int cycles = 0;
+        for (final CPUSimulator core : cores) {
+            cycles = Math.max(cycles, core.cycles());
+        }
+        return cycles;
+    }
+
+    public long instructionCount() {
+        long instructions = 0;
+        for (final CPUSimulator core : cores) {
+            instructions += core.instructionCount();
+        }
+        return instructions;
+    }
+
+    public void run() {
+        runToCompletion();
+
+        System.out.println();
+        System.out.println("Program complete");
+        printTimingInformation();
+        System.out.println();
+    }
+
+    /**
+     * Runs every core until the program ends on all of them, like {@link #run()}, but without printing anything.
+     * @throws IllegalStateException if a core fails, or the wait for the threads is interrupted
+     */
+    public void runToCompletion() {
+        final long start = System.nanoTime();
+        final Phaser phaser = new Phaser(threads) {
+            @Override
+            protected boolean onAdvance(final int phase, final int registeredParties) {
+                for (final boolean done : finished) {
+                    if (!done) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+
+        final Thread[] workers = new Thread[threads];
+        for (int thread = 0; thread < threads; thread++) {
+            final int first = thread;
+            workers[thread] = new Thread(() -> runCores(phaser, first), "core-" + thread);
+            workers[thread].setDaemon(true);
+            workers[thread].start();
+        }
+
+        try {
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            phaser.forceTermination();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for cores.", ex);
+        }
+        elapsedNanos += System.nanoTime() - start;
+
+        if (failure != null) {
+            throw new IllegalStateException("A core failed.", failure);
+        }
+    }
+
+    /**
+     * Runs the cores from first on, every threads-th one, quantum by quantum until every core has finished.
+     */
+    private void runCores(final Phaser phaser, final int first) {
+        try {
+            for (int buffer = 0; ; buffer ^= 1) {
+                for (int core = first; core < cores.length; core += threads) {
+                    runQuantum(core, logs[buffer][core]);
+                }
+                phaser.arriveAndAwaitAdvance();
+                if (failure != null) {
+                    return;
+                }
+
+                for (int core = first; core < cores.length; core += threads) {
+                    applyStores(core, logs[buffer]);
+                }
+                if (phaser.isTerminated()) {
+                    return;
+                }
+            }
+        } catch (RuntimeException | Error ex) {
+            if (failure == null) {
+                failure = ex;
+            }
+            phaser.forceTermination();
+        }
+    }
+
+    private void runQuantum(final int core, final AccessLog log) {
+        final CPUSimulator simulator = cores[core];
+        log.clear();
+        simulator.setMemoryAccessListener(log);
+        for (int cycle = 0; cycle < quantum && !finished[core]; cycle++) {
+            log.cycle = cycle;
+            finished[core] = !simulator.runOneCycle(false);
+        }
+    }
+
+    /**
+     * Applies every core's stores of the last quantum to a core's replica of memory, in the order of their cycles
+     * and then of the cores making them, and counts the core's accesses that raced another core's store.
+     */
+    private void applyStores(final int core, final AccessLog[] quantumLogs) {
+        final Emulator emulator = cores[core].emulator();
+        final AccessLog own = quantumLogs[core];
+        for (int cycle = 0; cycle < quantum; cycle++) {
+            for (int other = 0; other < cores.length; other++) {
+                final AccessLog log = quantumLogs[other];
+                if (log.count > 0 && log.kinds[cycle] == STORE) {
+                    emulator.writeMemory(log.addresses[cycle], log.values[cycle]);
+                }
+            }
+
+            if (own.count > 0 && own.kinds[cycle] != NONE) {
+                countRaces(core, quantumLogs, cycle);
+            }
+        }
+    }
+
+    private void countRaces(final int core, final AccessLog[] quantumLogs, final int cycle) {
+        final AccessLog own = quantumLogs[core];
+        final int address = own.addresses[cycle];
+        for (int other = 0; other < cores.length; other++) {
+            final AccessLog log = quantumLogs[other];
+            if (other == core || log.kinds[cycle] != STORE || log.addresses[cycle] != address) {
+                continue;
+            }
+
+            if (own.kinds[cycle] == LOAD) {
+                racingLoads[core]++;
+                return;
+            }
+            if (other > core) {
+                lostStores[core]++;
+                return;
+            }
+        }
+    }
+
+    public void printTimingInformation() {
+        for (int core = 0; core < cores.length; core++) {
+            System.out.printf("Core %d\n", core);
+            cores[core].printTimingInformation();
+            System.out.printf("Racing loads = %d\tLost stores = %d\n", racingLoads[core], lostStores[core]);
+        }
+
+        final int cycles = cycles();
+        final long instructions = instructionCount();
+        System.out.printf("Cores = %d\tCycles = %d\tInstructions = %d\tIPC = %.3f\n",
+                cores.length,
+                cycles,
+                instructions,
+                cycles == 0 ? 0.0 : (double) instructions / cycles
+        );
+        if (elapsedNanos > 0) {
+            System.out.printf("Threads = %d\tQuantum = %d\tCycles/sec = %.0f\n",
+                    threads, quantum, cycles / (elapsedNanos / 1e9));
+        }
+    }
+
+    /**
+     * The loads and stores one core executed during one quantum, by cycle within the quantum. A core accesses
+     * memory at most once per cycle, since at most one of two instructions issued together may.
+     */
+    private static final class AccessLog implements MemoryAccessListener {
+        private final byte[] kinds;
+        private final int[] addresses;
+        private final int[] values;
+        private int cycle;
+        private int count;
+
+        AccessLog(final int quantum) {
+            kinds = new byte[quantum];
+            addresses = new int[quantum];
+            values = new int[quantum];
+        }
+
+        @Override
+        public void loaded(final int address) {
+            record(LOAD, address, 0);
+        }
+
+        @Override
+        public void stored(final int address, final int value) {
+            record(STORE, address, value);
+        }
+
+        private void record(final byte kind, final int address, final int value) {
+            if (kinds[cycle] != NONE) {
+                throw new IllegalStateException("A core accessed memory twice in one cycle.");
+            }
+            kinds[cycle] = kind;
+            addresses[cycle] = address;
+            values[cycle] = value;
+            count++;
+        }
+
+        void clear() {
+            if (count > 0) {
+                Arrays.fill(kinds, NONE);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Predicts every branch not taken, which is what the lab's pipeline does without a predictor.
+ */
+public final class NotTakenPredictor implements BranchPredictor {
+    @Override
+    public String name() {
+        return "not-taken";
+    }
+
+    @Override
+    public boolean predictTaken(final int pc, final int target) {
+        return false;
+    }
+
+    @Override
+    public void update(final int pc, final int target, final boolean taken) {
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public BranchPredictor copy() {
+        return new NotTakenPredictor();
+    }
+
+    @Override
+    public void copyFrom(final BranchPredictor other) {
+    }
+}
@@ -1,9 +1,8 @@
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public enum Opcode {
@@ -24,6 +23,14 @@ public enum Opcode {
     STALL(null, null, null),
     SQUASH(null, null, null);
 
+    private static final Map<String, Opcode> BY_NAME = new HashMap<>();
+
+    static {
+        for (final Opcode opcode : values()) {
+            BY_NAME.put(opcode.name().toLowerCase(Locale.ROOT), opcode);
+        }
+    }
+
     private final InstructionFormat instructionFormat;
     private final Integer opcodeBitPattern;
     private final Integer functBitPattern;
@@ -53,27 +60,14 @@ public enum Opcode {
      * @return the opcode
      */
     public static Opcode getByString(String opcodeName) {
-        return Arrays.stream(values())
-                .filter(opcode -> opcode.name().equalsIgnoreCase(opcodeName))
-                .findFirst()
-                .orElseThrow();
-    }
-
-    public static Pattern opcodePattern() {
-        final StringBuilder builder = new StringBuilder();
-
-        final List<String> names = Arrays.stream(values())
-                .map(Opcode::name)
-                .sorted(Comparator.comparingInt(String::length))
-                .collect(Collectors.toList());
-
-        Collections.reverse(names);
-
-        for (final String name : names) {
-            builder.append("^").append(name).append("|").append("^").append(name.toLowerCase(Locale.ROOT)).append("|");
+        Opcode opcode = BY_NAME.get(opcodeName);
+        if (opcode == null) {
+            opcode = BY_NAME.get(opcodeName.toLowerCase(Locale.ROOT));
         }
-
-        return Pattern.compile("(" + builder.substring(0, builder.length() - 1) + ")");
+        if (opcode == null) {
+            throw new IllegalArgumentException(String.format("Invalid opcode \"%s\" encountered.", opcodeName));
+        }
+        return opcode;
     }
 
     public static List<Opcode> getAllByInstructionFormat(InstructionFormat format) {
@@ -0,0 +1,298 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Word-addressed data memory covering the full 32-bit address space. Addresses are treated as unsigned, and
+ * memory is split into pages of {@link #PAGE_WORDS} words that are only allocated on first write; reads of
+ * untouched memory return 0 without allocating anything.
+ * <p>The first {@link #WINDOW_WORDS} words, where the lab programs keep their data and stack, live in one flat
+ * array so the common case costs the same single bounds check as a plain array. Pages above the window are found
+ * through a two-level table, with the most recently used one cached in front of it. Written pages are tracked,
+ * so {@link #reset()} scales with the pages a program touched rather than the address space.</p>
+ * <p>Pages written since the last {@link #markClean()} are also tracked, which is what checkpoints copy. For the
+ * window this reuses the flag the fast path sets anyway, so tracking adds nothing to the common case.</p>
+ */
+public final class PagedMemory {
+    public static final int PAGE_BITS = 10;
+    public static final int PAGE_WORDS = 1 << PAGE_BITS;
+    public static final int WINDOW_PAGES = 8;
+    public static final int WINDOW_WORDS = WINDOW_PAGES * PAGE_WORDS;
+
+    private static final int PAGE_MASK = PAGE_WORDS - 1;
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+    private static final int DIRECTORY_SHIFT = TABLE_BITS + PAGE_BITS;
+    // never equal to a page number, which has at most 32 - PAGE_BITS bits
+    private static final int NO_PAGE = -1;
+
+    // empty until the first write below WINDOW_WORDS, so the fast-path bounds check simply fails until then
+    private int[] window = new int[0];
+    // window pages written since the last markClean, and before it
+    private final boolean[] windowDirty = new boolean[WINDOW_PAGES];
+    private final boolean[] windowTouched = new boolean[WINDOW_PAGES];
+
+    // directory[address >>> DIRECTORY_SHIFT][(address >>> PAGE_BITS) & TABLE_MASK] is the page holding address
+    private final int[][][] directory = new int[1 << (32 - DIRECTORY_SHIFT)][][];
+
+    // the allocated pages above the window and their page numbers, in allocation order
+    private int[][] pages = new int[8][];
+    private int[] pageNumbers = new int[8];
+    private int pageCount;
+
+    // zeroed pages released by reset, reused before allocating new ones
+    private final ArrayDeque<int[]> freePages = new ArrayDeque<>();
+
+    // pages above the window written since the last markClean
+    private final Set<Integer> dirtyPages = new HashSet<>();
+
+    private int cachedPageNumber = NO_PAGE;
+    private int[] cachedPage;
+    private boolean cachedPageDirty;
+
+    /**
+     * Reads the word at the given address.
+     * @param address the word address, as an unsigned int
+     * @return the stored word, or 0 if it was never written
+     */
+    public int read(final int address) {
+        final int[] window = this.window;
+        if (address >= 0 && address < window.length) {
+            return window[address];
+        }
+        return readPaged(address);
+    }
+
+    /**
+     * Writes the word at the given address, allocating its page if needed.
+     * @param address the word address, as an unsigned int
+     * @param value the word to store
+     */
+    public void write(final int address, final int value) {
+        final int[] window = this.window;
+        if (address >= 0 && address < window.length) {
+            window[address] = value;
+            windowDirty[address >>> PAGE_BITS] = true;
+        } else {
+            writePaged(address, value);
+        }
+    }
+
+    /**
+     * Zeroes all of memory. Only written pages are cleared, and pages above the window are released for reuse.
+     */
+    public void reset() {
+        for (int i = 0; i < WINDOW_PAGES; i++) {
+            if (windowDirty[i] || windowTouched[i]) {
+                Arrays.fill(window, i * PAGE_WORDS, (i + 1) * PAGE_WORDS, 0);
+                windowDirty[i] = false;
+                windowTouched[i] = false;
+            }
+        }
+
+        for (int i = 0; i < pageCount; i++) {
+            final int pageNumber = pageNumbers[i];
+            directory[pageNumber >>> TABLE_BITS][pageNumber & TABLE_MASK] = null;
+            Arrays.fill(pages[i], 0);
+            freePages.push(pages[i]);
+            pages[i] = null;
+        }
+
+        pageCount = 0;
+        dirtyPages.clear();
+        cachedPageNumber = NO_PAGE;
+        cachedPage = null;
+        cachedPageDirty = false;
+    }
+
+    /**
+     * Visits every page written since the last {@link #markClean()} or {@link #reset()}.
+     * @param visitor receives each page, which it must not write to
+     */
+    public void forEachDirtyPage(final PageVisitor visitor) {
+        for (int i = 0; i < WINDOW_PAGES; i++) {
+            if (windowDirty[i]) {
+                visitor.visit(i, window, i * PAGE_WORDS);
+            }
+        }
+
+        for (final int pageNumber : dirtyPages) {
+            visitor.visit(pageNumber, lookup(pageNumber), 0);
+        }
+    }
+
+    /**
+     * Visits every page written since the last {@link #reset()}, in no particular order. All other pages hold zeros.
+     * @param visitor receives each page, which it must not write to
+     */
+    public void forEachPage(final PageVisitor visitor) {
+        for (int i = 0; i < WINDOW_PAGES; i++) {
+            if (windowDirty[i] || windowTouched[i]) {
+                visitor.visit(i, window, i * PAGE_WORDS);
+            }
+        }
+
+        for (int i = 0; i < pageCount; i++) {
+            visitor.visit(pageNumbers[i], pages[i], 0);
+        }
+    }
+
+    /**
+     * Forgets which pages have been written, so {@link #forEachDirtyPage} only reports later writes.
+     */
+    public void markClean() {
+        for (int i = 0; i < WINDOW_PAGES; i++) {
+            windowTouched[i] |= windowDirty[i];
+            windowDirty[i] = false;
+        }
+
+        dirtyPages.clear();
+        cachedPageDirty = false;
+    }
+
+    /**
+     * Overwrites a whole page.
+     * @param pageNumber the page to overwrite
+     * @param contents {@link #PAGE_WORDS} words to copy in, or null to zero the page
+     */
+    public void restorePage(final int pageNumber, final int[] contents) {
+        if (pageNumber < WINDOW_PAGES) {
+            if (window.length == 0) {
+                if (contents == null) {
+                    return;
+                }
+                window = new int[WINDOW_WORDS];
+            }
+
+            copyInto(window, pageNumber * PAGE_WORDS, contents);
+            windowDirty[pageNumber] = true;
+            return;
+        }
+
+        int[] page = lookup(pageNumber);
+        if (page == null) {
+            if (contents == null) {
+                return;
+            }
+            page = allocate(pageNumber);
+        }
+
+        copyInto(page, 0, contents);
+        markDirty(pageNumber);
+    }
+
+    /**
+     * Gets the number of pages written since the last reset.
+     */
+    public int touchedPages() {
+        int touched = pageCount;
+        for (int i = 0; i < WINDOW_PAGES; i++) {
+            touched += windowDirty[i] || windowTouched[i] ? 1 : 0;
+        }
+        return touched;
+    }
+
+    private int readPaged(final int address) {
+        final int pageNumber = address >>> PAGE_BITS;
+        if (pageNumber == cachedPageNumber) {
+            return cachedPage[address & PAGE_MASK];
+        }
+
+        // only reachable for the window while it is still unallocated
+        if (pageNumber < WINDOW_PAGES) {
+            return 0;
+        }
+
+        final int[] page = lookup(pageNumber);
+        if (page == null) {
+            return 0;
+        }
+
+        cachedPageNumber = pageNumber;
+        cachedPage = page;
+        cachedPageDirty = dirtyPages.contains(pageNumber);
+        return page[address & PAGE_MASK];
+    }
+
+    private void writePaged(final int address, final int value) {
+        final int pageNumber = address >>> PAGE_BITS;
+        if (pageNumber == cachedPageNumber) {
+            if (!cachedPageDirty) {
+                markDirty(pageNumber);
+            }
+            cachedPage[address & PAGE_MASK] = value;
+            return;
+        }
+
+        if (pageNumber < WINDOW_PAGES) {
+            window = new int[WINDOW_WORDS];
+            write(address, value);
+            return;
+        }
+
+        int[] page = lookup(pageNumber);
+        if (page == null) {
+            page = allocate(pageNumber);
+        }
+
+        markDirty(pageNumber);
+        cachedPageNumber = pageNumber;
+        cachedPage = page;
+        cachedPageDirty = true;
+        page[address & PAGE_MASK] = value;
+    }
+
+    private void markDirty(final int pageNumber) {
+        dirtyPages.add(pageNumber);
+        if (pageNumber == cachedPageNumber) {
+            cachedPageDirty = true;
+        }
+    }
+
+    private static void copyInto(final int[] target, final int offset, final int[] contents) {
+        if (contents == null) {
+            Arrays.fill(target, offset, offset + PAGE_WORDS, 0);
+        } else {
+            System.arraycopy(contents, 0, target, offset, PAGE_WORDS);
+        }
+    }
+
+    private int[] lookup(final int pageNumber) {
+        final int[][] table = directory[pageNumber >>> TABLE_BITS];
+        return table == null ? null : table[pageNumber & TABLE_MASK];
+    }
+
+    private int[] allocate(final int pageNumber) {
+        int[][] table = directory[pageNumber >>> TABLE_BITS];
+        if (table == null) {
+            table = new int[1 << TABLE_BITS][];
+            directory[pageNumber >>> TABLE_BITS] = table;
+        }
+
+        final int[] page = freePages.isEmpty() ? new int[PAGE_WORDS] : freePages.pop();
+        table[pageNumber & TABLE_MASK] = page;
+
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pageCount * 2);
+            pageNumbers = Arrays.copyOf(pageNumbers, pageCount * 2);
+        }
+        pages[pageCount] = page;
+        pageNumbers[pageCount] = pageNumber;
+        pageCount++;
+        return page;
+    }
+
+    /**
+     * Receives the pages of a {@link PagedMemory}.
+     */
+    @FunctionalInterface
+    public interface PageVisitor {
+        /**
+         * @param pageNumber the page number, which is the page's first address divided by {@link #PAGE_WORDS}
+         * @param data the array holding the page
+         * @param offset the index in data of the page's first word
+         */
+        void visit(int pageNumber, int[] data, int offset);
+    }
+}
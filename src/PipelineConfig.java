@@ -0,0 +1,213 @@
+/**
+ * Describes the pipeline modeled by {@link CPUSimulator}: how many stages it has, in which pipeline register taken
+ * branches resolve, whether results are forwarded and how long loads take. {@link #DEFAULT} is the classic
+ * five-stage pipeline the lab specifies.
+ * <p>Stages are named if, id, one or more execute stages, mem and wb; a four-stage pipeline has no mem stage. The
+ * pipeline registers between them are numbered from 0 for if/id.</p>
+ * <p>Jumps always resolve in id and cost one squash. A taken branch resolves when it reaches pipeline register
+ * {@link #branchRegister()}: everything fetched behind it is squashed, which with the squash inserted that cycle
+ * costs {@link #branchSquashes()} cycles. A reader directly behind an instruction that writes one of its registers
+ * stalls for {@link #loadUseStalls()} or {@link #aluUseStalls()} cycles, less one for every instruction between
+ * them. With forwarding, ALU results are never waited for and loads cost their latency. Without it, readers wait
+ * in id until the producer writes back in wb, plus the rest of the latency for loads.</p>
+ * <p>A pipeline {@link #issueWidth()} two wide fetches and issues a pair of instructions per cycle when they allow
+ * it: one memory access per pair, no instruction depending on the other, and branches and jumps only in the first
+ * slot, where they end the pair. A pair stalls as a whole.</p>
+ */
+public final class PipelineConfig {
+    public static final PipelineConfig DEFAULT = new PipelineConfig(5, 2, true, 1);
+    public static final int MAX_ISSUE_WIDTH = 2;
+
+    private final int stages;
+    private final int branchRegister;
+    private final boolean forwarding;
+    private final int loadLatency;
+    private final int issueWidth;
+    private final String[] registerNames;
+
+    /**
+     * @param stages the number of pipeline stages, at least 4
+     * @param branchRegister the pipeline register where taken branches resolve, from 1 to stages - 3
+     * @param forwarding whether results are forwarded to the instructions that read them
+     * @param loadLatency the cycles a loaded value takes to become available to a directly following reader
+     *                    with forwarding, at least 1
+     */
+    public PipelineConfig(final int stages, final int branchRegister, final boolean forwarding, final int loadLatency) {
+        this(stages, branchRegister, forwarding, loadLatency, 1);
+    }
+
+    /**
+     * @param stages the number of pipeline stages, at least 4
+     * @param branchRegister the pipeline register where taken branches resolve, from 1 to stages - 3
+     * @param forwarding whether results are forwarded to the instructions that read them
+     * @param loadLatency the cycles a loaded value takes to become available to a directly following reader
+     *                    with forwarding, at least 1
+     * @param issueWidth the instructions fetched and issued per cycle, 1 or 2
+     */
+    public PipelineConfig(final int stages, final int branchRegister, final boolean forwarding, final int loadLatency,
+                          final int issueWidth) {
+        if (stages < 4) {
+            throw new IllegalArgumentException("A pipeline needs at least 4 stages.");
+        }
+        if (branchRegister < 1 || branchRegister > stages - 3) {
+            throw new IllegalArgumentException(String.format(
+                    "Branches must resolve in pipeline register 1 to %d of a %d-stage pipeline.", stages - 3, stages));
+        }
+        if (loadLatency < 1) {
+            throw new IllegalArgumentException("Load latency must be at least 1 cycle.");
+        }
+        if (issueWidth < 1 || issueWidth > MAX_ISSUE_WIDTH) {
+            throw new IllegalArgumentException(String.format("Issue width must be 1 to %d.", MAX_ISSUE_WIDTH));
+        }
+
+        this.stages = stages;
+        this.branchRegister = branchRegister;
+        this.forwarding = forwarding;
+        this.loadLatency = loadLatency;
+        this.issueWidth = issueWidth;
+        this.registerNames = registerNames(stages);
+    }
+
+    /**
+     * Parses a comma-separated list of settings, such as "stages=7,branch=3,forwarding=off,load-latency=2,width=2".
+     * Settings left out keep their default, except that branches default to resolving in the register in front
+     * of mem.
+     * @param spec the settings
+     * @return the configuration
+     */
+    public static PipelineConfig parse(final String spec) {
+        int stages = DEFAULT.stages;
+        Integer branchRegister = null;
+        boolean forwarding = DEFAULT.forwarding;
+        int loadLatency = DEFAULT.loadLatency;
+        int issueWidth = DEFAULT.issueWidth;
+
+        for (final String setting : spec.split(",")) {
+            final int equals = setting.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException(String.format("Pipeline setting \"%s\" has no value.", setting));
+            }
+
+            final String name = setting.substring(0, equals).trim();
+            final String value = setting.substring(equals + 1).trim();
+            switch (name) {
+                case "stages" -> stages = parseInt(name, value);
+                case "branch" -> branchRegister = parseInt(name, value);
+                case "forwarding" -> forwarding = switch (value) {
+                    case "on" -> true;
+                    case "off" -> false;
+                    default -> throw new IllegalArgumentException("Forwarding must be on or off.");
+                };
+                case "load-latency" -> loadLatency = parseInt(name, value);
+                case "width" -> issueWidth = parseInt(name, value);
+                default -> throw new IllegalArgumentException(String.format("Unknown pipeline setting \"%s\".", name));
+            }
+        }
+
+        return new PipelineConfig(stages, branchRegister != null ? branchRegister : stages - 3, forwarding, loadLatency,
+                issueWidth);
+    }
+
+    private static int parseInt(final String name, final String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Pipeline setting \"%s\" must be an integer.", name));
+        }
+    }
+
+    /**
+     * Names the pipeline registers of a pipeline with the given number of stages, as in {@link #registerNames()}.
+     */
+    public static String[] registerNames(final int stages) {
+        final String[] stageNames = new String[stages];
+        stageNames[0] = "if";
+        stageNames[1] = "id";
+        final int executeStages = stages - (stages == 4 ? 3 : 4);
+        for (int i = 0; i < executeStages; i++) {
+            stageNames[2 + i] = executeStages == 1 ? "exe" : "exe" + (i + 1);
+        }
+        if (stages > 4) {
+            stageNames[stages - 2] = "mem";
+        }
+        stageNames[stages - 1] = "wb";
+
+        final String[] names = new String[stages - 1];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = stageNames[i] + "/" + stageNames[i + 1];
+        }
+        return names;
+    }
+
+    public int stages() {
+        return stages;
+    }
+
+    /**
+     * Gets the number of pipeline registers, one less than the number of stages.
+     */
+    public int depth() {
+        return stages - 1;
+    }
+
+    public int branchRegister() {
+        return branchRegister;
+    }
+
+    public boolean forwarding() {
+        return forwarding;
+    }
+
+    public int loadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * Gets the most instructions fetched and issued per cycle, 1 for the lab's scalar pipeline.
+     */
+    public int issueWidth() {
+        return issueWidth;
+    }
+
+    /**
+     * Gets the names of the pipeline registers, from if/id to mem/wb.
+     */
+    public String[] registerNames() {
+        return registerNames.clone();
+    }
+
+    /**
+     * Gets the number of wrong-path instructions fetched behind a taken branch before it resolves.
+     */
+    public int wrongPathFetches() {
+        return branchRegister;
+    }
+
+    /**
+     * Gets the number of squashes a taken branch causes.
+     */
+    public int branchSquashes() {
+        return branchRegister + 1;
+    }
+
+    /**
+     * Gets the cycles a reader directly behind a load of one of its registers stalls.
+     */
+    public int loadUseStalls() {
+        return forwarding ? loadLatency : aluUseStalls() + loadLatency - 1;
+    }
+
+    /**
+     * Gets the cycles a reader directly behind an ALU instruction writing one of its registers stalls.
+     */
+    public int aluUseStalls() {
+        // without forwarding, id reads the value in the cycle the producer writes it back
+        return forwarding ? 0 : stages - 3;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("stages=%d,branch=%d,forwarding=%s,load-latency=%d,width=%d", stages, branchRegister,
+                forwarding ? "on" : "off", loadLatency, issueWidth);
+    }
+}
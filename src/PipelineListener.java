@@ -0,0 +1,66 @@
+/**
+ * Is told about what a {@link CPUSimulator} does with every cycle it models, so that observers such as the event
+ * counters, the cycle profiler and the trace writer follow the pipeline from outside the model, and breakpoints can
+ * stop a run. The simulator holds a single listener, so a run without observers pays one null check per event;
+ * {@link PipelineListeners} passes events on to several. Every event does nothing by default.
+ */
+public interface PipelineListener {
+    /**
+     * The instruction at a PC was fetched on the correct path and is about to execute. The emulator still holds the
+     * registers from before it, except in a decoupled run, where it runs ahead on a thread of its own.
+     * @return why the run should stop at the end of the cycle, or null to go on
+     */
+    default String executing(int pc, Emulator emulator) {
+        return null;
+    }
+
+    /**
+     * The instruction at a PC was fetched on the correct path and executed.
+     * @param taken whether it is a branch that was taken
+     * @param mispredicted whether it is a branch that was mispredicted
+     * @param paired whether it issued in the second slot, sharing the cycle of the instruction before it
+     */
+    default void executed(int pc, Opcode opcode, boolean taken, boolean mispredicted, boolean paired) {}
+
+    /**
+     * A cycle fetched on the wrong path of the mispredicted branch at a PC.
+     */
+    default void wrongPath(int branchPc) {}
+
+    /**
+     * A cycle inserted squashes behind the taken branch or jump at a PC.
+     * @param branch whether the PC holds a branch rather than a jump
+     * @param squashes the squash slots inserted, counting the wrong-path instructions a mispredict squashed
+     */
+    default void squashed(int pc, boolean branch, int squashes) {}
+
+    /**
+     * A cycle stalled the instruction at a PC until the result of a load was available.
+     */
+    default void loadUseStalled(int pc) {}
+
+    /**
+     * A cycle waited for the instruction cache to fetch the instruction at a PC.
+     */
+    default void fetchStalled(int pc) {}
+
+    /**
+     * A cycle held up the whole pipeline while the load or store at a PC waited for the data cache.
+     */
+    default void memoryStalled(int pc) {}
+
+    /**
+     * A cycle drained the pipeline after the last fetch.
+     */
+    default void drained() {}
+
+    /**
+     * A cycle ended, leaving the pipeline registers as given.
+     * @param cycle the cycles run so far
+     * @param pc the program counter
+     * @param opcodes the opcode ordinal in each pipeline register, if/id first, or {@link TraceWriter#EMPTY},
+     *                followed by those of the second slots if the pipeline has them
+     * @param pcs the PC each pipeline register's instruction was fetched from, or -1, in the same order
+     */
+    default void cycleEnded(int cycle, int pc, byte[] opcodes, int[] pcs) {}
+}
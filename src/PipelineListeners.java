@@ -0,0 +1,99 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Passes the events of a {@link CPUSimulator} on to several listeners, in the order they were given.
+ */
+public final class PipelineListeners implements PipelineListener {
+    private final PipelineListener[] listeners;
+
+    private PipelineListeners(final PipelineListener[] listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Combines the given listeners, skipping nulls.
+     * @return the combined listener, the only one given, or null if there is none
+     */
+    public static PipelineListener of(final PipelineListener... listeners) {
+        final PipelineListener[] present = Arrays.stream(listeners).filter(Objects::nonNull)
+                .toArray(PipelineListener[]::new);
+        return switch (present.length) {
+            case 0 -> null;
+            case 1 -> present[0];
+            default -> new PipelineListeners(present);
+        };
+    }
+
+    /**
+     * Tells every listener, and passes on the first reason to stop.
+     */
+    @Override
+    public String executing(final int pc, final Emulator emulator) {
+        String stopReason = null;
+        for (final PipelineListener listener : listeners) {
+            final String reason = listener.executing(pc, emulator);
+            if (stopReason == null) {
+                stopReason = reason;
+            }
+        }
+        return stopReason;
+    }
+
+    @Override
+    public void executed(final int pc, final Opcode opcode, final boolean taken, final boolean mispredicted,
+                         final boolean paired) {
+        for (final PipelineListener listener : listeners) {
+            listener.executed(pc, opcode, taken, mispredicted, paired);
+        }
+    }
+
+    @Override
+    public void wrongPath(final int branchPc) {
+        for (final PipelineListener listener : listeners) {
+            listener.wrongPath(branchPc);
+        }
+    }
+
+    @Override
+    public void squashed(final int pc, final boolean branch, final int squashes) {
+        for (final PipelineListener listener : listeners) {
+            listener.squashed(pc, branch, squashes);
+        }
+    }
+
+    @Override
+    public void loadUseStalled(final int pc) {
+        for (final PipelineListener listener : listeners) {
+            listener.loadUseStalled(pc);
+        }
+    }
+
+    @Override
+    public void fetchStalled(final int pc) {
+        for (final PipelineListener listener : listeners) {
+            listener.fetchStalled(pc);
+        }
+    }
+
+    @Override
+    public void memoryStalled(final int pc) {
+        for (final PipelineListener listener : listeners) {
+            listener.memoryStalled(pc);
+        }
+    }
+
+    @Override
+    public void drained() {
+        for (final PipelineListener listener : listeners) {
+            listener.drained();
+        }
+    }
+
+    @Override
+    public void cycleEnded(final int cycle, final int pc, final byte[] opcodes, final int[] pcs) {
+        for (final PipelineListener listener : listeners) {
+            listener.cycleEnded(cycle, pc, opcodes, pcs);
+        }
+    }
+}
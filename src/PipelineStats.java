@@ -0,0 +1,244 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Event counters for {@link CPUSimulator}. All counters are 64-bit and live in primitive arrays, and the simulator
+ * only touches them when statistics are enabled, so a disabled instance costs a null check per cycle.
+ * <p>Instructions are counted as retired when the emulator executes them on the correct path, which in this model
+ * guarantees they will leave the last pipeline register. Squashes are counted per squash slot inserted, so a
+ * mispredicted branch accounts for {@link PipelineConfig#branchSquashes()}, and a jump or a branch predicted taken
+ * without a known target for one. A bubble is a pipeline register holding nothing, a squash or a stall at the end
+ * of a cycle. Cache stalls are cycles fetch waited for the instruction cache, or the whole pipeline for the data
+ * cache.</p>
+ */
+public final class PipelineStats implements PipelineListener {
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final byte STALL = (byte) Opcode.STALL.ordinal();
+    private static final byte SQUASH = (byte) Opcode.SQUASH.ordinal();
+    private static final int LOAD_USE_STALLS = 0;
+    private static final int JUMP_SQUASHES = 1;
+    private static final int BRANCH_SQUASHES = 2;
+    private static final int BRANCHES_TAKEN = 3;
+    private static final int BRANCHES_NOT_TAKEN = 4;
+    private static final int BRANCHES_MISPREDICTED = 5;
+    private static final int INSTRUCTION_CACHE_STALLS = 6;
+    private static final int DATA_CACHE_STALLS = 7;
+    private static final int EVENT_COUNT = 8;
+
+    private final String[] registerNames;
+    private final long[] retired = new long[OPCODES.length];
+    private final long[] bubbles;
+    private final long[] events = new long[EVENT_COUNT];
+
+    /**
+     * @param registerNames the names of the pipeline's registers, as in {@link PipelineConfig#registerNames()}
+     */
+    public PipelineStats(final String[] registerNames) {
+        this.registerNames = registerNames;
+        bubbles = new long[registerNames.length];
+    }
+
+    public void recordRetired(final Opcode opcode) {
+        retired[opcode.ordinal()]++;
+    }
+
+    public void recordBranch(final boolean taken, final boolean mispredicted) {
+        events[taken ? BRANCHES_TAKEN : BRANCHES_NOT_TAKEN]++;
+        if (mispredicted) {
+            events[BRANCHES_MISPREDICTED]++;
+        }
+    }
+
+    public void recordLoadUseStall() {
+        events[LOAD_USE_STALLS]++;
+    }
+
+    public void recordJumpSquash() {
+        events[JUMP_SQUASHES]++;
+    }
+
+    public void recordBranchSquashes(final int count) {
+        events[BRANCH_SQUASHES] += count;
+    }
+
+    public void recordCacheStall(final boolean data) {
+        events[data ? DATA_CACHE_STALLS : INSTRUCTION_CACHE_STALLS]++;
+    }
+
+    public void recordBubble(final int stage) {
+        bubbles[stage]++;
+    }
+
+    @Override
+    public void executed(final int pc, final Opcode opcode, final boolean taken, final boolean mispredicted,
+                         final boolean paired) {
+        recordRetired(opcode);
+        if (opcode == Opcode.BEQ || opcode == Opcode.BNE) {
+            recordBranch(taken, mispredicted);
+        }
+    }
+
+    @Override
+    public void squashed(final int pc, final boolean branch, final int squashes) {
+        if (branch) {
+            recordBranchSquashes(squashes);
+        } else {
+            recordJumpSquash();
+        }
+    }
+
+    @Override
+    public void loadUseStalled(final int pc) {
+        recordLoadUseStall();
+    }
+
+    @Override
+    public void fetchStalled(final int pc) {
+        recordCacheStall(false);
+    }
+
+    @Override
+    public void memoryStalled(final int pc) {
+        recordCacheStall(true);
+    }
+
+    @Override
+    public void cycleEnded(final int cycle, final int pc, final byte[] opcodes, final int[] pcs) {
+        for (int i = 0; i < bubbles.length; i++) {
+            if (opcodes[i] == TraceWriter.EMPTY || opcodes[i] == STALL || opcodes[i] == SQUASH) {
+                bubbles[i]++;
+            }
+        }
+    }
+
+    public long retired(final Opcode opcode) {
+        return retired[opcode.ordinal()];
+    }
+
+    public long bubbles(final int stage) {
+        return bubbles[stage];
+    }
+
+    public long loadUseStalls() {
+        return events[LOAD_USE_STALLS];
+    }
+
+    public long jumpSquashes() {
+        return events[JUMP_SQUASHES];
+    }
+
+    public long branchSquashes() {
+        return events[BRANCH_SQUASHES];
+    }
+
+    public long branchesTaken() {
+        return events[BRANCHES_TAKEN];
+    }
+
+    public long branchesNotTaken() {
+        return events[BRANCHES_NOT_TAKEN];
+    }
+
+    public long branchesMispredicted() {
+        return events[BRANCHES_MISPREDICTED];
+    }
+
+    public long instructionCacheStalls() {
+        return events[INSTRUCTION_CACHE_STALLS];
+    }
+
+    public long dataCacheStalls() {
+        return events[DATA_CACHE_STALLS];
+    }
+
+    public void reset() {
+        Arrays.fill(retired, 0);
+        Arrays.fill(bubbles, 0);
+        Arrays.fill(events, 0);
+    }
+
+    public PipelineStats copy() {
+        final PipelineStats copy = new PipelineStats(registerNames);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public void copyFrom(final PipelineStats other) {
+        System.arraycopy(other.retired, 0, retired, 0, retired.length);
+        System.arraycopy(other.bubbles, 0, bubbles, 0, bubbles.length);
+        System.arraycopy(other.events, 0, events, 0, events.length);
+    }
+
+    /**
+     * Prints the counters in the style of the REPL's other dumps.
+     */
+    public void print(final PrintStream out) {
+        out.println();
+        out.println("retired:");
+        for (final Opcode opcode : OPCODES) {
+            if (opcode.instructionFormat() != null) {
+                out.printf("%-7s = %d\n", name(opcode), retired[opcode.ordinal()]);
+            }
+        }
+
+        out.println();
+        out.printf("load-use stalls = %d\n", loadUseStalls());
+        out.printf("squashes = %d (jumps = %d, taken branches = %d)\n", jumpSquashes() + branchSquashes(),
+                jumpSquashes(), branchSquashes());
+        out.printf("branches = %d (taken = %d, not taken = %d, mispredicted = %d)\n",
+                branchesTaken() + branchesNotTaken(), branchesTaken(), branchesNotTaken(), branchesMispredicted());
+        out.printf("cache stalls = %d (instruction = %d, data = %d)\n",
+                instructionCacheStalls() + dataCacheStalls(), instructionCacheStalls(), dataCacheStalls());
+
+        out.println();
+        out.println("bubbles:");
+        for (int i = 0; i < registerNames.length; i++) {
+            out.printf("%-7s = %d\n", registerNames[i], bubbles[i]);
+        }
+        out.println();
+    }
+
+    /**
+     * Formats the counters as a JSON object, along with the run's totals.
+     * @param cycles the cycles simulated
+     * @param instructions the instructions executed
+     */
+    public String toJson(final long cycles, final long instructions) {
+        final StringBuilder json = new StringBuilder(512);
+        json.append("{\n");
+        json.append("  \"cycles\": ").append(cycles).append(",\n");
+        json.append("  \"instructions\": ").append(instructions).append(",\n");
+
+        json.append("  \"retired\": {");
+        String separator = "";
+        for (final Opcode opcode : OPCODES) {
+            if (opcode.instructionFormat() != null) {
+                json.append(separator).append('"').append(name(opcode)).append("\": ").append(retired[opcode.ordinal()]);
+                separator = ", ";
+            }
+        }
+        json.append("},\n");
+
+        json.append("  \"loadUseStalls\": ").append(loadUseStalls()).append(",\n");
+        json.append("  \"squashes\": {\"jump\": ").append(jumpSquashes())
+                .append(", \"branch\": ").append(branchSquashes()).append("},\n");
+        json.append("  \"branches\": {\"taken\": ").append(branchesTaken())
+                .append(", \"notTaken\": ").append(branchesNotTaken())
+                .append(", \"mispredicted\": ").append(branchesMispredicted()).append("},\n");
+        json.append("  \"cacheStalls\": {\"instruction\": ").append(instructionCacheStalls())
+                .append(", \"data\": ").append(dataCacheStalls()).append("},\n");
+
+        json.append("  \"bubbles\": {");
+        for (int i = 0; i < registerNames.length; i++) {
+            json.append(i == 0 ? "" : ", ").append('"').append(registerNames[i]).append("\": ").append(bubbles[i]);
+        }
+        json.append("}\n");
+
+        return json.append("}\n").toString();
+    }
+
+    private static String name(final Opcode opcode) {
+        return opcode.name().toLowerCase(Locale.ROOT);
+    }
+}
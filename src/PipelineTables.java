@@ -0,0 +1,86 @@
+/**
+ * What a {@link CPUSimulator} works out from its program and pipeline before running anything: the hazard tables,
+ * the target of every branch and, on a pipeline issuing two instructions per cycle, which instructions pair up.
+ * <p>None of it changes while simulating, so any number of simulators of one program on one pipeline, on any
+ * threads, can share a single instance, like they share the {@link DecodedProgram}. The array accessors hand out
+ * the backing arrays and callers must never write to them.</p>
+ */
+public final class PipelineTables {
+    private final DecodedProgram program;
+    private final PipelineConfig config;
+    // its scoreboard stays empty; every simulator gets a hazard unit of its own over the same tables
+    private final HazardUnit hazards;
+    // the target of the branch at each PC, or -1 for anything but a conditional branch
+    private final int[] branchTargets;
+    // whether the instruction at each PC can issue together with the one after it, or null on a scalar pipeline
+    private final boolean[] pairsWithNext;
+
+    /**
+     * @param program the program
+     * @param config the pipeline the program runs on
+     */
+    public PipelineTables(final DecodedProgram program, final PipelineConfig config) {
+        this.program = program;
+        this.config = config;
+        hazards = new HazardUnit(program.instructions(), config);
+        pairsWithNext = config.issueWidth() > 1 ? findPairs(program) : null;
+
+        branchTargets = new int[program.size()];
+        for (int pc = 0; pc < program.size(); pc++) {
+            final int opcode = program.opcodes()[pc];
+            final boolean branch = opcode == DecodedProgram.OP_BEQ || opcode == DecodedProgram.OP_BNE;
+            branchTargets[pc] = branch ? pc + 1 + program.imm()[pc] : -1;
+        }
+    }
+
+    /**
+     * Finds the instructions that can issue together with the one after them: at most one of the two accesses
+     * memory, the second neither reads nor writes a register the first writes, and neither is a branch or jump,
+     * since those only issue first and end their pair.
+     */
+    private boolean[] findPairs(final DecodedProgram program) {
+        final int[] opcodes = program.opcodes();
+        final boolean[] pairs = new boolean[program.size()];
+        for (int pc = 0; pc + 1 < program.size(); pc++) {
+            pairs[pc] = !isControl(opcodes[pc]) && !isControl(opcodes[pc + 1])
+                    && !(isMemoryAccess(opcodes[pc]) && isMemoryAccess(opcodes[pc + 1]))
+                    && hazards.independent(pc, pc + 1);
+        }
+        return pairs;
+    }
+
+    private static boolean isControl(final int opcode) {
+        return switch (opcode) {
+            case DecodedProgram.OP_BEQ, DecodedProgram.OP_BNE, DecodedProgram.OP_J, DecodedProgram.OP_JR,
+                    DecodedProgram.OP_JAL -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isMemoryAccess(final int opcode) {
+        return opcode == DecodedProgram.OP_LW || opcode == DecodedProgram.OP_SW;
+    }
+
+    public DecodedProgram program() {
+        return program;
+    }
+
+    public PipelineConfig config() {
+        return config;
+    }
+
+    /**
+     * Creates a hazard unit with an empty scoreboard of its own over the shared tables.
+     */
+    public HazardUnit newHazardUnit() {
+        return new HazardUnit(hazards);
+    }
+
+    public int[] branchTargets() {
+        return branchTargets;
+    }
+
+    public boolean[] pairsWithNext() {
+        return pairsWithNext;
+    }
+}
@@ -1,12 +1,16 @@
 public class RFormatInstruction extends Instruction {
-    private int rs;
-    private int rt;
-    private int rd;
-    private int shamt;
+    private final int rs;
+    private final int rt;
+    private final int rd;
+    private final int shamt;
     private final int funct;
 
-    public RFormatInstruction(final Opcode opcode) {
+    public RFormatInstruction(final Opcode opcode, final int rs, final int rt, final int rd, final int shamt) {
         super(opcode);
+        this.rs = rs;
+        this.rt = rt;
+        this.rd = rd;
+        this.shamt = shamt;
         this.funct = opcode.functBitPattern();
     }
 
@@ -14,34 +18,18 @@ public class RFormatInstruction extends Instruction {
         return rs;
     }
 
-    public void setRs(int rs) {
-        this.rs = rs;
-    }
-
     public int rt() {
         return rt;
     }
 
-    public void setRt(int rt) {
-        this.rt = rt;
-    }
-
     public int rd() {
         return rd;
     }
 
-    public void setRd(int rd) {
-        this.rd = rd;
-    }
-
     public int shamt() {
         return shamt;
     }
 
-    public void setShamt(int shamt) {
-        this.shamt = shamt;
-    }
-
     public int funct() {
         return funct;
     }
@@ -59,6 +47,14 @@ public class RFormatInstruction extends Instruction {
         );
     }
 
+    @Override
+    public int encode() {
+        if (shamt < 0 || shamt > 31) {
+            throw new IllegalStateException(String.format("Shift amount %d does not fit in 5 bits.", shamt));
+        }
+        return opcode().opcodeBitPattern() << 26 | rs << 21 | rt << 16 | rd << 11 | shamt << 6 | funct;
+    }
+
     @Override
     public String toString() {
         return "RFormatInstruction{" +
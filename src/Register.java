@@ -1,4 +1,7 @@
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public enum Register {
     ZERO("$0", 0),
@@ -35,6 +38,14 @@ public enum Register {
     FP("$fp", 30),
     RA("$ra", 31);
 
+    private static final Map<String, Register> BY_NAME = new HashMap<>();
+
+    static {
+        for (final Register register : values()) {
+            BY_NAME.put(register.name, register);
+        }
+    }
+
     private final String name;
     private final int number;
 
@@ -52,10 +63,14 @@ public enum Register {
     }
 
     public static Register getByRegisterName(final String registerName) {
-        return Arrays.stream(Register.values())
-                .filter(reg -> reg.registerName().equalsIgnoreCase(registerName))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Invalid register \"%s\" encountered.", registerName)));
+        Register register = BY_NAME.get(registerName);
+        if (register == null) {
+            register = BY_NAME.get(registerName.toLowerCase(Locale.ROOT));
+        }
+        if (register == null) {
+            throw new IllegalArgumentException(String.format("Invalid register \"%s\" encountered.", registerName));
+        }
+        return register;
     }
 
     public static Register getByRegisterNumber(final int registerNumber) {
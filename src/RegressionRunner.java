@@ -0,0 +1,337 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs every program under a directory that has a script and an expected output next to it, like lab4_fib10.asm,
+ * lab4_fib10.script and lab4_fib10.output, and checks that the simulator prints the expected output.
+ * <p>Cases run in parallel, each in a session of its own with its own {@link CPUSimulator} printing to a buffer,
+ * so nothing is shared between them but the JVM. Results are printed as cases finish, with the wall time and
+ * simulated cycles per second of each, and the start of the differences of every case that fails. Unless told to
+ * be exact, runs of spaces and tabs compare equal, since the lab's reference outputs are laid out with single tabs
+ * where the simulator pads its columns.</p>
+ */
+public final class RegressionRunner {
+    private static final String THREADS_OPTION = "--threads=";
+    private static final String EXPECTED_OPTION = "--expected=";
+    private static final String DEFAULT_EXPECTED_EXTENSION = ".output";
+    private static final int DIFF_LINES = 10;
+    private static final Pattern HORIZONTAL_SPACE = Pattern.compile("[ \\t]+");
+
+    private final int threads;
+    private final String expectedExtension;
+    private final boolean exact;
+
+    /**
+     * @param threads the number of cases to run at once
+     * @param expectedExtension the extension of the expected output files, with its dot
+     * @param exact whether outputs must match byte for byte, rather than up to horizontal whitespace
+     */
+    public RegressionRunner(final int threads, final String expectedExtension, final boolean exact) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("There must be at least 1 thread.");
+        }
+        this.threads = threads;
+        this.expectedExtension = expectedExtension;
+        this.exact = exact;
+    }
+
+    /**
+     * Finds every program under a directory with a script and an expected output next to it, in path order.
+     */
+    public List<Case> findCases(final Path directory) throws IOException {
+        final List<Case> cases = new ArrayList<>();
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (final Path program : (Iterable<Path>) files.sorted()::iterator) {
+                final String fileName = program.getFileName().toString();
+                if (!fileName.endsWith(".asm") || !Files.isRegularFile(program)) {
+                    continue;
+                }
+
+                final String name = fileName.substring(0, fileName.length() - ".asm".length());
+                final Path script = program.resolveSibling(name + ".script");
+                final Path expected = program.resolveSibling(name + expectedExtension);
+                if (Files.isRegularFile(script) && Files.isRegularFile(expected)) {
+                    cases.add(new Case(directory.relativize(program.resolveSibling(name)).toString(), program, script,
+                            expected));
+                }
+            }
+        }
+        return cases;
+    }
+
+    /**
+     * Runs the cases across the threads, printing each result to the given stream as soon as it is known.
+     * @return the results, in the order the cases finished
+     */
+    public List<Result> runAll(final List<Case> cases, final PrintStream out) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "regression-runner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        for (final Case testCase : cases) {
+            completion.submit(() -> run(testCase));
+        }
+
+        final List<Result> results = new ArrayList<>(cases.size());
+        try {
+            for (int i = 0; i < cases.size(); i++) {
+                final Result result = completion.take().get();
+                results.add(result);
+                print(result, out);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for cases.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("A case could not be run.", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Runs a case in a session of its own, like lab4 given the program and the script, and compares what it
+     * printed with the expected output. A case whose files cannot be read, or that fails to assemble or throws,
+     * fails with the error as its difference.
+     */
+    public Result run(final Case testCase) {
+        final long start = System.nanoTime();
+        final String expected;
+        final List<String> source;
+        try {
+            expected = Files.readString(testCase.expected(), StandardCharsets.UTF_8);
+            source = Files.readAllLines(testCase.program());
+        } catch (IOException ex) {
+            return new Result(testCase, "\tcould not be read: " + ex + "\n", System.nanoTime() - start, 0);
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(expected.length() + 256);
+        final PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+
+        final Assembler assembler = new Assembler(source);
+        assembler.parse();
+        if (assembler.error() != null) {
+            return new Result(testCase, "\tdoes not assemble: " + assembler.error() + "\n", System.nanoTime() - start,
+                    0);
+        }
+
+        final CPUSimulator simulator = new CPUSimulator(new Emulator(assembler.instructions()));
+        simulator.setOutput(out);
+        try {
+            new Repl(simulator).startScript(testCase.script().toFile());
+        } catch (RuntimeException ex) {
+            return new Result(testCase, "\tthrew " + ex + "\n", System.nanoTime() - start, simulator.cycles());
+        }
+        out.flush();
+        final long nanos = System.nanoTime() - start;
+
+        return new Result(testCase, difference(expected, buffer.toString(StandardCharsets.UTF_8)), nanos,
+                simulator.cycles());
+    }
+
+    /**
+     * Describes where the actual output first departs from the expected one, diff style, with up to
+     * {@link #DIFF_LINES} lines of each from there on.
+     * @return the description, or null if the outputs match
+     */
+    private String difference(final String expected, final String actual) {
+        final String[] expectedLines = expected.split("\r?\n", -1);
+        final String[] actualLines = actual.split("\r?\n", -1);
+        int first = 0;
+        while (first < expectedLines.length && first < actualLines.length
+                && sameLine(expectedLines[first], actualLines[first])) {
+            first++;
+        }
+        if (first == expectedLines.length && first == actualLines.length) {
+            return null;
+        }
+
+        final StringBuilder difference = new StringBuilder();
+        difference.append(String.format("\tfirst difference at line %d:%n", first + 1));
+        for (int i = first; i < Math.min(expectedLines.length, first + DIFF_LINES); i++) {
+            difference.append("\t- ").append(expectedLines[i]).append(System.lineSeparator());
+        }
+        for (int i = first; i < Math.min(actualLines.length, first + DIFF_LINES); i++) {
+            difference.append("\t+ ").append(actualLines[i]).append(System.lineSeparator());
+        }
+        return difference.toString();
+    }
+
+    private boolean sameLine(final String expected, final String actual) {
+        if (exact) {
+            return expected.equals(actual);
+        }
+        return normalize(expected).equals(normalize(actual));
+    }
+
+    private static String normalize(final String line) {
+        return HORIZONTAL_SPACE.matcher(line).replaceAll(" ").strip();
+    }
+
+    private static void print(final Result result, final PrintStream out) {
+        out.printf("%-4s %-40s %10.2f ms %12d cycles %10.0f cycles/sec%n",
+                result.passed() ? "ok" : "FAIL",
+                result.testCase().name(),
+                result.nanos() / 1e6,
+                result.cycles(),
+                result.cyclesPerSecond());
+        if (!result.passed()) {
+            out.print(result.difference());
+        }
+        out.flush();
+    }
+
+    public static void main(final String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String expectedExtension = DEFAULT_EXPECTED_EXTENSION;
+        boolean exact = false;
+        Path directory = Path.of(".");
+        try {
+            for (final String arg : args) {
+                if (arg.startsWith(THREADS_OPTION)) {
+                    threads = Integer.parseInt(arg.substring(THREADS_OPTION.length()));
+                } else if (arg.startsWith(EXPECTED_OPTION)) {
+                    expectedExtension = "." + arg.substring(EXPECTED_OPTION.length());
+                } else if (arg.equals("--exact")) {
+                    exact = true;
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException(String.format("Unknown option %s.", arg));
+                } else {
+                    directory = Path.of(arg);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex instanceof NumberFormatException ? "Threads must be an integer." : ex.getMessage());
+            System.err.println("Syntax: java RegressionRunner [--threads=<n>] [--expected=<extension>] [--exact] [directory]");
+            System.exit(1);
+            return;
+        }
+
+        final PrintStream out = System.out;
+        final long start = System.nanoTime();
+        final List<Result> results;
+        try {
+            final RegressionRunner runner = new RegressionRunner(threads, expectedExtension, exact);
+            final List<Case> cases = runner.findCases(directory);
+            if (cases.isEmpty()) {
+                System.err.printf("No programs with a script and %s file found under %s.%n", expectedExtension,
+                        directory);
+                System.exit(1);
+                return;
+            }
+            results = runner.runAll(cases, out);
+        } catch (IOException | IllegalArgumentException | IllegalStateException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+
+        long failed = 0;
+        long cycles = 0;
+        for (final Result result : results) {
+            failed += result.passed() ? 0 : 1;
+            cycles += result.cycles();
+        }
+        out.printf("%d cases, %d passed, %d failed in %.2f s on %d threads, %.0f simulated cycles/sec%n",
+                results.size(), results.size() - failed, failed, nanos / 1e9, threads, cycles / (nanos / 1e9));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A program with the script to run it through and the output it should produce.
+     */
+    public static final class Case {
+        private final String name;
+        private final Path program;
+        private final Path script;
+        private final Path expected;
+
+        public Case(final String name, final Path program, final Path script, final Path expected) {
+            this.name = name;
+            this.program = program;
+            this.script = script;
+            this.expected = expected;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Path program() {
+            return program;
+        }
+
+        public Path script() {
+            return script;
+        }
+
+        public Path expected() {
+            return expected;
+        }
+    }
+
+    /**
+     * The outcome of a case: how it differed from the expected output, if at all, and how long it took.
+     */
+    public static final class Result {
+        private final Case testCase;
+        private final String difference;
+        private final long nanos;
+        private final long cycles;
+
+        /**
+         * @param difference the start of the differences from the expected output, or null if the case passed
+         */
+        private Result(final Case testCase, final String difference, final long nanos, final long cycles) {
+            this.testCase = testCase;
+            this.difference = difference;
+            this.nanos = nanos;
+            this.cycles = cycles;
+        }
+
+        public Case testCase() {
+            return testCase;
+        }
+
+        public boolean passed() {
+            return difference == null;
+        }
+
+        public String difference() {
+            return difference;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public long cycles() {
+            return cycles;
+        }
+
+        /**
+         * Gets the simulated cycles per second of wall time, assembly included.
+         */
+        public double cyclesPerSecond() {
+            return nanos == 0 ? 0.0 : cycles / (nanos / 1e9);
+        }
+    }
+}
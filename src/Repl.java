@@ -2,19 +2,47 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Repl {
     private final CPUSimulator simulator;
+    private final PrintStream out;
+    private final Map<String, Integer> labelAddresses;
+    private final Breakpoints breakpoints = new Breakpoints();
 
+    /**
+     * Creates a REPL printing to the simulator's output, standard output unless it was redirected.
+     */
     public Repl(final CPUSimulator simulator) {
+        this(simulator, Map.of());
+    }
+
+    /**
+     * Creates a REPL that also takes the program's labels wherever it takes a PC.
+     */
+    public Repl(final CPUSimulator simulator, final Map<String, Integer> labelAddresses) {
         this.simulator = simulator;
+        this.out = simulator.output();
+        this.labelAddresses = labelAddresses;
     }
 
     public final void start() {
-        try (final Scanner scanner = new Scanner(System.in)) {
+        start(System.in);
+    }
+
+    /**
+     * Reads commands from the given input until it ends or the user quits, prompting for each one. The output is
+     * flushed at every prompt, so a client on the other end of a connection sees each command's whole reply.
+     */
+    public final void start(final InputStream in) {
+        try (final Scanner scanner = new Scanner(in)) {
             while (true) {
-                System.out.print("mips> ");
+                out.print("mips> ");
+                out.flush();
+                if (!scanner.hasNextLine()) break;
 
                 String commandLine = scanner.nextLine();
                 if (commandLine.isEmpty()) {
@@ -26,6 +54,10 @@ public class Repl {
         }
     }
 
+    /**
+     * Runs the commands in a script file, echoing each after the prompt, until the script ends or quits.
+     * @throws UncheckedIOException if the script cannot be read
+     */
     public final void startScript(File file) {
         if (!file.exists()) {
             throw new RuntimeException("Cannot start script interpreter. File does not exist.");
@@ -40,13 +72,11 @@ public class Repl {
                     continue;
                 }
 
-                System.out.printf("mips> %s%n", commandLine);
+                out.printf("mips> %s%n", commandLine);
                 if (!readAndProcessCommand(commandLine)) break;
             }
         } catch (IOException ex) {
-            System.err.println("IOException encountered while reading script file.");
-            ex.printStackTrace(System.err);
-            System.exit(1);
+            throw new UncheckedIOException("Could not read the script file: " + ex.getMessage(), ex);
         }
     }
 
@@ -57,7 +87,7 @@ public class Repl {
         switch (command) {
             case 'h' -> displayHelp();
 
-            case 'd' -> simulator.emulator().dumpRegisters();
+            case 'd' -> simulator.emulator().dumpRegisters(out);
 
             case 'p' -> simulator.dumpPipelineRegisterState();
 
@@ -72,8 +102,24 @@ public class Repl {
                 simulator.runNCycles(n);
             }
 
+            case 'b' -> {
+                int n = 1;
+                if (!commandLine.isEmpty()) {
+                    try {
+                        n = Integer.parseInt(commandLine);
+                    } catch (NumberFormatException ignored) {}
+                }
+
+                simulator.stepBack(n);
+                simulator.dumpPipelineRegisterState();
+            }
+
+            case 'i' -> simulator.printStatistics();
+
             case 'r' -> simulator.run();
 
+            case 'f' -> simulator.runFastForward();
+
             case 'm' -> {
                 if (commandLine.isEmpty()) break;
                 String[] bounds = commandLine.split(" ");
@@ -88,12 +134,28 @@ public class Repl {
 
                 }
 
-                simulator.emulator().dumpMemory(lower, upper);
+                simulator.emulator().dumpMemory(out, lower, upper);
+            }
+
+            case 'k' -> {
+                if (commandLine.isEmpty()) {
+                    breakpoints.print(out);
+                    break;
+                }
+                addBreakpoint(commandLine);
+            }
+
+            case 'w' -> addWatchpoint(commandLine);
+
+            case 'x' -> {
+                breakpoints.clear();
+                simulator.setBreakpoints(null);
+                out.println("\tBreakpoints and watchpoints deleted");
             }
 
             case 'c' -> {
                 simulator.reset();
-                System.out.println("\tSimulator reset");
+                out.println("\tSimulator reset");
             }
 
             case 'q' -> {
@@ -104,16 +166,81 @@ public class Repl {
         return true;
     }
 
+    /**
+     * Adds a breakpoint from a PC or label, optionally followed by a condition like "$t0 == 5".
+     */
+    private void addBreakpoint(final String arguments) {
+        final String[] parts = arguments.split("\\s+", 2);
+        final Integer pc = labelAddresses.containsKey(parts[0]) ? labelAddresses.get(parts[0]) : parsePc(parts[0]);
+        if (pc == null) {
+            out.printf("\tNo instruction or label \"%s\"%n", parts[0]);
+            return;
+        }
+
+        try {
+            breakpoints.addBreakpoint(pc, parts.length > 1 ? Breakpoints.Condition.parse(parts[1]) : null);
+        } catch (IllegalArgumentException ex) {
+            out.printf("\t%s%n", ex.getMessage());
+            return;
+        }
+        simulator.setBreakpoints(breakpoints);
+    }
+
+    private Integer parsePc(final String text) {
+        try {
+            final int pc = Integer.parseInt(text);
+            return pc >= 0 && pc < simulator.emulator().program().size() ? pc : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a watchpoint from a range of memory locations, optionally followed by r, w or rw for loads, stores or
+     * both; stores by default.
+     */
+    private void addWatchpoint(final String arguments) {
+        final String[] parts = arguments.split("\\s+");
+        if (parts.length < 2 || parts.length > 3) {
+            out.println("\tA watchpoint is a lower and an upper memory location, then r, w or rw");
+            return;
+        }
+
+        final String kind = parts.length > 2 ? parts[2] : "w";
+        try {
+            if (!kind.equals("r") && !kind.equals("w") && !kind.equals("rw")) {
+                throw new IllegalArgumentException(String.format("Invalid access \"%s\"; use r, w or rw.", kind));
+            }
+            breakpoints.addWatchpoint(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), kind.contains("r"),
+                    kind.contains("w"));
+        } catch (IllegalArgumentException ex) {
+            out.printf("\t%s%n",
+                    ex instanceof NumberFormatException ? "Memory locations must be integers." : ex.getMessage());
+            return;
+        }
+        simulator.setBreakpoints(breakpoints);
+    }
+
     private void displayHelp() {
-        System.out.println("""
+        out.println("""
                 
                 h = show help
                 d = dump register state
                 p = show pipeline registers
                 s = step through a single clock cycle step (i.e. simulate 1 cycle and stop)
                 s num = step through num clock cycles
-                r = run until the program ends and display timing summary
+                b = step back a single clock cycle
+                b num = step back num clock cycles
+                i = display pipeline statistics (with --stats)
+                r = run until the program ends and display timing summary, or until a breakpoint or watchpoint stops it
+                f = fast-forward until the program ends without modeling the pipeline, and display timing summary
                 m num1 num2 = display data memory from location num1 to num2
+                k = list breakpoints and watchpoints
+                k loc = stop r and s num when the instruction at loc (a pc or label) is fetched
+                k loc $reg op num = stop there only if $reg op num holds just before, op one of == != < <= > >=
+                w num1 num2 = stop r and s num when a store writes data memory from location num1 to num2
+                w num1 num2 r|w|rw = stop when a load reads (r), a store writes (w) or either accesses the locations
+                x = delete all breakpoints and watchpoints
                 c = clear all registers, memory, and the program counter to 0
                 q = exit the program
                 """);
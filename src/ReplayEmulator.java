@@ -0,0 +1,119 @@
+/**
+ * Feeds a decoupled run of a {@link CPUSimulator} in place of the functional emulator. The functional emulator
+ * runs ahead on a thread of its own, committing every instruction it executes into a {@link CommitRing}, and this
+ * stream replays them on the pipeline model's thread. Only the control state the pipeline model reads is
+ * replayed; the registers and memory are the functional emulator's, and once it was joined they hold the final
+ * state of the run. Everything that looks at the next instruction waits for it to be committed.
+ * <p>A committed instruction is a single record: the address a load or store accessed in the high half, and the
+ * PC above whether the instruction was an unconditional jump or a taken branch in the low half.</p>
+ */
+public final class ReplayEmulator implements InstructionStream {
+    private static final int BRANCH_TAKEN = 1;
+    private static final int UNCONDITIONAL_JUMP = 2;
+    private static final int RECORD_PC_SHIFT = 2;
+
+    private final Emulator functional;
+    private final CommitRing ring = new CommitRing(CommitRing.DEFAULT_CAPACITY);
+    private final Thread producer;
+    // set by the producer before it closes the ring, and read once it was joined
+    private Throwable failure;
+    private boolean hadUncondJump;
+    private boolean lastBranchTaken;
+
+    private ReplayEmulator(final Emulator functional) {
+        this.functional = functional;
+        hadUncondJump = functional.hadUncondJump();
+        lastBranchTaken = functional.lastBranchTaken();
+        producer = new Thread(this::commitAll, "functional-emulator");
+        producer.setDaemon(true);
+    }
+
+    /**
+     * Starts running the functional emulator to the end of the program on a thread of its own.
+     * @return the emulator replaying what it commits
+     */
+    public static ReplayEmulator start(final Emulator functional) {
+        final ReplayEmulator replay = new ReplayEmulator(functional);
+        replay.producer.start();
+        return replay;
+    }
+
+    /**
+     * Stops the functional emulator if it is still running. Instructions committed but not replayed are dropped.
+     */
+    public void stop() {
+        ring.cancel();
+    }
+
+    /**
+     * Waits for the functional emulator's thread to end, after it ran to the end of the program or was stopped.
+     * @throws IllegalStateException if the functional emulator failed, or the wait for it is interrupted
+     */
+    public void join() {
+        try {
+            producer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the functional emulator.", ex);
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The functional emulator failed.", failure);
+        }
+    }
+
+    private void commitAll() {
+        try {
+            while (functional.hasMoreInstructions()) {
+                final int pc = functional.programCounter();
+                final int address = functional.memoryAddress();
+                functional.step();
+                final int control = (functional.hadUncondJump() ? UNCONDITIONAL_JUMP : 0)
+                        | (functional.lastBranchTaken() ? BRANCH_TAKEN : 0);
+                if (!ring.put((long) address << 32 | (pc << RECORD_PC_SHIFT | control) & 0xffffffffL)) {
+                    return;
+                }
+            }
+        } catch (RuntimeException | Error ex) {
+            failure = ex;
+        } finally {
+            ring.close();
+        }
+    }
+
+    @Override
+    public boolean hasMoreInstructions() {
+        return ring.await();
+    }
+
+    @Override
+    public int programCounter() {
+        // once everything is committed, the functional emulator has stopped where the program ends
+        return ring.await() ? (int) ring.peek() >>> RECORD_PC_SHIFT : functional.programCounter();
+    }
+
+    @Override
+    public int memoryAddress() {
+        return ring.await() ? (int) (ring.peek() >>> 32) : 0;
+    }
+
+    @Override
+    public Instruction emulateOneInstruction() {
+        if (!ring.await()) {
+            throw new IllegalStateException("The functional emulator stopped early.");
+        }
+        final int record = (int) ring.take();
+        hadUncondJump = (record & UNCONDITIONAL_JUMP) != 0;
+        lastBranchTaken = (record & BRANCH_TAKEN) != 0;
+        return functional.instructionAt(record >>> RECORD_PC_SHIFT);
+    }
+
+    @Override
+    public boolean hadUncondJump() {
+        return hadUncondJump;
+    }
+
+    @Override
+    public boolean lastBranchTaken() {
+        return lastBranchTaken;
+    }
+}
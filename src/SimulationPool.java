@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs many independent simulations of one shared, immutable {@link DecodedProgram} on a fixed pool of threads.
+ * Every simulation gets its own {@link Emulator} and {@link CPUSimulator}, which are confined to the thread
+ * running it, so nothing but the program image and the {@link PipelineTables} worked out for it once are shared.
+ */
+public final class SimulationPool implements AutoCloseable {
+    private final DecodedProgram program;
+    private final PipelineTables tables;
+    private final ExecutorService executor;
+
+    public SimulationPool(final DecodedProgram program, final int threads) {
+        this(program, PipelineConfig.DEFAULT, threads);
+    }
+
+    /**
+     * @param program the program every simulation runs
+     * @param config the pipeline every simulation models
+     * @param threads how many simulations run at once
+     */
+    public SimulationPool(final DecodedProgram program, final PipelineConfig config, final int threads) {
+        this.program = program;
+        this.tables = new PipelineTables(program, config);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "simulation-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public DecodedProgram program() {
+        return program;
+    }
+
+    /**
+     * Submits a simulation. The function receives a freshly reset simulator over the shared program; it may set
+     * up registers and memory, run it, and return whatever result it needs.
+     * @param simulation the simulation to run
+     * @param <T> the result type
+     * @return a future for the simulation's result
+     */
+    public <T> Future<T> submit(final Function<CPUSimulator, T> simulation) {
+        return executor.submit(() -> simulation.apply(new CPUSimulator(new Emulator(program), tables)));
+    }
+
+    /**
+     * Runs the given simulations across the pool and waits for all of them.
+     * @param simulations the simulations to run
+     * @param <T> the result type
+     * @return the results, in the same order as the simulations
+     */
+    public <T> List<T> runAll(final List<? extends Function<CPUSimulator, T>> simulations) {
+        final List<Future<T>> futures = new ArrayList<>(simulations.size());
+        for (final Function<CPUSimulator, T> simulation : simulations) {
+            futures.add(submit(simulation));
+        }
+
+        final List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (final Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for simulations.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("A simulation failed.", ex.getCause());
+        }
+
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Loads a {@link SimulatorServer} with many concurrent sessions, each stepping through the same program, and
+ * reports the commands served per second and the latency of a command up to its reply's prompt. Every session
+ * connects and loads its program before any of them starts timing commands.
+ */
+public final class SimulatorLoadTest {
+    private static final byte[] PROMPT = "mips> ".getBytes(StandardCharsets.UTF_8);
+    // cheap and expensive commands alike, cycled through by every session
+    private static final String[] COMMANDS = {"s", "p", "s 10", "d"};
+
+    public static void main(final String[] args) throws InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Invalid syntax.");
+            System.err.println("Syntax: java SimulatorLoadTest <program> [sessions] [commands per session] [port]");
+            System.exit(1);
+            return;
+        }
+
+        final int sessions;
+        final int commands;
+        final int port;
+        try {
+            sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            commands = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            port = args.length > 3 ? Integer.parseInt(args[3]) : SimulatorServer.DEFAULT_PORT;
+        } catch (NumberFormatException ex) {
+            System.err.println("Sessions, commands and port must be integers.");
+            System.exit(1);
+            return;
+        }
+
+        final long[][] latencies = new long[sessions][];
+        final List<Throwable> failures = new ArrayList<>();
+        final CountDownLatch connected = new CountDownLatch(sessions);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] clients = new Thread[sessions];
+        for (int session = 0; session < sessions; session++) {
+            final int idx = session;
+            clients[session] = new Thread(() -> {
+                try {
+                    latencies[idx] = runSession(args[0], port, commands, connected, start);
+                } catch (IOException | InterruptedException | RuntimeException ex) {
+                    synchronized (failures) {
+                        failures.add(ex);
+                    }
+                }
+            }, "load-test-" + session);
+            clients[session].setDaemon(true);
+            clients[session].start();
+        }
+
+        connected.await();
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread client : clients) {
+            client.join();
+        }
+        final long elapsed = System.nanoTime() - begin;
+
+        if (!failures.isEmpty()) {
+            System.err.printf("%d of %d sessions failed, the first with: %s%n", failures.size(), sessions,
+                    failures.get(0));
+        }
+        report(latencies, elapsed);
+    }
+
+    /**
+     * Runs one session: loads the program, waits for every other session, then sends the commands one at a time.
+     * @return the latency of each command, in nanoseconds
+     */
+    private static long[] runSession(final String program, final int port, final int commands,
+                                     final CountDownLatch connected, final CountDownLatch start)
+            throws IOException, InterruptedException {
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            final OutputStream out = socket.getOutputStream();
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            try {
+                out.write((program + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                awaitPrompt(in);
+            } finally {
+                connected.countDown();
+            }
+            start.await();
+
+            final long[] latencies = new long[commands];
+            for (int i = 0; i < commands; i++) {
+                final byte[] command = (COMMANDS[i % COMMANDS.length] + "\n").getBytes(StandardCharsets.UTF_8);
+                final long sent = System.nanoTime();
+                out.write(command);
+                out.flush();
+                awaitPrompt(in);
+                latencies[i] = System.nanoTime() - sent;
+            }
+
+            out.write("q\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return latencies;
+        }
+    }
+
+    /**
+     * Reads a reply up to and including the prompt that ends it.
+     */
+    private static void awaitPrompt(final InputStream in) throws IOException {
+        int matched = 0;
+        while (matched < PROMPT.length) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("The server ended the session.");
+            }
+            // the prompt starts with a character it does not repeat, so a mismatch can only restart it
+            matched = b == PROMPT[matched] ? matched + 1 : b == PROMPT[0] ? 1 : 0;
+        }
+    }
+
+    private static void report(final long[][] latencies, final long elapsedNanos) {
+        int count = 0;
+        for (final long[] session : latencies) {
+            count += session == null ? 0 : session.length;
+        }
+        if (count == 0) {
+            System.out.println("No commands completed.");
+            return;
+        }
+
+        final long[] all = new long[count];
+        int at = 0;
+        for (final long[] session : latencies) {
+            if (session != null) {
+                System.arraycopy(session, 0, all, at, session.length);
+                at += session.length;
+            }
+        }
+        Arrays.sort(all);
+
+        System.out.printf("Sessions = %d\tCommands = %d\tCommands/sec = %.0f%n",
+                Arrays.stream(latencies).filter(session -> session != null).count(),
+                count,
+                count / (elapsedNanos / 1e9));
+        System.out.printf("Latency p50 = %.3f ms\tp99 = %.3f ms\tmax = %.3f ms%n",
+                percentile(all, 50) / 1e6,
+                percentile(all, 99) / 1e6,
+                all[all.length - 1] / 1e6);
+    }
+
+    private static long percentile(final long[] sorted, final int percent) {
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * percent / 100))];
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves simulator sessions on the loopback interface, so that many users and scripts share one warmed-up JVM
+ * instead of each paying for startup and assembly.
+ * <p>A client connects and sends the path of a program on a line of its own. From then on it talks to a
+ * {@link Repl} exactly as on a terminal, and every reply ends with the "mips&gt; " prompt. Each connection gets its
+ * own {@link CPUSimulator} on a thread of its own, printing to a buffered stream of its own that is flushed at
+ * every prompt. Assembled programs are immutable, so sessions share them, keyed by their source text.</p>
+ */
+public final class SimulatorServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 4004;
+
+    private static final int BACKLOG = 4096;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 13;
+    private static final int MAX_PATH_LENGTH = 4096;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Map<String, DecodedProgram> programs = new ConcurrentHashMap<>();
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public SimulatorServer(final int port) throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        // sessions spend most of their time blocked reading commands, so each gets a thread of its own
+        sessions = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "simulator-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections and runs a session for each, until the server is closed.
+     */
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = serverSocket.accept();
+            } catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    System.err.printf("Could not accept a connection: %s%n", ex.getMessage());
+                }
+                continue;
+            }
+
+            connections.add(connection);
+            sessions.execute(() -> runSession(connection));
+        }
+    }
+
+    private void runSession(final Socket connection) {
+        try (connection) {
+            connection.setTcpNoDelay(true);
+            final InputStream in = connection.getInputStream();
+            final PrintStream out = new PrintStream(
+                    new BufferedOutputStream(connection.getOutputStream(), OUTPUT_BUFFER_SIZE), false,
+                    StandardCharsets.UTF_8);
+
+            final String path = readLine(in);
+            if (path == null) {
+                return;
+            }
+
+            final DecodedProgram program;
+            try {
+                program = program(path.trim());
+            } catch (IOException | RuntimeException ex) {
+                out.printf("Could not load %s: %s%n", path.trim(), ex.getMessage());
+                out.flush();
+                return;
+            }
+
+            final CPUSimulator simulator = new CPUSimulator(new Emulator(program));
+            simulator.setOutput(out);
+            new Repl(simulator).start(in);
+            out.flush();
+        } catch (IOException | RuntimeException ex) {
+            if (!serverSocket.isClosed()) {
+                System.err.printf("Session ended abnormally: %s%n", ex);
+            }
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Reads the line naming the program a byte at a time, so nothing after it is taken from the commands the
+     * session's REPL reads.
+     * @return the line, or null if the connection closed first
+     */
+    private static String readLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            final int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            if (b == '\n') {
+                return line.toString(StandardCharsets.UTF_8);
+            }
+            if (line.size() == MAX_PATH_LENGTH) {
+                throw new IOException("The program path is too long.");
+            }
+            line.write(b);
+        }
+    }
+
+    /**
+     * Gets the program at a path, assembling its source only if no session has assembled the same source before.
+     * @throws IllegalArgumentException if the source does not assemble
+     */
+    private DecodedProgram program(final String path) throws IOException {
+        final Path file = Path.of(path);
+        if (!Files.isReadable(file)) {
+            throw new IOException("The file does not exist or does not allow reading.");
+        }
+        if (path.endsWith(lab4.BINARY_EXTENSION)) {
+            return MachineCode.load(file);
+        }
+
+        final List<String> source = Files.readAllLines(file);
+        return programs.computeIfAbsent(AssemblyCache.key(source), key -> {
+            final Assembler assembler = new Assembler(source);
+            assembler.parse();
+            if (assembler.error() != null) {
+                throw new IllegalArgumentException(assembler.error());
+            }
+            return DecodedProgram.decode(assembler.instructions());
+        });
+    }
+
+    /**
+     * Stops accepting connections and ends every open session.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (final Socket connection : connections) {
+            connection.close();
+        }
+        sessions.shutdown();
+    }
+
+    public static void main(final String[] args) {
+        final int port;
+        try {
+            port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid syntax.");
+            System.err.println("Syntax: java SimulatorServer [port]");
+            System.exit(1);
+            return;
+        }
+
+        try (final SimulatorServer server = new SimulatorServer(port)) {
+            System.out.printf("Serving simulator sessions on %s:%d%n",
+                    InetAddress.getLoopbackAddress().getHostAddress(), server.port());
+            server.serve();
+        } catch (IOException ex) {
+            System.err.printf("Could not listen on port %d: %s%n", port, ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
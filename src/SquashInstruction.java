@@ -1,5 +1,7 @@
 public class SquashInstruction extends Instruction {
-    public SquashInstruction() {
+    public static final SquashInstruction INSTANCE = new SquashInstruction();
+
+    private SquashInstruction() {
         super(Opcode.SQUASH);
     }
 
@@ -7,4 +9,9 @@ public class SquashInstruction extends Instruction {
     public String assemble() {
         return null;
     }
+
+    @Override
+    public int encode() {
+        throw new IllegalStateException("Pipeline bubbles have no machine encoding.");
+    }
 }
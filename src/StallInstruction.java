@@ -1,5 +1,7 @@
 public class StallInstruction extends Instruction {
-    public StallInstruction() {
+    public static final StallInstruction INSTANCE = new StallInstruction();
+
+    private StallInstruction() {
         super(Opcode.STALL);
     }
 
@@ -7,4 +9,9 @@ public class StallInstruction extends Instruction {
     public String assemble() {
         return null;
     }
+
+    @Override
+    public int encode() {
+        throw new IllegalStateException("Pipeline bubbles have no machine encoding.");
+    }
 }
@@ -0,0 +1,293 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads pipeline traces written by {@link TraceWriter}. Any cycle is found in constant time: its block follows
+ * from its record index, and at most that one block is read and inflated. The last block used is kept, so walking
+ * a range of cycles reads each block once.
+ * <p>Run as a program, it renders a range of cycles in the text format of
+ * {@link CPUSimulator#dumpPipelineRegisterState()}:</p>
+ * <pre>java TraceReader &lt;trace&gt; [first cycle [last cycle]]</pre>
+ * <p>Without cycles the whole trace is printed, and with only a first cycle just that cycle.</p>
+ */
+public final class TraceReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final boolean compressed;
+    private final int blockRecords;
+    private final int registers;
+    private final int issueWidth;
+    private final int recordBytes;
+    private final String[] registerNames;
+    private final int recordCount;
+    // offset of every block and the end of the last one, for compressed traces
+    private final long[] blockOffsets;
+    private final ByteBuffer block;
+    private final Inflater inflater;
+    private int loadedBlock = -1;
+    private int firstCycle;
+    private int position;
+
+    private TraceReader(final FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        final ByteBuffer header = read(0, TraceWriter.HEADER_BYTES);
+        if (header.getInt() != TraceWriter.MAGIC) {
+            throw new IOException("Not a pipeline trace.");
+        }
+        if (header.getInt() != TraceWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported pipeline trace version.");
+        }
+        final int flags = header.getInt();
+        compressed = (flags & TraceWriter.FLAG_COMPRESSED) != 0;
+        issueWidth = (flags & TraceWriter.FLAG_SECOND_LANE) != 0 ? 2 : 1;
+        blockRecords = header.getInt();
+        registers = header.getInt();
+        if (blockRecords <= 0 || registers < 3) {
+            throw new IOException("Corrupt pipeline trace header.");
+        }
+        recordBytes = TraceWriter.recordBytes(registers * issueWidth);
+        registerNames = PipelineConfig.registerNames(registers + 1);
+        block = ByteBuffer.allocate(blockRecords * recordBytes).order(MachineCode.BYTE_ORDER);
+
+        if (compressed) {
+            final long size = channel.size();
+            if (size < TraceWriter.HEADER_BYTES + TraceWriter.TRAILER_BYTES) {
+                throw new IOException("Compressed pipeline trace has no index; was it closed?");
+            }
+            final ByteBuffer trailer = read(size - TraceWriter.TRAILER_BYTES, TraceWriter.TRAILER_BYTES);
+            final int blockCount = trailer.getInt();
+            recordCount = trailer.getInt();
+            if (trailer.getInt() != TraceWriter.TRAILER_MAGIC || blockCount < 0) {
+                throw new IOException("Compressed pipeline trace has no index; was it closed?");
+            }
+
+            final ByteBuffer index = read(size - TraceWriter.TRAILER_BYTES - (blockCount + 1L) * Long.BYTES,
+                    (blockCount + 1) * Long.BYTES);
+            blockOffsets = new long[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                blockOffsets[i] = index.getLong();
+            }
+            inflater = new Inflater();
+        } else {
+            recordCount = (int) ((channel.size() - TraceWriter.HEADER_BYTES) / recordBytes);
+            blockOffsets = null;
+            inflater = null;
+        }
+
+        if (recordCount > 0) {
+            load(0);
+            firstCycle = block.getInt(0);
+        }
+    }
+
+    /**
+     * Opens a trace file.
+     * @param path the trace file
+     * @return the reader
+     */
+    public static TraceReader open(final Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new TraceReader(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the number of pipeline registers in each record.
+     */
+    public int registers() {
+        return registers;
+    }
+
+    /**
+     * Gets the number of instructions each pipeline register holds, 2 for a pipeline issuing two per cycle.
+     */
+    public int issueWidth() {
+        return issueWidth;
+    }
+
+    public int firstCycle() {
+        return firstCycle;
+    }
+
+    public int lastCycle() {
+        return firstCycle + recordCount - 1;
+    }
+
+    /**
+     * Moves to the record of the given cycle.
+     * @param cycle the cycle
+     * @return false if the trace has no record for the cycle
+     */
+    public boolean seek(final int cycle) throws IOException {
+        final long index = (long) cycle - firstCycle;
+        if (index < 0 || index >= recordCount) {
+            return false;
+        }
+
+        load((int) index);
+        return true;
+    }
+
+    public int cycle() {
+        return block.getInt(position);
+    }
+
+    public int pc() {
+        return block.getInt(position + Integer.BYTES);
+    }
+
+    /**
+     * Gets the opcode in a pipeline register of the current record.
+     * @param stage the pipeline register, 0 being if/id
+     * @return the opcode ordinal, or {@link TraceWriter#EMPTY}
+     */
+    public int stageOpcode(final int stage) {
+        return stageOpcode(stage, 0);
+    }
+
+    /**
+     * Gets the opcode in a slot of a pipeline register of the current record.
+     * @param stage the pipeline register, 0 being if/id
+     * @param lane the slot, below {@link #issueWidth()}
+     * @return the opcode ordinal, or {@link TraceWriter#EMPTY}
+     */
+    public int stageOpcode(final int stage, final int lane) {
+        return block.get(position + 2 * Integer.BYTES + lane * registers + stage);
+    }
+
+    /**
+     * Gets the PC a pipeline register's instruction of the current record was fetched from.
+     * @param stage the pipeline register, 0 being if/id
+     * @return the PC, or -1 for empty registers, squashes and stalls
+     */
+    public int stagePc(final int stage) {
+        return stagePc(stage, 0);
+    }
+
+    /**
+     * Gets the PC the instruction in a slot of a pipeline register of the current record was fetched from.
+     * @param stage the pipeline register, 0 being if/id
+     * @param lane the slot, below {@link #issueWidth()}
+     * @return the PC, or -1 for empty slots, squashes and stalls
+     */
+    public int stagePc(final int stage, final int lane) {
+        final int slots = registers * issueWidth;
+        return block.getInt(position + 2 * Integer.BYTES + slots + (lane * registers + stage) * Integer.BYTES);
+    }
+
+    /**
+     * Prints the records of a range of cycles, clamped to the cycles the trace holds.
+     * @param from the first cycle to print
+     * @param to the last cycle to print
+     * @param out where to print
+     */
+    public void render(final int from, final int to, final PrintStream out) throws IOException {
+        final String[] contents = new String[registers];
+        final String[] secondContents = issueWidth > 1 ? new String[registers] : null;
+        final int last = Math.min(to, lastCycle());
+        for (int cycle = Math.max(from, firstCycle); cycle <= last; cycle++) {
+            seek(cycle);
+            for (int i = 0; i < registers; i++) {
+                contents[i] = CPUSimulator.stageName(stageOpcode(i));
+                if (secondContents != null) {
+                    secondContents[i] = CPUSimulator.stageName(stageOpcode(i, 1));
+                }
+            }
+            CPUSimulator.printPipelineRegisters(out, registerNames, pc(), contents, secondContents);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        channel.close();
+    }
+
+    private void load(final int index) throws IOException {
+        final int blockIdx = index / blockRecords;
+        if (blockIdx != loadedBlock) {
+            block.clear();
+            if (compressed) {
+                final ByteBuffer raw = read(blockOffsets[blockIdx], (int) (blockOffsets[blockIdx + 1] - blockOffsets[blockIdx]));
+                inflater.reset();
+                inflater.setInput(raw.array());
+                try {
+                    inflater.inflate(block.array(), 0, block.capacity());
+                } catch (DataFormatException ex) {
+                    throw new IOException("Corrupt pipeline trace block.", ex);
+                }
+            } else {
+                final long start = TraceWriter.HEADER_BYTES + (long) blockIdx * block.capacity();
+                final int records = Math.min(blockRecords, recordCount - blockIdx * blockRecords);
+                block.put(read(start, records * recordBytes));
+            }
+            loadedBlock = blockIdx;
+        }
+
+        position = (index - blockIdx * blockRecords) * recordBytes;
+    }
+
+    private ByteBuffer read(long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(MachineCode.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Pipeline trace ended early.");
+            }
+            position += read;
+        }
+        return buffer.flip();
+    }
+
+    public static void main(final String[] args) {
+        if (args.length < 1) {
+            System.err.println("Invalid syntax.");
+            System.err.println("Syntax: java TraceReader <trace> [first cycle [last cycle]]");
+            System.exit(1);
+            return;
+        }
+
+        try (final TraceReader reader = open(Path.of(args[0]))) {
+            final int from = args.length > 1 ? Integer.parseInt(args[1]) : reader.firstCycle();
+            final int to = args.length > 2 ? Integer.parseInt(args[2]) : args.length > 1 ? from : reader.lastCycle();
+            if (reader.recordCount() == 0) {
+                System.err.printf("%s holds no cycles.%n", args[0]);
+                System.exit(1);
+                return;
+            }
+            if (from < reader.firstCycle() || to > reader.lastCycle() || from > to) {
+                System.err.printf("Cycles must lie between %d and %d, the first no later than the last.%n",
+                        reader.firstCycle(), reader.lastCycle());
+                System.exit(1);
+                return;
+            }
+
+            final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+            reader.render(from, to, out);
+            out.flush();
+        } catch (IOException ex) {
+            System.err.printf("Could not read %s: %s%n", args[0], ex.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException ex) {
+            System.err.println("Cycles must be integers.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes a binary pipeline trace: one fixed-size record per simulated cycle, holding the cycle, the PC and the
+ * opcode and PC in each pipeline register. {@link TraceReader} renders traces back into the text format of
+ * {@link CPUSimulator#dumpPipelineRegisterState()}.
+ * <p>A trace starts with a {@link #HEADER_BYTES}-byte header: magic "L4PT", {@link #FORMAT_VERSION}, flags, the
+ * number of records per block and the number of pipeline registers, which with the flags fixes the record size.
+ * A pipeline issuing two instructions per cycle sets {@link #FLAG_SECOND_LANE}, and its records hold every pipeline
+ * register's second slot after all the first ones. Records are gathered into blocks of {@link #BLOCK_RECORDS} and written one block
+ * at a time. Uncompressed, the blocks simply follow the header, so record i sits at a fixed offset. Compressed,
+ * every block is deflated on its own, and {@link #close()} appends the byte offset of each block followed by the
+ * block count, the record count and the trailer magic "L4PE", so any record is still one block away. A compressed
+ * trace that was never closed has no index and cannot be read.</p>
+ * <p>Records must cover consecutive cycles. Going back in time, by reverse stepping or a reset, discards the
+ * records after the cycle the simulator went back to via {@link #truncate(int)}.</p>
+ */
+public final class TraceWriter implements AutoCloseable, PipelineListener {
+    public static final int FORMAT_VERSION = 2;
+    public static final String EXTENSION = ".l4t";
+    public static final int FLAG_COMPRESSED = 1;
+    public static final int FLAG_SECOND_LANE = 2;
+    public static final int HEADER_BYTES = 5 * Integer.BYTES;
+    public static final int BLOCK_RECORDS = 4096;
+    // opcode byte of an empty pipeline register
+    public static final byte EMPTY = -1;
+
+    // "L4PT" and "L4PE"
+    static final int MAGIC = 0x4C345054;
+    static final int TRAILER_MAGIC = 0x4C345045;
+    static final int TRAILER_BYTES = 3 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final boolean compressed;
+    // the pipeline registers times the slots in each
+    private final int slots;
+    private final int recordBytes;
+    private final ByteBuffer block;
+    private final Deflater deflater;
+    private byte[] deflated;
+    // file offset of every block written so far, plus the end of the last one
+    private long[] blockOffsets = new long[16];
+    private int blocksWritten;
+    private int firstCycle;
+    private int recordCount;
+
+    private TraceWriter(final FileChannel channel, final int slots, final boolean compressed) {
+        this.channel = channel;
+        this.compressed = compressed;
+        this.slots = slots;
+        this.recordBytes = recordBytes(slots);
+        this.block = ByteBuffer.allocate(BLOCK_RECORDS * recordBytes).order(MachineCode.BYTE_ORDER);
+        this.deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.deflated = compressed ? new byte[block.capacity()] : null;
+    }
+
+    /**
+     * Gets the size of a record of a pipeline with the given number of register slots: the cycle, the PC, an
+     * opcode byte per slot and a PC per slot.
+     */
+    public static int recordBytes(final int slots) {
+        return 2 * Integer.BYTES + slots + slots * Integer.BYTES;
+    }
+
+    /**
+     * Creates a trace file of a scalar pipeline, replacing any existing one.
+     * @param path the trace file
+     * @param registers the number of pipeline registers
+     * @param compressed whether to deflate the records
+     * @return the writer
+     */
+    public static TraceWriter create(final Path path, final int registers, final boolean compressed) throws IOException {
+        return create(path, registers, 1, compressed);
+    }
+
+    /**
+     * Creates a trace file, replacing any existing one.
+     * @param path the trace file
+     * @param registers the number of pipeline registers
+     * @param issueWidth the instructions each pipeline register holds, 1 or 2
+     * @param compressed whether to deflate the records
+     * @return the writer
+     */
+    public static TraceWriter create(final Path path, final int registers, final int issueWidth,
+                                     final boolean compressed) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+        final TraceWriter writer = new TraceWriter(channel, registers * issueWidth, compressed);
+
+        final int flags = (compressed ? FLAG_COMPRESSED : 0) | (issueWidth > 1 ? FLAG_SECOND_LANE : 0);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(MachineCode.BYTE_ORDER);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(flags).putInt(BLOCK_RECORDS)
+                .putInt(registers);
+        writer.writeFully(header.flip(), 0);
+        writer.blockOffsets[0] = HEADER_BYTES;
+        return writer;
+    }
+
+    /**
+     * Appends the record of one cycle.
+     * @param cycle the cycle, which must directly follow the previous record's
+     * @param pc the program counter
+     * @param opcodes the opcode ordinal in each pipeline register, if/id first, or {@link #EMPTY}, followed by
+     *                those of the second slots if the pipeline has them
+     * @param pcs the PC each pipeline register's instruction was fetched from, or -1, in the same order
+     */
+    public void record(final int cycle, final int pc, final byte[] opcodes, final int[] pcs) {
+        if (recordCount == 0) {
+            firstCycle = cycle;
+        } else if (cycle != firstCycle + recordCount) {
+            throw new IllegalStateException(String.format("Trace record for cycle %d does not follow cycle %d.",
+                    cycle, firstCycle + recordCount - 1));
+        }
+
+        block.putInt(cycle).putInt(pc).put(opcodes, 0, slots);
+        for (int i = 0; i < slots; i++) {
+            block.putInt(pcs[i]);
+        }
+        recordCount++;
+
+        if (!block.hasRemaining()) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void cycleEnded(final int cycle, final int pc, final byte[] opcodes, final int[] pcs) {
+        record(cycle, pc, opcodes, pcs);
+    }
+
+    /**
+     * Discards the records of every cycle after the given one.
+     * @param cycle the last cycle to keep
+     */
+    public void truncate(final int cycle) {
+        final int keep = Math.max(0, Math.min(recordCount, cycle - firstCycle + 1));
+        if (keep == recordCount) {
+            return;
+        }
+
+        final int blockIdx = keep / BLOCK_RECORDS;
+        if (blockIdx < blocksWritten) {
+            // the cut falls in a block already on disk, so read it back in and drop it and everything after
+            block.clear();
+            readBlock(blockIdx);
+            blocksWritten = blockIdx;
+            try {
+                channel.truncate(blockOffsets[blockIdx]);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        block.position((keep - blockIdx * BLOCK_RECORDS) * recordBytes);
+        block.limit(block.capacity());
+        recordCount = keep;
+    }
+
+    public int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes any buffered records and, for compressed traces, the block index, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (block.position() > 0) {
+                flushBlock();
+            }
+
+            if (compressed) {
+                final ByteBuffer index = ByteBuffer.allocate((blocksWritten + 1) * Long.BYTES + TRAILER_BYTES)
+                        .order(MachineCode.BYTE_ORDER);
+                for (int i = 0; i <= blocksWritten; i++) {
+                    index.putLong(blockOffsets[i]);
+                }
+                index.putInt(blocksWritten).putInt(recordCount).putInt(TRAILER_MAGIC);
+                writeFully(index.flip(), blockOffsets[blocksWritten]);
+                deflater.end();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBlock() {
+        block.flip();
+        final long offset = blockOffsets[blocksWritten];
+        final int length;
+        if (compressed) {
+            deflater.reset();
+            deflater.setInput(block.array(), 0, block.limit());
+            deflater.finish();
+            length = deflate();
+            writeFully(ByteBuffer.wrap(deflated, 0, length), offset);
+        } else {
+            length = block.limit();
+            writeFully(block, offset);
+        }
+
+        if (blocksWritten + 1 == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+        }
+        blocksWritten++;
+        blockOffsets[blocksWritten] = offset + length;
+        block.clear();
+    }
+
+    private int deflate() {
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return length;
+    }
+
+    private void readBlock(final int blockIdx) {
+        final long offset = blockOffsets[blockIdx];
+        final int length = (int) (blockOffsets[blockIdx + 1] - offset);
+        try {
+            if (compressed) {
+                final ByteBuffer raw = ByteBuffer.allocate(length);
+                readFully(raw, offset);
+                final Inflater inflater = new Inflater();
+                inflater.setInput(raw.array());
+                inflater.inflate(block.array(), 0, block.capacity());
+                inflater.end();
+            } else {
+                readFully(block, offset);
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void writeFully(final ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Trace file ended early.");
+                }
+                position += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
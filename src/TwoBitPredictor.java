@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Predicts each branch from a 2-bit saturating counter, found by the low bits of its PC. Counters start weakly not
+ * taken, and it takes two mispredictions in a row to flip a strong prediction.
+ */
+public final class TwoBitPredictor implements BranchPredictor {
+    public static final int DEFAULT_ENTRIES = 1024;
+
+    // 0 and 1 predict not taken, 2 and 3 taken
+    private static final byte WEAKLY_NOT_TAKEN = 1;
+    private static final byte STRONGLY_TAKEN = 3;
+
+    private final byte[] counters;
+    private final int mask;
+
+    /**
+     * @param entries the number of counters, a power of two
+     */
+    public TwoBitPredictor(final int entries) {
+        if (entries <= 0 || Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException("The number of counters must be a power of two.");
+        }
+        counters = new byte[entries];
+        mask = entries - 1;
+        reset();
+    }
+
+    @Override
+    public String name() {
+        return "2bit";
+    }
+
+    @Override
+    public boolean predictTaken(final int pc, final int target) {
+        return counters[pc & mask] > WEAKLY_NOT_TAKEN;
+    }
+
+    @Override
+    public void update(final int pc, final int target, final boolean taken) {
+        counters[pc & mask] = train(counters[pc & mask], taken);
+    }
+
+    /**
+     * Moves a saturating counter towards the outcome.
+     */
+    static byte train(final byte counter, final boolean taken) {
+        if (taken) {
+            return counter < STRONGLY_TAKEN ? (byte) (counter + 1) : counter;
+        }
+        return counter > 0 ? (byte) (counter - 1) : counter;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(counters, WEAKLY_NOT_TAKEN);
+    }
+
+    @Override
+    public BranchPredictor copy() {
+        final TwoBitPredictor copy = new TwoBitPredictor(counters.length);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    @Override
+    public void copyFrom(final BranchPredictor other) {
+        System.arraycopy(((TwoBitPredictor) other).counters, 0, counters, 0, counters.length);
+    }
+}
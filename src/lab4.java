@@ -1,38 +1,505 @@
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class lab4 {
+    public static final String BINARY_EXTENSION = ".bin";
+    private static final String TRACE_OPTION = "--trace=";
+    private static final String STATS_JSON_OPTION = "--stats-json=";
+    private static final String PROFILE_COLLAPSED_OPTION = "--profile-collapsed=";
+    private static final String PIPELINE_OPTION = "--pipeline=";
+    private static final String PREDICTOR_OPTION = "--predictor=";
+    private static final String INSTRUCTION_CACHE_OPTION = "--icache";
+    private static final String DATA_CACHE_OPTION = "--dcache";
+    private static final String CORES_OPTION = "--cores=";
+    private static final String THREADS_OPTION = "--threads=";
+    private static final String QUANTUM_OPTION = "--quantum=";
+    private static final String SWEEP_OPTION = "--sweep=";
+    private static final Pattern SWEEP = Pattern.compile("(\\$?\\w+)=(-?\\d+)\\.\\.(-?\\d+)");
+    // every lane keeps PagedMemory.WINDOW_WORDS words of memory, so this bounds a sweep to 32 MiB
+    private static final int MAX_SWEEP_LANES = 1024;
+    private static final Pattern LEADING_LABELS = Pattern.compile("^(\\s*\\w+\\s*:)+");
+
+    // what is known about the source of the program, for profiles
+    private Map<String, Integer> labelAddresses = Map.of();
+    private List<String> sourceText;
+
     public static void main(final String[] args) {
         new lab4().runProgram(args);
     }
 
-    public void runProgram(final String[] args) {
+    public void runProgram(final String[] rawArgs) {
+        final List<String> options = new ArrayList<>();
+        final List<String> positional = new ArrayList<>();
+        for (final String arg : rawArgs) {
+            if (arg.startsWith("--")) {
+                options.add(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        final String[] args = positional.toArray(String[]::new);
+        if (options.contains("--cache-stats")) {
+            printCacheStats();
+            if (args.length < 1) {
+                return;
+            }
+        }
+
         if (args.length < 1) {
             System.err.println("Invalid syntax.");
-            System.err.printf("Syntax: java lab4 <file> [script]%n");
+            System.err.printf("Syntax: java lab4 [--throughput] [--functional] [--jit] [--sweep=<register>=<from>..<to> [--threads=<n>]] [--fast-forward] [--decoupled] [--emit-bin] [--cache] [--cache-stats] [--trace=<file>] [--trace-compress] [--stats] [--stats-json=<file>] [--profile] [--profile-collapsed=<file>] [--pipeline=<spec>] [--predictor=<name>] [--icache[=<spec>]] [--dcache[=<spec>]] [--cores=<n> [--threads=<n>] [--quantum=<cycles>]] <file> [script]%n");
             System.exit(1);
             return;
         }
 
-        final Assembler assembler = new Assembler(readFile(args[0]));
-        assembler.assemble();
+        final PipelineConfig pipelineConfig = parsePipeline(options);
+        final BranchPredictor predictor = createPredictor(options);
+        final Cache instructionCache = createCache(options, INSTRUCTION_CACHE_OPTION);
+        final Cache dataCache = createCache(options, DATA_CACHE_OPTION);
 
-        final Emulator emulator = new Emulator(assembler.instructions());
-        final CPUSimulator simulator = new CPUSimulator(emulator);
-        final Repl repl = new Repl(simulator);
+        final DecodedProgram program;
+        if (args[0].endsWith(BINARY_EXTENSION)) {
+            program = loadBinary(args[0]);
+        } else {
+            final List<Instruction> instructions = assemble(readFile(args[0]), options.contains("--cache"));
+            if (options.contains("--emit-bin")) {
+                writeBinary(instructions, args[0]);
+                return;
+            }
+            program = DecodedProgram.decode(instructions);
+        }
+
+        final String cores = valueOf(options, CORES_OPTION);
+        if (cores != null) {
+            runMultiCore(options, program, pipelineConfig, parseCount(cores, CORES_OPTION));
+            return;
+        }
+
+        final String sweep = valueOf(options, SWEEP_OPTION);
+        if (sweep != null) {
+            runSweep(options, program, pipelineConfig, sweep);
+            return;
+        }
+
+        if (options.contains("--functional") || options.contains("--jit")) {
+            runFunctional(program, options.contains("--jit"), options.contains("--throughput"));
+            return;
+        }
+
+        final Emulator emulator = new Emulator(program);
+        final CPUSimulator simulator = new CPUSimulator(emulator, pipelineConfig);
+        simulator.setReportThroughput(options.contains("--throughput"));
+        simulator.setFastForward(options.contains("--fast-forward"));
+        simulator.setDecoupled(options.contains("--decoupled"));
+        simulator.setBranchPredictor(predictor);
+        simulator.setCaches(instructionCache, dataCache);
+        final String statsJson = valueOf(options, STATS_JSON_OPTION);
+        simulator.setStatsEnabled(options.contains("--stats") || statsJson != null);
+        final TraceWriter trace = openTrace(options, pipelineConfig);
+        simulator.setTrace(trace);
+        final String profileCollapsed = valueOf(options, PROFILE_COLLAPSED_OPTION);
+        if (options.contains("--profile") || profileCollapsed != null) {
+            final CycleProfiler profiler = new CycleProfiler(program.instructions(), labelAddresses);
+            profiler.setSourceText(sourceText);
+            simulator.setProfiler(profiler);
+        }
+        final Repl repl = new Repl(simulator, labelAddresses);
 
         if (args.length < 2) {
             repl.start();
         } else {
-            repl.startScript(new File(args[1]));
+            try {
+                repl.startScript(new File(args[1]));
+            } catch (UncheckedIOException ex) {
+                System.err.println(ex.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (IOException ex) {
+                System.err.printf("Could not finish the trace: %s%n", ex.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (statsJson != null) {
+            try {
+                Files.writeString(Path.of(statsJson),
+                        simulator.stats().toJson(simulator.cycles(), simulator.instructionCount()));
+            } catch (IOException ex) {
+                System.err.printf("Could not write %s: %s%n", statsJson, ex.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (profileCollapsed != null) {
+            try {
+                simulator.profiler().writeCollapsedStacks(Path.of(profileCollapsed));
+            } catch (IOException ex) {
+                System.err.printf("Could not write %s: %s%n", profileCollapsed, ex.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Runs the program to completion on the emulator alone, without a pipeline, script or anything else that
+     * watches it instruction by instruction, and prints the final registers and the instruction count.
+     * @param tiered whether hot basic blocks are compiled rather than interpreted
+     * @param reportThroughput whether to print the instructions executed per second as well
+     */
+    private static void runFunctional(final DecodedProgram program, final boolean tiered,
+                                      final boolean reportThroughput) {
+        final Emulator emulator = new Emulator(program);
+        emulator.setTieredCompilation(tiered);
+        final long start = System.nanoTime();
+        final long instructions = emulator.runToCompletion();
+        final long elapsedNanos = System.nanoTime() - start;
+
+        System.out.println();
+        System.out.println("Program complete");
+        emulator.dumpRegisters();
+        System.out.printf("Instructions = %d\n", instructions);
+        if (reportThroughput && elapsedNanos > 0) {
+            System.out.printf("Instructions/sec = %.0f\n", instructions / (elapsedNanos / 1e9));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the program once for every value from one bound to the other of a register, given as
+     * &lt;register&gt;=&lt;from&gt;..&lt;to&gt;, all at once on a {@link BatchEmulator}, and prints the $v0 and $v1
+     * each run returned. Like a functional run, no pipeline is modeled, unless --threads is given, in which case
+     * every run is modeled on the pipeline instead.
+     */
+    private static void runSweep(final List<String> options, final DecodedProgram program,
+                                 final PipelineConfig config, final String sweep) {
+        final Matcher matcher = SWEEP.matcher(sweep);
+        final Register register;
+        final int from;
+        final int to;
+        try {
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("--sweep must be given <register>=<from>..<to>.");
+            }
+            final String name = matcher.group(1);
+            register = Register.getByRegisterName(name.startsWith("$") ? name : "$" + name);
+            from = Integer.parseInt(matcher.group(2));
+            to = Integer.parseInt(matcher.group(3));
+            if (to < from || (long) to - from >= MAX_SWEEP_LANES) {
+                throw new IllegalArgumentException(String.format(
+                        "--sweep must run from a value to one no smaller, at most %d values in all.", MAX_SWEEP_LANES));
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(
+                    ex instanceof NumberFormatException ? "--sweep bounds must be integers." : ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        final String threads = valueOf(options, THREADS_OPTION);
+        if (threads != null) {
+            runPipelineSweep(options, program, config, register, from, to, parseCount(threads, THREADS_OPTION));
+            return;
+        }
+
+        final BatchEmulator emulator = new BatchEmulator(program, to - from + 1);
+        for (int lane = 0; lane < emulator.lanes(); lane++) {
+            emulator.writeRegister(lane, register.number(), from + lane);
+        }
+        final long instructions = emulator.runToCompletion();
+
+        System.out.println();
+        System.out.println("Program complete");
+        for (int lane = 0; lane < emulator.lanes(); lane++) {
+            System.out.printf("%s = %d\t$v0 = %d\t$v1 = %d\n", register.registerName(), from + lane,
+                    emulator.readRegister(lane, Register.V0.number()),
+                    emulator.readRegister(lane, Register.V1.number()));
+        }
+        System.out.printf("Lanes = %d\tInstructions = %d\n", emulator.lanes(), instructions);
+        if (options.contains("--throughput")) {
+            System.out.printf("Lane instructions/sec = %.0f\n", emulator.laneInstructionsPerSecond());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the program through the pipeline model once for every value of a register from one bound to the other,
+     * the given number of runs at a time on a {@link SimulationPool}, each with its own predictor and caches as the
+     * options describe. Prints the $v0 and $v1 each run returned and the cycles it took, like a sweep on the
+     * emulator alone does without the cycles.
+     */
+    private static void runPipelineSweep(final List<String> options, final DecodedProgram program,
+                                         final PipelineConfig config, final Register register, final int from,
+                                         final int to, final int threads) {
+        final boolean fastForward = options.contains("--fast-forward");
+        final List<Function<CPUSimulator, int[]>> runs = new ArrayList<>(to - from + 1);
+        for (int value = from; value <= to; value++) {
+            final int start = value;
+            runs.add(simulator -> {
+                simulator.setCheckpointInterval(0);
+                simulator.setFastForward(fastForward);
+                simulator.setBranchPredictor(createPredictor(options));
+                simulator.setCaches(createCache(options, INSTRUCTION_CACHE_OPTION),
+                        createCache(options, DATA_CACHE_OPTION));
+                simulator.emulator().writeRegister(register.number(), start);
+                simulator.runToCompletion();
+                return new int[] {
+                        simulator.emulator().readRegister(Register.V0.number()),
+                        simulator.emulator().readRegister(Register.V1.number()),
+                        simulator.cycles(), simulator.instructionCount()
+                };
+            });
+        }
+
+        final long start = System.nanoTime();
+        final List<int[]> results;
+        try (SimulationPool pool = new SimulationPool(program, config, threads)) {
+            results = pool.runAll(runs);
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+
+        System.out.println();
+        System.out.println("Program complete");
+        long cycles = 0;
+        long instructions = 0;
+        for (int run = 0; run < results.size(); run++) {
+            final int[] result = results.get(run);
+            System.out.printf("%s = %d\t$v0 = %d\t$v1 = %d\tCycles = %d\n", register.registerName(), from + run,
+                    result[0], result[1], result[2]);
+            cycles += result[2];
+            instructions += result[3];
+        }
+        System.out.printf("Runs = %d\tThreads = %d\tCycles = %d\tInstructions = %d\n", results.size(), threads,
+                cycles, instructions);
+        if (options.contains("--throughput") && elapsedNanos > 0) {
+            System.out.printf("Simulated cycles/sec = %.0f\n", cycles / (elapsedNanos / 1e9));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs the program to completion on several cores sharing memory, each with its own predictor and caches as
+     * the options describe, and prints every core's timing. The cores run without a script, trace, statistics or
+     * profile, which all follow a single pipeline.
+     */
+    private static void runMultiCore(final List<String> options, final DecodedProgram program,
+                                     final PipelineConfig config, final int cores) {
+        final String threads = valueOf(options, THREADS_OPTION);
+        final String quantum = valueOf(options, QUANTUM_OPTION);
+        final MultiCoreSimulator simulator;
+        try {
+            simulator = new MultiCoreSimulator(program, config, cores,
+                    threads == null ? cores : parseCount(threads, THREADS_OPTION),
+                    quantum == null ? 1 : parseCount(quantum, QUANTUM_OPTION));
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        for (int core = 0; core < cores; core++) {
+            simulator.core(core).setBranchPredictor(createPredictor(options));
+            simulator.core(core).setCaches(createCache(options, INSTRUCTION_CACHE_OPTION),
+                    createCache(options, DATA_CACHE_OPTION));
+        }
+        simulator.run();
+    }
+
+    /**
+     * Parses the positive count given to an option, exiting if it is not one.
+     */
+    private static int parseCount(final String value, final String option) {
+        try {
+            final int count = Integer.parseInt(value);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below, like a count that is not positive
+        }
+
+        System.err.printf("%s must be given a positive integer.%n", option.substring(0, option.length() - 1));
+        System.exit(1);
+        return 0;
+    }
+
+    /**
+     * Gets the value of the last --name=value option with the given prefix, or null if there is none.
+     */
+    private static String valueOf(final List<String> options, final String prefix) {
+        String value = null;
+        for (final String option : options) {
+            if (option.startsWith(prefix)) {
+                value = option.substring(prefix.length());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Parses the pipeline described by --pipeline=, exiting if it is invalid, or gets the default pipeline.
+     */
+    private static PipelineConfig parsePipeline(final List<String> options) {
+        final String spec = valueOf(options, PIPELINE_OPTION);
+        if (spec == null) {
+            return PipelineConfig.DEFAULT;
+        }
+
+        try {
+            return PipelineConfig.parse(spec);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the branch predictor named by --predictor=, exiting if there is no such predictor, or gets null
+     * for the lab's pipeline, which predicts not taken.
+     */
+    private static BranchPredictor createPredictor(final List<String> options) {
+        final String name = valueOf(options, PREDICTOR_OPTION);
+        if (name == null) {
+            return null;
+        }
+
+        try {
+            return BranchPredictor.forName(name);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the cache enabled by the given option, alone for the default cache or followed by = and its
+     * settings, exiting if they are invalid, or gets null if the option is not given.
+     */
+    private static Cache createCache(final List<String> options, final String option) {
+        final String spec = valueOf(options, option + "=");
+        if (spec == null && !options.contains(option)) {
+            return null;
+        }
+
+        try {
+            return new Cache(spec == null ? CacheConfig.DEFAULT : CacheConfig.parse(spec));
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the pipeline trace named by --trace=, if any, compressed with --trace-compress.
+     */
+    private static TraceWriter openTrace(final List<String> options, final PipelineConfig config) {
+        final String path = valueOf(options, TRACE_OPTION);
+        if (path == null) {
+            return null;
+        }
+
+        try {
+            return TraceWriter.create(Path.of(path), config.depth(), config.issueWidth(),
+                    options.contains("--trace-compress"));
+        } catch (IOException ex) {
+            System.err.printf("Could not create %s: %s%n", path, ex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Assembles the source, exiting with the assembler's error if there is one. With the cache enabled, a cache
+     * hit skips the assembler entirely, and with it the source text of each instruction.
+     */
+    private List<Instruction> assemble(final List<String> source, final boolean useCache) {
+        final AssemblyCache cache = useCache ? new AssemblyCache(AssemblyCache.defaultDirectory()) : null;
+        final String key = useCache ? AssemblyCache.key(source) : null;
+        if (useCache) {
+            final AssemblyCache.Entry cached = cache.get(key);
+            if (cached != null) {
+                labelAddresses = cached.labelAddresses();
+                return cached.instructions();
+            }
+        }
+
+        final Assembler assembler = new Assembler(source);
+        assembler.parse();
+        if (assembler.error() != null) {
+            System.err.println(assembler.error());
+            System.exit(1);
+        }
+
+        if (useCache) {
+            cache.put(key, assembler.instructions(), assembler.labelAddresses());
+        }
+
+        labelAddresses = assembler.labelAddresses();
+        sourceText = new ArrayList<>(assembler.instructions().size());
+        for (final int line : assembler.instructionLines()) {
+            // just the instruction, without labels, comment or extra whitespace
+            final String text = source.get(line - 1);
+            final int comment = text.indexOf('#');
+            sourceText.add(LEADING_LABELS.matcher(comment < 0 ? text : text.substring(0, comment)).replaceFirst("")
+                    .trim().replaceAll("\\s+", " "));
+        }
+        return assembler.instructions();
+    }
+
+    private static void printCacheStats() {
+        final AssemblyCache cache = new AssemblyCache(AssemblyCache.defaultDirectory());
+        final long[] stats = cache.stats();
+        final long lookups = stats[0] + stats[1];
+        System.out.printf("Assembly cache %s: %d hits, %d misses (%.1f%% hit rate)%n", cache.directory(),
+                stats[0], stats[1], lookups == 0 ? 0.0 : 100.0 * stats[0] / lookups);
+    }
+
+    /**
+     * Writes the program's machine code next to the source file, with its extension replaced by .bin.
+     */
+    private static void writeBinary(final List<Instruction> instructions, final String sourcePath) {
+        final int dot = sourcePath.lastIndexOf('.');
+        final String binPath = (dot > sourcePath.lastIndexOf(File.separatorChar) ? sourcePath.substring(0, dot) : sourcePath)
+                + BINARY_EXTENSION;
+
+        try {
+            MachineCode.write(instructions, Path.of(binPath));
+        } catch (IOException | IllegalStateException ex) {
+            System.err.printf("Could not write %s: %s%n", binPath, ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static DecodedProgram loadBinary(final String path) {
+        try {
+            return MachineCode.load(Path.of(path));
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.printf("Could not load %s: %s%n", path, ex.getMessage());
+            System.exit(1);
+            return null;
         }
     }
 
-    private List<String> readFile(final String path) {
+    public static List<String> readFile(final String path) {
         final File file = new File(path);
         if (!file.exists()) {
             throw new RuntimeException("The specified file does not exist.");
@@ -40,24 +507,12 @@ public class lab4 {
             throw new RuntimeException("The specified file does not allow reading.");
         }
 
+        // comments, blank lines and whitespace are left to the assembler so it can report real line numbers
         final List<String> lines = new ArrayList<>();
-        try (final Scanner scanner = new Scanner(new FileInputStream(file))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-
-                // skip blank lines and comments
-                if (line.isBlank() || line.startsWith("#")) {
-                    continue;
-                }
-
-                // get rid of comments at end of lines
-                final int commentIdx = line.indexOf("#");
-                if (commentIdx != -1) {
-                    line = line.substring(0, commentIdx);
-                }
-
-                // get rid of all remaining whitespace in instruction
-                lines.add(line.replaceAll("\\s*", ""));
+        try (final BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
             }
         } catch (IOException ex) {
             System.err.println("Encountered IOException while reading the file.");
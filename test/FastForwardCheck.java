@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that fast-forwarding ends on the same cycle and instruction counts as modeling the pipeline cycle by cycle.
+ * Random programs, with forward branches, counted loops and calls, are each run to completion both ways under
+ * several pipelines, fast-forwarding from a few points partway through as well as from the start. Prints every
+ * program that disagrees, with the pipeline and the cycle it fast-forwarded from.
+ * <p>Built with the core module's test sources, and run with
+ * {@code java -cp core/target/classes:core/target/test-classes FastForwardCheck [programs] [seed]}.</p>
+ */
+public final class FastForwardCheck {
+    private static final String[] PIPELINES = {
+            "forwarding=on", "forwarding=off", "stages=7", "stages=7,branch=2,load-latency=2", "stages=4",
+            "stages=8,branch=5"
+    };
+    private static final String[] REGISTERS = {"$t0", "$t1", "$t2", "$t3", "$s0", "$s1"};
+    // programs running longer than this are skipped, since two loops counting down one register may never end
+    private static final int MAX_CYCLES = 100_000;
+    private static final int FAST_FORWARD_POINTS = 8;
+
+    public static void main(final String[] args) {
+        final int programs;
+        final long seed;
+        try {
+            programs = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+            seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid syntax.");
+            System.err.println("Syntax: java FastForwardCheck [programs] [seed]");
+            System.exit(1);
+            return;
+        }
+
+        final Random random = new Random(seed);
+        int runs = 0;
+        int mismatches = 0;
+        for (int i = 0; i < programs; i++) {
+            final List<String> source = randomProgram(random);
+            final Assembler assembler = new Assembler(source);
+            assembler.parse();
+            if (assembler.error() != null) {
+                throw new IllegalStateException("A generated program does not assemble: " + assembler.error());
+            }
+
+            final DecodedProgram program = DecodedProgram.decode(assembler.instructions());
+            for (final String pipeline : PIPELINES) {
+                final PipelineConfig config = PipelineConfig.parse(pipeline);
+                final CPUSimulator full = new CPUSimulator(new Emulator(program), config);
+                full.setCheckpointInterval(0);
+                while (full.cycles() < MAX_CYCLES && full.runOneCycle(false)) {}
+                if (full.cycles() >= MAX_CYCLES) {
+                    continue;
+                }
+
+                final int step = Math.max(1, full.cycles() / FAST_FORWARD_POINTS);
+                for (int from = 0; from < full.cycles(); from += step) {
+                    final CPUSimulator fastForwarded = new CPUSimulator(new Emulator(program), config);
+                    fastForwarded.setCheckpointInterval(0);
+                    fastForwarded.setFastForward(true);
+                    for (int cycle = 0; cycle < from; cycle++) {
+                        fastForwarded.runOneCycle(false);
+                    }
+                    fastForwarded.runToCompletion();
+                    runs++;
+
+                    if (fastForwarded.cycles() != full.cycles()
+                            || fastForwarded.instructionCount() != full.instructionCount()) {
+                        mismatches++;
+                        System.out.printf("Pipeline %s, fast-forwarding from cycle %d: %d cycles and %d instructions, "
+                                        + "not %d and %d%n", pipeline, from, fastForwarded.cycles(),
+                                fastForwarded.instructionCount(), full.cycles(), full.instructionCount());
+                        source.forEach(line -> System.out.printf("\t%s%n", line));
+                    }
+                }
+            }
+        }
+
+        System.out.printf("%d programs, %d runs, %d mismatches%n", programs, runs, mismatches);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Generates a program of straight-line code with forward branches and loops counting $s7 down, ending on an
+     * instruction that is no branch. Half of them also call a subroutine placed after the rest; the others end
+     * right after their last branch, where wrong paths are cut short.
+     */
+    private static List<String> randomProgram(final Random random) {
+        final List<String> source = new ArrayList<>();
+        final boolean calls = random.nextBoolean();
+        final int size = 4 + random.nextInt(20);
+        source.add("addi $s7, $0, " + (1 + random.nextInt(4)));
+        for (int i = 0; i < size; i++) {
+            final String a = REGISTERS[random.nextInt(REGISTERS.length)];
+            final String b = REGISTERS[random.nextInt(REGISTERS.length)];
+            final String c = REGISTERS[random.nextInt(REGISTERS.length)];
+            final String label = "L" + i + ": ";
+            switch (random.nextInt(12)) {
+                case 0 -> source.add(label + "add " + a + ", " + b + ", " + c);
+                case 1 -> source.add(label + "addi " + a + ", " + b + ", " + (random.nextInt(7) - 3));
+                case 2 -> source.add(label + "slt " + a + ", " + b + ", " + c);
+                case 3 -> source.add(label + "lw " + a + ", " + random.nextInt(8) + "($0)");
+                case 4 -> source.add(label + "sw " + a + ", " + random.nextInt(8) + "($0)");
+                case 5, 6 -> source.add(label + (random.nextBoolean() ? "beq " : "bne ") + a + ", " + b + ", L"
+                        + Math.min(size, i + 1 + random.nextInt(4)));
+                case 7 -> {
+                    if (i == 0) {
+                        source.add(label + "sub " + a + ", " + b + ", " + c);
+                    } else {
+                        source.add(label + "addi $s7, $s7, -1");
+                        source.add("bne $s7, $0, L" + random.nextInt(i));
+                    }
+                }
+                case 8 -> source.add(label + (calls ? "jal F" : "sll " + a + ", " + b + ", 1"));
+                case 9 -> source.add(label + "and " + a + ", " + b + ", " + c);
+                case 10 -> source.add(label + "lw " + a + ", " + random.nextInt(8) + "(" + b + ")");
+                default -> source.add(label + "or " + a + ", " + b + ", " + c);
+            }
+        }
+        if (!calls) {
+            source.add("L" + size + ": add $s2, $t0, $t1");
+            return source;
+        }
+        source.add("L" + size + ": j END");
+        source.add("F: addi $t3, $t3, 1");
+        source.add("lw $t2, 3($0)");
+        source.add("add $t1, $t2, $t3");
+        source.add("jr $ra");
+        source.add("END: add $s2, $t0, $t1");
+        return source;
+    }
+}